@@ -0,0 +1,251 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.mlkit.vision.digitalink.DigitalInkRecognizer;
+import com.google.mlkit.vision.digitalink.Ink;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Recognizes a stream of inks offline, e.g. archived documents compared against their ground truth.
+ *
+ * <p>At most a fixed number of recognitions are in flight at once. The next ink is only pulled
+ * from the input once a recognition completes, so arbitrarily long inputs are never buffered in
+ * memory. Each result is emitted with its latency as soon as it is available, and a {@link Report}
+ * with the throughput and latency percentiles is returned once the input is exhausted.
+ *
+ * <p>The recognizer is behind the {@link Recognizer} interface, with no dependency on the Android
+ * main thread, so that the runner can be exercised on the JVM with a fake.
+ */
+public class BatchRecognitionRunner {
+
+  /** Recognizes a single ink, calling back on any thread. */
+  public interface Recognizer {
+    void recognize(Ink ink, Callback callback);
+
+    /** Receives the outcome of a recognition. */
+    interface Callback {
+      void onSuccess(@Nullable String text);
+
+      void onFailure(Exception e);
+    }
+  }
+
+  /** An ink to recognize, with the text it is expected to be recognized as, if known. */
+  public static class Item {
+    public final String id;
+    public final Ink ink;
+    @Nullable public final String expectedText;
+
+    public Item(String id, Ink ink, @Nullable String expectedText) {
+      this.id = id;
+      this.ink = ink;
+      this.expectedText = expectedText;
+    }
+  }
+
+  /** The outcome of the recognition of an item. */
+  public static class Result {
+    public final Item item;
+    // The top candidate, null if there was none or the recognition failed.
+    @Nullable public final String text;
+    @Nullable public final Exception error;
+    public final long latencyMs;
+
+    Result(Item item, @Nullable String text, @Nullable Exception error, long latencyMs) {
+      this.item = item;
+      this.text = text;
+      this.error = error;
+      this.latencyMs = latencyMs;
+    }
+
+    /** Returns whether the item has a ground truth and was recognized as it. */
+    public boolean isCorrect() {
+      return item.expectedText != null && item.expectedText.equals(text);
+    }
+  }
+
+  /** Receives the results as they complete, on the thread of the recognizer callback. */
+  public interface ResultListener {
+    void onResult(Result result);
+  }
+
+  /** Aggregated results of a run. */
+  public static class Report {
+    public final int numItems;
+    public final int numFailed;
+    // Items with a ground truth, and those of them recognized correctly.
+    public final int numLabeled;
+    public final int numCorrect;
+    public final long wallTimeMs;
+    public final long p50LatencyMs;
+    public final long p90LatencyMs;
+    public final long p99LatencyMs;
+
+    Report(
+        int numItems,
+        int numFailed,
+        int numLabeled,
+        int numCorrect,
+        long wallTimeMs,
+        long[] sortedLatencies) {
+      this.numItems = numItems;
+      this.numFailed = numFailed;
+      this.numLabeled = numLabeled;
+      this.numCorrect = numCorrect;
+      this.wallTimeMs = wallTimeMs;
+      this.p50LatencyMs = percentile(sortedLatencies, 50);
+      this.p90LatencyMs = percentile(sortedLatencies, 90);
+      this.p99LatencyMs = percentile(sortedLatencies, 99);
+    }
+
+    /** Returns the number of items recognized per second. */
+    public double getThroughput() {
+      return wallTimeMs == 0 ? 0 : numItems * 1000.0 / wallTimeMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d items (%d failed) in %d ms, %.1f items/s, latency p50=%dms p90=%dms p99=%dms,"
+              + " %d/%d correct",
+          numItems,
+          numFailed,
+          wallTimeMs,
+          getThroughput(),
+          p50LatencyMs,
+          p90LatencyMs,
+          p99LatencyMs,
+          numCorrect,
+          numLabeled);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+  }
+
+  private final Recognizer recognizer;
+  private final int maxConcurrency;
+
+  // Aggregates of the current run, guarded by this.
+  private int numItems;
+  private int numFailed;
+  private int numLabeled;
+  private int numCorrect;
+  private long[] latencies = new long[64];
+
+  public BatchRecognitionRunner(Recognizer recognizer, int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency must be at least 1");
+    }
+    this.recognizer = recognizer;
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  /** Returns a runner using the given ML Kit recognizer, e.g. the one of {@link ModelManager}. */
+  public static BatchRecognitionRunner forRecognizer(
+      DigitalInkRecognizer digitalInkRecognizer, int maxConcurrency) {
+    return new BatchRecognitionRunner(
+        (ink, callback) ->
+            digitalInkRecognizer
+                .recognize(ink)
+                // Runs the callback on the recognizer thread rather than the main thread, which
+                // the runner might be blocking.
+                .addOnSuccessListener(
+                    Runnable::run,
+                    result ->
+                        callback.onSuccess(
+                            result.getCandidates().isEmpty()
+                                ? null
+                                : result.getCandidates().get(0).getText()))
+                .addOnFailureListener(Runnable::run, callback::onFailure),
+        maxConcurrency);
+  }
+
+  /**
+   * Recognizes all the items, blocking until they are all done. Must not be called on the main
+   * thread, nor concurrently on the same runner.
+   */
+  public Report run(Iterator<Item> items, ResultListener listener) throws InterruptedException {
+    synchronized (this) {
+      numItems = 0;
+      numFailed = 0;
+      numLabeled = 0;
+      numCorrect = 0;
+    }
+    Semaphore permits = new Semaphore(maxConcurrency);
+    long startNanos = System.nanoTime();
+    while (true) {
+      // Waits for a free slot before pulling the next item, which provides the backpressure.
+      permits.acquire();
+      if (!items.hasNext()) {
+        permits.release();
+        break;
+      }
+      Item item = items.next();
+      long itemStartNanos = System.nanoTime();
+      recognizer.recognize(
+          item.ink,
+          new Recognizer.Callback() {
+            @Override
+            public void onSuccess(@Nullable String text) {
+              complete(new Result(item, text, null, elapsedMs(itemStartNanos)));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+              complete(new Result(item, null, e, elapsedMs(itemStartNanos)));
+            }
+
+            private void complete(Result result) {
+              try {
+                record(result);
+                listener.onResult(result);
+              } finally {
+                permits.release();
+              }
+            }
+          });
+    }
+    // Waits for the recognitions still in flight.
+    permits.acquire(maxConcurrency);
+    permits.release(maxConcurrency);
+    long wallTimeMs = elapsedMs(startNanos);
+
+    synchronized (this) {
+      long[] sorted = Arrays.copyOf(latencies, numItems);
+      Arrays.sort(sorted);
+      return new Report(numItems, numFailed, numLabeled, numCorrect, wallTimeMs, sorted);
+    }
+  }
+
+  private synchronized void record(Result result) {
+    if (numItems == latencies.length) {
+      latencies = Arrays.copyOf(latencies, numItems * 2);
+    }
+    latencies[numItems++] = result.latencyMs;
+    if (result.error != null) {
+      numFailed++;
+    }
+    if (result.item.expectedText != null) {
+      numLabeled++;
+      if (result.isCorrect()) {
+        numCorrect++;
+      }
+    }
+  }
+
+  private static long elapsedMs(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1_000_000;
+  }
+}
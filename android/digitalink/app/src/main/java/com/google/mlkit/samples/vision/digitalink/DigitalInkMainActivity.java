@@ -50,6 +50,7 @@ public class DigitalInkMainActivity extends AppCompatActivity
     strokeManager.setDownloadedModelsChangedListener(this);
     strokeManager.setClearCurrentInkAfterRecognition(true);
     strokeManager.setTriggerRecognitionAfterInput(false);
+    strokeManager.setSegmentedRecognition(true);
 
     languageAdapter = populateLanguageAdapter();
     languageAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
@@ -3,9 +3,11 @@ package com.google.mlkit.samples.vision.digitalink;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -14,13 +16,22 @@ import android.view.MotionEvent;
 import android.view.View;
 import com.google.mlkit.samples.vision.digitalink.StrokeManager.ContentChangedListener;
 import com.google.mlkit.vision.digitalink.Ink;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Main view for rendering content.
  *
  * <p>The view accepts touch inputs, renders them on screen, and passes the content to the
  * StrokeManager. The view is also able to draw content from the StrokeManager.
+ *
+ * <p>Content is rendered in layers: the recognized inks and their texts are drawn into two bitmaps
+ * which only get the newly recognized inks appended on content changes, while the ink that is not
+ * recognized yet and the stroke being drawn are kept as paths drawn on each frame. The path,
+ * bounding box and text size of each recognized ink are computed once and cached, and the bitmaps
+ * are only reallocated when the size of the view changes.
  */
 public class DrawingView extends View implements ContentChangedListener {
   private static final String TAG = "MLKD.DrawingView";
@@ -36,10 +47,32 @@ public class DrawingView extends View implements ContentChangedListener {
   private final Paint canvasPaint;
 
   private final Path currentStroke;
-  private Canvas drawCanvas;
-  private Bitmap canvasBitmap;
+  // Strokes added to the current ink, that are not recognized yet.
+  private final Path currentInk;
+  // Recognized inks drawn into the layers, in content order.
+  private final List<RenderedInk> renderedInks = new ArrayList<>();
+  private Canvas inkLayerCanvas;
+  private Bitmap inkLayerBitmap;
+  private Canvas textLayerCanvas;
+  private Bitmap textLayerBitmap;
   private StrokeManager strokeManager;
 
+  /** Cached rendering data of a recognized ink. */
+  private static class RenderedInk {
+    final RecognitionTask.RecognizedInk recognizedInk;
+    final Path path;
+    final Rect boundingBox;
+    float textSize;
+    float textScaleX;
+
+    RenderedInk(RecognitionTask.RecognizedInk recognizedInk) {
+      this.recognizedInk = recognizedInk;
+      this.path = new Path();
+      addInkToPath(recognizedInk.ink, path);
+      this.boundingBox = computeBoundingBox(recognizedInk.bounds);
+    }
+  }
+
   public DrawingView(Context context) {
     this(context, null);
   }
@@ -64,22 +97,16 @@ public class DrawingView extends View implements ContentChangedListener {
     textPaint.setColor(0xFF33CC33); // green.
 
     currentStroke = new Path();
+    currentInk = new Path();
     canvasPaint = new Paint(Paint.DITHER_FLAG);
   }
 
-  private static Rect computeBoundingBox(Ink ink) {
-    float top = Float.MAX_VALUE;
-    float left = Float.MAX_VALUE;
-    float bottom = Float.MIN_VALUE;
-    float right = Float.MIN_VALUE;
-    for (Ink.Stroke s : ink.getStrokes()) {
-      for (Ink.Point p : s.getPoints()) {
-        top = Math.min(top, p.getY());
-        left = Math.min(left, p.getX());
-        bottom = Math.max(bottom, p.getY());
-        right = Math.max(right, p.getX());
-      }
-    }
+  /** Returns the box the text of an ink is drawn into, from the bounds of the ink. */
+  private static Rect computeBoundingBox(RectF inkBounds) {
+    float top = inkBounds.top;
+    float left = inkBounds.left;
+    float bottom = inkBounds.bottom;
+    float right = inkBounds.right;
     float centerX = (left + right) / 2;
     float centerY = (top + bottom) / 2;
     Rect bb = new Rect((int) left, (int) top, (int) right, (int) bottom);
@@ -107,81 +134,138 @@ public class DrawingView extends View implements ContentChangedListener {
   @Override
   protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
     Log.i(TAG, "onSizeChanged");
-    canvasBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-    drawCanvas = new Canvas(canvasBitmap);
+    if (inkLayerBitmap != null
+        && inkLayerBitmap.getWidth() == width
+        && inkLayerBitmap.getHeight() == height) {
+      return;
+    }
+    inkLayerBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    inkLayerCanvas = new Canvas(inkLayerBitmap);
+    textLayerBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    textLayerCanvas = new Canvas(textLayerBitmap);
+    // The new layers are empty, render the cached inks into them again.
+    for (RenderedInk renderedInk : renderedInks) {
+      drawIntoLayers(renderedInk);
+    }
     invalidate();
   }
 
+  /**
+   * Updates the rendering after a content change. As content is only appended to until it is
+   * cleared, only the newly recognized inks are drawn, unless the content was replaced.
+   */
   public void redrawContent() {
-    clear();
-    Ink currentInk = strokeManager.getCurrentInk();
-    drawInk(currentInk, currentStrokePaint);
-
     List<RecognitionTask.RecognizedInk> content = strokeManager.getContent();
-    for (RecognitionTask.RecognizedInk ri : content) {
-      drawInk(ri.ink, recognizedStrokePaint);
-      final Rect bb = computeBoundingBox(ri.ink);
-      drawTextIntoBoundingBox(ri.text, bb, textPaint);
+    int numRendered = renderedInks.size();
+    if (content.size() < numRendered
+        || (numRendered > 0
+            && content.get(numRendered - 1) != renderedInks.get(numRendered - 1).recognizedInk)) {
+      rebuildLayers(content);
+    } else {
+      for (int i = numRendered; i < content.size(); i++) {
+        RenderedInk renderedInk = new RenderedInk(content.get(i));
+        renderedInks.add(renderedInk);
+        drawIntoLayers(renderedInk);
+      }
     }
+
+    // The current ink is reset when it gets recognized.
+    currentInk.rewind();
+    addInkToPath(strokeManager.getCurrentInk(), currentInk);
     invalidate();
   }
 
-  private void drawTextIntoBoundingBox(String text, Rect bb, TextPaint textPaint) {
-    final float arbitraryFixedSize = 20.f;
-    // Set an arbitrary text size to learn how high the text will be.
-    textPaint.setTextSize(arbitraryFixedSize);
-    textPaint.setTextScaleX(1.f);
+  /** Erases the layers and renders the given content, reusing the cached rendering data. */
+  private void rebuildLayers(List<RecognitionTask.RecognizedInk> content) {
+    Map<RecognitionTask.RecognizedInk, RenderedInk> cache = new IdentityHashMap<>();
+    for (RenderedInk renderedInk : renderedInks) {
+      cache.put(renderedInk.recognizedInk, renderedInk);
+    }
+    renderedInks.clear();
+    eraseLayers();
+    for (RecognitionTask.RecognizedInk recognizedInk : content) {
+      RenderedInk renderedInk = cache.get(recognizedInk);
+      if (renderedInk == null) {
+        renderedInk = new RenderedInk(recognizedInk);
+      }
+      renderedInks.add(renderedInk);
+      drawIntoLayers(renderedInk);
+    }
+  }
+
+  private void drawIntoLayers(RenderedInk renderedInk) {
+    if (inkLayerCanvas == null) {
+      // Not laid out yet, the ink is drawn by onSizeChanged.
+      return;
+    }
+    inkLayerCanvas.drawPath(renderedInk.path, recognizedStrokePaint);
+    drawTextIntoBoundingBox(renderedInk);
+  }
 
-    // Now determine the size of the rendered text with these settings.
-    Rect r = new Rect();
-    textPaint.getTextBounds(text, 0, text.length(), r);
+  private void drawTextIntoBoundingBox(RenderedInk renderedInk) {
+    String text = renderedInk.recognizedInk.text;
+    Rect bb = renderedInk.boundingBox;
+    if (renderedInk.textSize == 0) {
+      final float arbitraryFixedSize = 20.f;
+      // Set an arbitrary text size to learn how high the text will be.
+      textPaint.setTextSize(arbitraryFixedSize);
+      textPaint.setTextScaleX(1.f);
 
-    // Adjust height such that target height is met.
-    float textSize = arbitraryFixedSize * (float) bb.height() / (float) r.height();
-    textPaint.setTextSize(textSize);
+      // Now determine the size of the rendered text with these settings.
+      Rect r = new Rect();
+      textPaint.getTextBounds(text, 0, text.length(), r);
 
-    // Redetermine the size of the rendered text with the new settings.
-    textPaint.getTextBounds(text, 0, text.length(), r);
+      // Adjust height such that target height is met.
+      renderedInk.textSize = arbitraryFixedSize * (float) bb.height() / (float) r.height();
+      textPaint.setTextSize(renderedInk.textSize);
 
-    // Adjust scaleX to squeeze the text.
-    textPaint.setTextScaleX((float) bb.width() / (float) r.width());
+      // Redetermine the size of the rendered text with the new settings.
+      textPaint.getTextBounds(text, 0, text.length(), r);
+
+      // Adjust scaleX to squeeze the text.
+      renderedInk.textScaleX = (float) bb.width() / (float) r.width();
+    }
+    textPaint.setTextSize(renderedInk.textSize);
+    textPaint.setTextScaleX(renderedInk.textScaleX);
 
     // And finally draw the text.
-    drawCanvas.drawText(text, bb.left, bb.bottom, textPaint);
+    textLayerCanvas.drawText(text, bb.left, bb.bottom, textPaint);
   }
 
-  private void drawInk(Ink ink, Paint paint) {
+  private static void addInkToPath(Ink ink, Path path) {
     for (Ink.Stroke s : ink.getStrokes()) {
-      drawStroke(s, paint);
+      boolean isFirstPoint = true;
+      for (Ink.Point p : s.getPoints()) {
+        if (isFirstPoint) {
+          path.moveTo(p.getX(), p.getY());
+          isFirstPoint = false;
+        } else {
+          path.lineTo(p.getX(), p.getY());
+        }
+      }
     }
   }
 
-  private void drawStroke(Ink.Stroke s, Paint paint) {
-    Log.i(TAG, "drawstroke");
-    Path path = null;
-    for (Ink.Point p : s.getPoints()) {
-      if (path == null) {
-        path = new Path();
-        path.moveTo(p.getX(), p.getY());
-      } else {
-        path.lineTo(p.getX(), p.getY());
-      }
+  private void eraseLayers() {
+    if (inkLayerBitmap != null) {
+      inkLayerBitmap.eraseColor(Color.TRANSPARENT);
+      textLayerBitmap.eraseColor(Color.TRANSPARENT);
     }
-    drawCanvas.drawPath(path, paint);
   }
 
   public void clear() {
     currentStroke.reset();
-    onSizeChanged(
-        canvasBitmap.getWidth(),
-        canvasBitmap.getHeight(),
-        canvasBitmap.getWidth(),
-        canvasBitmap.getHeight());
+    currentInk.reset();
+    renderedInks.clear();
+    eraseLayers();
+    invalidate();
   }
 
   @Override
   protected void onDraw(Canvas canvas) {
-    canvas.drawBitmap(canvasBitmap, 0, 0, canvasPaint);
+    canvas.drawBitmap(inkLayerBitmap, 0, 0, canvasPaint);
+    canvas.drawBitmap(textLayerBitmap, 0, 0, canvasPaint);
+    canvas.drawPath(currentInk, currentStrokePaint);
     canvas.drawPath(currentStroke, currentStrokePaint);
   }
 
@@ -200,7 +284,7 @@ public class DrawingView extends View implements ContentChangedListener {
         break;
       case MotionEvent.ACTION_UP:
         currentStroke.lineTo(x, y);
-        drawCanvas.drawPath(currentStroke, currentStrokePaint);
+        currentInk.addPath(currentStroke);
         currentStroke.reset();
         break;
       default:
@@ -0,0 +1,89 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import androidx.annotation.NonNull;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the size and the throughput of {@link InkDocumentCodec} on recorded documents.
+ *
+ * <p>The document is encoded to a file and decoded back a number of times, and the average
+ * throughputs are reported in MB of encoded data per second. This does I/O and should not run on
+ * the main thread.
+ */
+public class InkCodecBenchmark {
+
+  private static final String TAG = "MLKD.CodecBenchmark";
+  private static final double NANOS_PER_SECOND = 1e9;
+  private static final double BYTES_PER_MB = 1024 * 1024;
+
+  /** Results of a benchmark run. */
+  public static class Report {
+    public long numPoints;
+    public long numBytes;
+    public double encodeMbPerSecond;
+    public double decodeMbPerSecond;
+
+    public double getBytesPerPoint() {
+      return numPoints == 0 ? 0 : (double) numBytes / numPoints;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d points in %d bytes (%.2f bytes/point), encode %.1f MB/s, decode %.1f MB/s",
+          numPoints,
+          numBytes,
+          getBytesPerPoint(),
+          encodeMbPerSecond,
+          decodeMbPerSecond);
+    }
+  }
+
+  private InkCodecBenchmark() {}
+
+  /**
+   * Encodes and decodes the segments the given number of times, using the given file, which is
+   * deleted afterwards.
+   */
+  public static Report run(List<InkDocumentCodec.Segment> segments, File file, int iterations)
+      throws IOException {
+    Report report = new Report();
+    report.numPoints = InkDocumentCodec.countPoints(segments);
+    long encodeNanos = 0;
+    long decodeNanos = 0;
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        FileChannel channel = randomAccessFile.getChannel()) {
+      for (int i = 0; i < iterations; i++) {
+        channel.truncate(0);
+        channel.position(0);
+        long startNanos = System.nanoTime();
+        InkDocumentCodec.encode(segments, channel);
+        channel.force(false);
+        encodeNanos += System.nanoTime() - startNanos;
+        report.numBytes = channel.size();
+
+        channel.position(0);
+        startNanos = System.nanoTime();
+        InkDocumentCodec.decode(channel);
+        decodeNanos += System.nanoTime() - startNanos;
+      }
+    } finally {
+      if (!file.delete()) {
+        Log.w(TAG, "Failed to delete " + file);
+      }
+    }
+    double totalMb = report.numBytes * (double) iterations / BYTES_PER_MB;
+    report.encodeMbPerSecond = totalMb / Math.max(encodeNanos / NANOS_PER_SECOND, 1e-9);
+    report.decodeMbPerSecond = totalMb / Math.max(decodeNanos / NANOS_PER_SECOND, 1e-9);
+    Log.i(TAG, "Benchmark: " + report);
+    return report;
+  }
+}
@@ -0,0 +1,323 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import androidx.annotation.Nullable;
+import com.google.mlkit.vision.digitalink.Ink;
+import com.google.mlkit.vision.digitalink.Ink.Point;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary format for ink documents, read and written directly from a {@link FileChannel}.
+ *
+ * <p>A document starts with a header: the magic bytes {@code MLKI}, a format version and the scale
+ * applied to coordinates before rounding them to integers. It is followed by the number of segments
+ * and the segments themselves, each made of its language tag, its recognized text and its strokes.
+ * A stroke is its number of points, then the x, y and timestamp streams. Every value is the
+ * difference with the previous point of the document, zig-zag encoded as a varint, so that the
+ * small steps between consecutive points mostly take one byte each.
+ *
+ * <p>Documents larger than {@link #MAP_THRESHOLD_BYTES} are memory mapped when decoded, smaller
+ * ones are read through a buffer. Counts and lengths are checked against the bytes left in the
+ * document before anything is allocated, so that a corrupted document fails with an {@link
+ * IOException}.
+ */
+public class InkDocumentCodec {
+
+  /** A recognized ink along with the language it was recognized in. */
+  public static class Segment {
+    public final String languageTag;
+    public final RecognitionTask.RecognizedInk recognizedInk;
+
+    public Segment(String languageTag, RecognitionTask.RecognizedInk recognizedInk) {
+      this.languageTag = languageTag;
+      this.recognizedInk = recognizedInk;
+    }
+  }
+
+  private static final byte[] MAGIC = {'M', 'L', 'K', 'I'};
+  private static final int VERSION = 1;
+  /** Coordinates are stored with a precision of 1/{@value} pixel. */
+  public static final int COORDINATE_SCALE = 10;
+  /** Documents at least this large are memory mapped when decoded. */
+  public static final long MAP_THRESHOLD_BYTES = 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // The lowest bit of the point count tells whether the stroke has timestamps.
+  private static final int FLAG_HAS_TIMESTAMPS = 1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private InkDocumentCodec() {}
+
+  /** Writes the segments at the current position of the channel. */
+  public static void encode(List<Segment> segments, FileChannel channel) throws IOException {
+    Writer writer = new Writer(channel);
+    writer.writeBytes(MAGIC);
+    writer.writeVarint(VERSION);
+    writer.writeVarint(COORDINATE_SCALE);
+    writer.writeVarint(segments.size());
+
+    long[] previous = new long[3];
+    for (Segment segment : segments) {
+      writer.writeString(segment.languageTag);
+      writer.writeString(segment.recognizedInk.text);
+      List<Ink.Stroke> strokes = segment.recognizedInk.ink.getStrokes();
+      writer.writeVarint(strokes.size());
+      for (Ink.Stroke stroke : strokes) {
+        writeStroke(writer, stroke, previous);
+      }
+    }
+    writer.flush();
+  }
+
+  /** Reads the segments of a document, from the current position of the channel to its end. */
+  public static List<Segment> decode(FileChannel channel) throws IOException {
+    long remaining = channel.size() - channel.position();
+    Reader reader =
+        remaining >= MAP_THRESHOLD_BYTES
+            ? new Reader(channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), remaining))
+            : new Reader(channel, remaining);
+
+    byte[] magic = reader.readBytes(MAGIC.length);
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (magic[i] != MAGIC[i]) {
+        throw new IOException("Not an ink document");
+      }
+    }
+    int version = (int) reader.readVarint();
+    if (version != VERSION) {
+      throw new IOException("Unsupported ink document version: " + version);
+    }
+    long scale = reader.readVarint();
+    if (scale <= 0 || scale > Integer.MAX_VALUE) {
+      throw new IOException("Invalid coordinate scale: " + scale);
+    }
+    // A segment takes at least the lengths of its two strings and its number of strokes.
+    int numSegments = reader.readCount(3, "segment");
+
+    List<Segment> segments = new ArrayList<>(numSegments);
+    long[] previous = new long[3];
+    for (int i = 0; i < numSegments; i++) {
+      String languageTag = reader.readString();
+      String text = reader.readString();
+      // A stroke takes at least its number of points.
+      int numStrokes = reader.readCount(1, "stroke");
+      Ink.Builder ink = Ink.builder();
+      for (int j = 0; j < numStrokes; j++) {
+        ink.addStroke(readStroke(reader, scale, previous));
+      }
+      segments.add(
+          new Segment(
+              languageTag, new RecognitionTask.RecognizedInk(ink.build(), text, languageTag)));
+    }
+    return segments;
+  }
+
+  /** Returns the number of points of the segments. */
+  public static long countPoints(List<Segment> segments) {
+    long numPoints = 0;
+    for (Segment segment : segments) {
+      numPoints += RecognitionTask.countPoints(segment.recognizedInk.ink);
+    }
+    return numPoints;
+  }
+
+  private static void writeStroke(Writer writer, Ink.Stroke stroke, long[] previous)
+      throws IOException {
+    List<Point> points = stroke.getPoints();
+    boolean hasTimestamps = true;
+    for (Point point : points) {
+      hasTimestamps &= point.getTimestamp() != null;
+    }
+    writer.writeVarint(((long) points.size() << 1) | (hasTimestamps ? FLAG_HAS_TIMESTAMPS : 0));
+
+    // Each stream continues from the last value of the previous stroke.
+    for (Point point : points) {
+      long x = Math.round(point.getX() * COORDINATE_SCALE);
+      writer.writeSignedVarint(x - previous[0]);
+      previous[0] = x;
+    }
+    for (Point point : points) {
+      long y = Math.round(point.getY() * COORDINATE_SCALE);
+      writer.writeSignedVarint(y - previous[1]);
+      previous[1] = y;
+    }
+    if (hasTimestamps) {
+      for (Point point : points) {
+        long t = point.getTimestamp();
+        writer.writeSignedVarint(t - previous[2]);
+        previous[2] = t;
+      }
+    }
+  }
+
+  private static Ink.Stroke readStroke(Reader reader, float scale, long[] previous)
+      throws IOException {
+    long header = reader.readVarint();
+    boolean hasTimestamps = (header & FLAG_HAS_TIMESTAMPS) != 0;
+    // A point takes at least a byte per stream.
+    int numPoints = reader.checkCount(header >>> 1, hasTimestamps ? 3 : 2, "point");
+
+    long[] xs = new long[numPoints];
+    long[] ys = new long[numPoints];
+    for (int i = 0; i < numPoints; i++) {
+      previous[0] += reader.readSignedVarint();
+      xs[i] = previous[0];
+    }
+    for (int i = 0; i < numPoints; i++) {
+      previous[1] += reader.readSignedVarint();
+      ys[i] = previous[1];
+    }
+    Ink.Stroke.Builder stroke = Ink.Stroke.builder();
+    for (int i = 0; i < numPoints; i++) {
+      float x = xs[i] / scale;
+      float y = ys[i] / scale;
+      if (hasTimestamps) {
+        previous[2] += reader.readSignedVarint();
+        stroke.addPoint(Point.create(x, y, previous[2]));
+      } else {
+        stroke.addPoint(Point.create(x, y));
+      }
+    }
+    return stroke.build();
+  }
+
+  /** Buffers the encoded bytes and writes them to the channel when the buffer is full. */
+  private static class Writer {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    Writer(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    void writeByte(int b) throws IOException {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      buffer.put((byte) b);
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+      for (byte b : bytes) {
+        writeByte(b);
+      }
+    }
+
+    void writeVarint(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      writeByte((int) value);
+    }
+
+    /** Writes a value that may be negative, zig-zag encoded so that small magnitudes stay small. */
+    void writeSignedVarint(long value) throws IOException {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeString(String value) throws IOException {
+      byte[] bytes = value.getBytes(UTF_8);
+      writeVarint(bytes.length);
+      writeBytes(bytes);
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+  /** Reads bytes from a memory mapped buffer, or from a channel through a refilled buffer. */
+  private static class Reader {
+    @Nullable private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long remaining;
+
+    Reader(FileChannel channel, long size) {
+      this.channel = channel;
+      buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      buffer.flip();
+      remaining = size;
+    }
+
+    Reader(ByteBuffer mappedBuffer) {
+      this.channel = null;
+      buffer = mappedBuffer;
+      remaining = mappedBuffer.remaining();
+    }
+
+    int readByte() throws IOException {
+      if (!buffer.hasRemaining()) {
+        refill();
+      }
+      remaining--;
+      return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Reads the number of items that follow, each taking at least the given number of bytes, and
+     * checks that they fit in the rest of the document.
+     */
+    int readCount(int minItemBytes, String itemName) throws IOException {
+      return checkCount(readVarint(), minItemBytes, itemName);
+    }
+
+    int checkCount(long count, int minItemBytes, String itemName) throws IOException {
+      if (count < 0 || count > remaining / minItemBytes) {
+        throw new IOException(
+            "Invalid " + itemName + " count: " + count + ", " + remaining + " bytes left");
+      }
+      return (int) count;
+    }
+
+    byte[] readBytes(int length) throws IOException {
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        bytes[i] = (byte) readByte();
+      }
+      return bytes;
+    }
+
+    long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed varint");
+    }
+
+    long readSignedVarint() throws IOException {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    String readString() throws IOException {
+      return new String(readBytes(readCount(1, "string byte")), UTF_8);
+    }
+
+    private void refill() throws IOException {
+      if (channel == null) {
+        throw new EOFException();
+      }
+      buffer.clear();
+      int numRead = channel.read(buffer);
+      buffer.flip();
+      if (numRead <= 0) {
+        throw new EOFException();
+      }
+    }
+  }
+}
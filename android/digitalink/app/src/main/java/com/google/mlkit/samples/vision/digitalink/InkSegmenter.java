@@ -0,0 +1,64 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import android.graphics.RectF;
+
+/**
+ * Detects word and line boundaries between the open segment of ink and a newly written stroke.
+ *
+ * <p>A stroke starts a new word when it is written clearly to the right of the segment, or after a
+ * long pause away from the segment. It starts a new line when it is written below the segment, or
+ * back at its left after moving down. Distances are relative to the height of the segment, so the
+ * thresholds work for both small and large handwriting.
+ */
+class InkSegmenter {
+
+  /** The kind of boundary found between the open segment and a new stroke. */
+  enum Boundary {
+    NONE,
+    WORD,
+    LINE,
+  }
+
+  // Horizontal gap, relative to the line height, separating two words.
+  private static final float WORD_GAP_RATIO = 0.6f;
+  // Vertical offset, relative to the line height, at which a stroke belongs to a new line.
+  private static final float LINE_OFFSET_RATIO = 0.75f;
+  // Pause after which a stroke that doesn't overlap the segment starts a new word.
+  private static final long WORD_PAUSE_MS = 1500;
+  // Lower bound for the line height, so that a first short stroke (e.g. a dash) doesn't split
+  // everything that follows.
+  private static final float MIN_LINE_HEIGHT = 40f;
+
+  private InkSegmenter() {}
+
+  /**
+   * Classifies the boundary between the open segment and a new stroke.
+   *
+   * @param segmentBounds the bounding box of the strokes of the open segment
+   * @param segmentEndMs the time at which the last stroke of the segment ended
+   * @param strokeBounds the bounding box of the new stroke
+   * @param strokeStartMs the time at which the new stroke started
+   */
+  static Boundary classify(
+      RectF segmentBounds, long segmentEndMs, RectF strokeBounds, long strokeStartMs) {
+    float lineHeight = Math.max(segmentBounds.height(), MIN_LINE_HEIGHT);
+
+    if (strokeBounds.top - segmentBounds.bottom > -lineHeight * (1 - LINE_OFFSET_RATIO)
+        && strokeBounds.centerY() - segmentBounds.centerY() > lineHeight * LINE_OFFSET_RATIO) {
+      return Boundary.LINE;
+    }
+    if (strokeBounds.right < segmentBounds.left
+        && strokeBounds.centerY() - segmentBounds.centerY() > lineHeight / 2) {
+      return Boundary.LINE;
+    }
+
+    float gap = strokeBounds.left - segmentBounds.right;
+    if (gap > lineHeight * WORD_GAP_RATIO) {
+      return Boundary.WORD;
+    }
+    if (strokeStartMs - segmentEndMs > WORD_PAUSE_MS && gap > 0) {
+      return Boundary.WORD;
+    }
+    return Boundary.NONE;
+  }
+}
@@ -0,0 +1,245 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import android.graphics.RectF;
+import androidx.annotation.Nullable;
+import com.google.mlkit.samples.vision.digitalink.RecognitionTask.RecognizedInk;
+import com.google.mlkit.vision.digitalink.Ink;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid index over the strokes of the recognized inks, for hit testing and region queries.
+ *
+ * <p>Each stroke is registered in every cell its bounding box overlaps, so a query only looks at
+ * the strokes of the cells it covers, whatever the size of the document. Inks are added and removed
+ * one at a time as the content changes. Queries return inks in the order they were added. Hit
+ * tests use the bounding boxes to find the candidate strokes, then the distance to their segments.
+ *
+ * <p>This class is not thread safe.
+ */
+class InkSpatialIndex {
+
+  /** Default size of the grid cells, in pixels, about the height of a handwritten word. */
+  static final float DEFAULT_CELL_SIZE = 128f;
+
+  private static class InkEntry {
+    final RecognizedInk ink;
+    final long sequence;
+
+    InkEntry(RecognizedInk ink, long sequence) {
+      this.ink = ink;
+      this.sequence = sequence;
+    }
+  }
+
+  private static class StrokeEntry {
+    final InkEntry inkEntry;
+    final Ink.Stroke stroke;
+    final RectF bounds;
+
+    StrokeEntry(InkEntry inkEntry, Ink.Stroke stroke, RectF bounds) {
+      this.inkEntry = inkEntry;
+      this.stroke = stroke;
+      this.bounds = bounds;
+    }
+  }
+
+  private final float cellSize;
+  private final Map<Long, List<StrokeEntry>> cells = new HashMap<>();
+  private final Map<RecognizedInk, InkEntry> inks = new IdentityHashMap<>();
+  private long nextSequence;
+
+  InkSpatialIndex() {
+    this(DEFAULT_CELL_SIZE);
+  }
+
+  InkSpatialIndex(float cellSize) {
+    this.cellSize = cellSize;
+  }
+
+  void add(RecognizedInk ink) {
+    if (inks.containsKey(ink)) {
+      return;
+    }
+    InkEntry inkEntry = new InkEntry(ink, nextSequence++);
+    inks.put(ink, inkEntry);
+    List<Ink.Stroke> strokes = ink.ink.getStrokes();
+    for (int i = 0; i < strokes.size(); i++) {
+      RectF strokeBounds = ink.strokeBounds.get(i);
+      StrokeEntry strokeEntry = new StrokeEntry(inkEntry, strokes.get(i), strokeBounds);
+      forEachCell(
+          strokeBounds,
+          key -> {
+            List<StrokeEntry> cell = cells.get(key);
+            if (cell == null) {
+              cell = new ArrayList<>();
+              cells.put(key, cell);
+            }
+            cell.add(strokeEntry);
+          });
+    }
+  }
+
+  /** Removes the given ink, returns false if it wasn't in the index. */
+  boolean remove(RecognizedInk ink) {
+    InkEntry inkEntry = inks.remove(ink);
+    if (inkEntry == null) {
+      return false;
+    }
+    for (RectF strokeBounds : ink.strokeBounds) {
+      forEachCell(
+          strokeBounds,
+          key -> {
+            List<StrokeEntry> cell = cells.get(key);
+            if (cell == null) {
+              return;
+            }
+            for (int i = cell.size() - 1; i >= 0; i--) {
+              if (cell.get(i).inkEntry == inkEntry) {
+                cell.remove(i);
+              }
+            }
+            if (cell.isEmpty()) {
+              cells.remove(key);
+            }
+          });
+    }
+    return true;
+  }
+
+  void clear() {
+    cells.clear();
+    inks.clear();
+  }
+
+  int size() {
+    return inks.size();
+  }
+
+  /** Returns the inks with at least one stroke whose bounding box intersects the region. */
+  List<RecognizedInk> query(RectF region) {
+    Map<InkEntry, Boolean> found = new IdentityHashMap<>();
+    forEachCell(
+        region,
+        key -> {
+          List<StrokeEntry> cell = cells.get(key);
+          if (cell == null) {
+            return;
+          }
+          for (StrokeEntry strokeEntry : cell) {
+            if (RectF.intersects(strokeEntry.bounds, region)) {
+              found.put(strokeEntry.inkEntry, true);
+            }
+          }
+        });
+    List<InkEntry> entries = new ArrayList<>(found.keySet());
+    Collections.sort(entries, (a, b) -> Long.compare(a.sequence, b.sequence));
+    List<RecognizedInk> result = new ArrayList<>(entries.size());
+    for (InkEntry entry : entries) {
+      result.add(entry.ink);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ink with the stroke closest to the given point, within the given tolerance, or null
+   * if there is none. Among strokes at the same distance, the most recently added ink wins.
+   */
+  @Nullable
+  RecognizedInk hitTest(float x, float y, float tolerance) {
+    RectF region = new RectF(x - tolerance, y - tolerance, x + tolerance, y + tolerance);
+    InkEntry[] best = new InkEntry[1];
+    float[] bestDistance = {Float.MAX_VALUE};
+    forEachCell(
+        region,
+        key -> {
+          List<StrokeEntry> cell = cells.get(key);
+          if (cell == null) {
+            return;
+          }
+          for (StrokeEntry strokeEntry : cell) {
+            // The bounding box is never farther than the stroke, so it rules out most strokes
+            // without looking at their points.
+            if (distance(strokeEntry.bounds, x, y) > Math.min(tolerance, bestDistance[0])) {
+              continue;
+            }
+            float distance = distance(strokeEntry.stroke, x, y);
+            if (distance > tolerance) {
+              continue;
+            }
+            if (distance < bestDistance[0]
+                || (distance == bestDistance[0]
+                    && strokeEntry.inkEntry.sequence > best[0].sequence)) {
+              bestDistance[0] = distance;
+              best[0] = strokeEntry.inkEntry;
+            }
+          }
+        });
+    return best[0] == null ? null : best[0].ink;
+  }
+
+  private interface CellVisitor {
+    void visit(long key);
+  }
+
+  private void forEachCell(RectF rect, CellVisitor visitor) {
+    int minColumn = (int) Math.floor(rect.left / cellSize);
+    int maxColumn = (int) Math.floor(rect.right / cellSize);
+    int minRow = (int) Math.floor(rect.top / cellSize);
+    int maxRow = (int) Math.floor(rect.bottom / cellSize);
+    for (int column = minColumn; column <= maxColumn; column++) {
+      for (int row = minRow; row <= maxRow; row++) {
+        visitor.visit(((long) column << 32) | (row & 0xFFFFFFFFL));
+      }
+    }
+  }
+
+  /** Returns the distance from the point to the closest segment of the stroke. */
+  private static float distance(Ink.Stroke stroke, float x, float y) {
+    List<Ink.Point> points = stroke.getPoints();
+    if (points.isEmpty()) {
+      return Float.MAX_VALUE;
+    }
+    Ink.Point previous = points.get(0);
+    if (points.size() == 1) {
+      // A dot.
+      return (float) Math.hypot(previous.getX() - x, previous.getY() - y);
+    }
+    float minDistance = Float.MAX_VALUE;
+    for (int i = 1; i < points.size(); i++) {
+      Ink.Point point = points.get(i);
+      minDistance =
+          Math.min(
+              minDistance,
+              distance(previous.getX(), previous.getY(), point.getX(), point.getY(), x, y));
+      previous = point;
+    }
+    return minDistance;
+  }
+
+  /** Returns the distance from the point (x, y) to the segment from (x1, y1) to (x2, y2). */
+  private static float distance(float x1, float y1, float x2, float y2, float x, float y) {
+    float segmentX = x2 - x1;
+    float segmentY = y2 - y1;
+    float lengthSquared = segmentX * segmentX + segmentY * segmentY;
+    // Projects the point on the segment, clamped to its ends.
+    float t =
+        lengthSquared == 0
+            ? 0
+            : Math.max(0, Math.min(1, ((x - x1) * segmentX + (y - y1) * segmentY) / lengthSquared));
+    float dx = x1 + t * segmentX - x;
+    float dy = y1 + t * segmentY - y;
+    return (float) Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /** Returns the distance from the point to the rectangle, 0 if inside. */
+  private static float distance(RectF rect, float x, float y) {
+    float dx = Math.max(Math.max(rect.left - x, 0), x - rect.right);
+    float dy = Math.max(Math.max(rect.top - y, 0), y - rect.bottom);
+    return (float) Math.sqrt(dx * dx + dy * dy);
+  }
+}
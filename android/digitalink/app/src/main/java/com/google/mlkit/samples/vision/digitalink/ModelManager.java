@@ -1,34 +1,44 @@
 package com.google.mlkit.samples.vision.digitalink;
 
+import androidx.annotation.Nullable;
 import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.common.model.DownloadConditions;
-import com.google.mlkit.common.model.RemoteModelManager;
-import com.google.mlkit.vision.digitalink.DigitalInkRecognition;
 import com.google.mlkit.vision.digitalink.DigitalInkRecognitionModel;
 import com.google.mlkit.vision.digitalink.DigitalInkRecognitionModelIdentifier;
 import com.google.mlkit.vision.digitalink.DigitalInkRecognizer;
-import com.google.mlkit.vision.digitalink.DigitalInkRecognizerOptions;
+import com.mlkit.example.internal.modelstate.ModelStateRegistry;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
-/** Class to manage model downloading, deletion, and selection. */
+/**
+ * Class to manage model downloading, deletion, and selection.
+ *
+ * <p>Recognizers of recently used languages are kept in a {@link RecognizerPool}, so switching
+ * back to one of them is instant. The active recognizer is held until another model is set, and
+ * work that may outlive a model change acquires its own handle with {@link #acquireRecognizer()}.
+ * Whether each model is downloaded comes from a {@link ModelStateRegistry}, loaded once and
+ * updated by the downloads and deletions, rather than from the remote model manager.
+ */
 public class ModelManager {
 
   private static final String TAG = "MLKD.ModelManager";
   private DigitalInkRecognitionModel model;
-  private DigitalInkRecognizer recognizer;
-  final RemoteModelManager remoteModelManager = RemoteModelManager.getInstance();
+  @Nullable private RecognizerPool.Handle recognizerHandle;
+  private final ModelStateRegistry<DigitalInkRecognitionModel> modelRegistry =
+      ModelStateRegistry.getInstance(DigitalInkRecognitionModel.class);
+  private final RecognizerPool recognizerPool = new RecognizerPool();
+  // Recently used models, least recent first.
+  private final LinkedHashSet<DigitalInkRecognitionModelIdentifier> recentModels =
+      new LinkedHashSet<>();
 
   public String setModel(String languageTag) {
-    // Clear the old model and recognizer.
+    // Clear the old model and release its recognizer, which stays open in the pool.
     model = null;
-    if (recognizer != null) {
-      recognizer.close();
-    }
-    recognizer = null;
+    releaseRecognizer();
 
     // Try to parse the languageTag and get a model from it.
     DigitalInkRecognitionModelIdentifier modelIdentifier;
@@ -42,10 +52,15 @@ public class ModelManager {
       return "No model for language: " + languageTag;
     }
 
-    // Initialize the model and recognizer.
+    // Initialize the model and get its recognizer from the pool.
     model = DigitalInkRecognitionModel.builder(modelIdentifier).build();
-    recognizer =
-        DigitalInkRecognition.getClient(DigitalInkRecognizerOptions.builder(model).build());
+    recognizerHandle = recognizerPool.acquire(modelIdentifier);
+    recentModels.remove(modelIdentifier);
+    recentModels.add(modelIdentifier);
+    while (recentModels.size() > recognizerPool.getCapacity()) {
+      recentModels.remove(recentModels.iterator().next());
+    }
+    prewarmRecentModels();
     Log.i(
         TAG,
         "Model set for language '"
@@ -56,12 +71,53 @@ public class ModelManager {
     return "Model set for language: " + languageTag;
   }
 
+  @Nullable
   public DigitalInkRecognizer getRecognizer() {
-    return recognizer;
+    return recognizerHandle == null ? null : recognizerHandle.getRecognizer();
+  }
+
+  /**
+   * Acquires the active recognizer, which stays open until the handle is released even if another
+   * model is set meanwhile. Returns null if no model is set.
+   */
+  @Nullable
+  RecognizerPool.Handle acquireRecognizer() {
+    return model == null ? null : recognizerPool.acquire(model.getModelIdentifier());
+  }
+
+  /**
+   * Returns a runner recognizing inks offline with the recognizer of the given handle, with at most
+   * the given number of recognitions in flight. The handle must be released once the runner is
+   * done.
+   */
+  BatchRecognitionRunner newBatchRecognitionRunner(
+      RecognizerPool.Handle handle, int maxConcurrency) {
+    return BatchRecognitionRunner.forRecognizer(handle.getRecognizer(), maxConcurrency);
   }
 
+  /** Returns the language tag of the active model, or an empty string if none is set. */
+  public String getActiveLanguageTag() {
+    return model == null ? "" : model.getModelIdentifier().getLanguageTag();
+  }
+
+  /**
+   * Returns whether the active model is downloaded, from the cache if known, null if no model is
+   * set.
+   */
   public Task<Boolean> checkIsModelDownloaded() {
-    return remoteModelManager.isModelDownloaded(model);
+    if (model == null) {
+      return Tasks.forResult(null);
+    }
+    DigitalInkRecognitionModel checkedModel = model;
+    return modelRegistry
+        .checkIsDownloaded(checkedModel)
+        .addOnSuccessListener(downloaded -> setDownloadState(checkedModel, downloaded));
+  }
+
+  /** Returns the cached download state of the active model, or null if unknown. */
+  @Nullable
+  public Boolean getCachedDownloadState() {
+    return model == null ? null : modelRegistry.isDownloaded(model);
   }
 
   public Task<String> deleteActiveModel() {
@@ -75,11 +131,19 @@ public class ModelManager {
               if (!result) {
                 return Tasks.forResult("Model not downloaded yet");
               }
-              return remoteModelManager
-                  .deleteDownloadedModel(model)
+              DigitalInkRecognitionModelIdentifier identifier = model.getModelIdentifier();
+              return modelRegistry
+                  .delete(model)
                   .onSuccessTask(
                       aVoid -> {
                         Log.i(TAG, "Model successfully deleted");
+                        // The recognizer has loaded the deleted model, replace it with a new one.
+                        // Recognitions in flight keep the old one until they are done.
+                        recognizerPool.remove(identifier);
+                        if (model != null && model.getModelIdentifier().equals(identifier)) {
+                          releaseRecognizer();
+                          recognizerHandle = recognizerPool.acquire(identifier);
+                        }
                         return Tasks.forResult("Model successfully deleted");
                       });
             })
@@ -87,8 +151,8 @@ public class ModelManager {
   }
 
   public Task<Set<String>> getDownloadedModelLanguages() {
-    return remoteModelManager
-        .getDownloadedModels(DigitalInkRecognitionModel.class)
+    return modelRegistry
+        .refresh()
         .onSuccessTask(
             (remoteModels) -> {
               Set<String> result = new HashSet<>();
@@ -104,13 +168,43 @@ public class ModelManager {
     if (model == null) {
       return Tasks.forResult("Model not selected.");
     }
-    return remoteModelManager
-        .download(model, new DownloadConditions.Builder().build())
+    DigitalInkRecognitionModel downloadedModel = model;
+    return modelRegistry
+        .download(downloadedModel, new DownloadConditions.Builder().build())
         .onSuccessTask(
             aVoid -> {
               Log.i(TAG, "Model download succeeded.");
+              setDownloadState(downloadedModel, true);
               return Tasks.forResult("Downloaded model successfully");
             })
         .addOnFailureListener(e -> Log.e(TAG, "Error while downloading the model: " + e));
   }
+
+  private void releaseRecognizer() {
+    if (recognizerHandle != null) {
+      recognizerHandle.release();
+      recognizerHandle = null;
+    }
+  }
+
+  private void setDownloadState(DigitalInkRecognitionModel model, boolean downloaded) {
+    modelRegistry.setDownloaded(model, downloaded);
+    if (downloaded && recentModels.contains(model.getModelIdentifier())) {
+      recognizerPool.prewarm(model.getModelIdentifier());
+    }
+  }
+
+  /**
+   * Loads the models of the recently used languages that are downloaded. They are visited least
+   * recent first, so that the pool keeps its order of use.
+   */
+  private void prewarmRecentModels() {
+    for (DigitalInkRecognitionModelIdentifier identifier : recentModels) {
+      DigitalInkRecognitionModel recentModel =
+          DigitalInkRecognitionModel.builder(identifier).build();
+      if (Boolean.TRUE.equals(modelRegistry.isDownloaded(recentModel))) {
+        recognizerPool.prewarm(identifier);
+      }
+    }
+  }
 }
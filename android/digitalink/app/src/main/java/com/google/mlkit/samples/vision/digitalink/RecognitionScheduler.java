@@ -0,0 +1,223 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import android.util.Log;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.mlkit.vision.digitalink.DigitalInkRecognizer;
+import com.google.mlkit.vision.digitalink.Ink;
+import com.google.mlkit.vision.digitalink.RecognitionContext;
+import java.util.Locale;
+
+/**
+ * Schedules recognition requests for an ink that keeps changing while it is written.
+ *
+ * <p>At most one request is sent to the recognizer at a time. Requests submitted in the meantime
+ * are coalesced into a single pending one, which only keeps the latest ink, and the pending request
+ * is only started once no new request was submitted for the debounce delay. Requests that are
+ * replaced or cancelled before starting are never sent to the recognizer.
+ *
+ * <p>Every request is tagged with the version of the ink it covers. A result is only delivered if
+ * no newer version was submitted while it was computed, stale results complete with null.
+ *
+ * <p>This class must be used on the main thread.
+ */
+public class RecognitionScheduler {
+
+  private static final String TAG = "MLKD.RecoScheduler";
+  /** Default delay a request waits for newer ones before being sent to the recognizer. */
+  public static final long DEFAULT_DEBOUNCE_MS = 150;
+
+  /** Counters and latencies of the requests submitted so far. */
+  public static class Metrics {
+    public long numSubmitted;
+    // Requests replaced by a newer one, or cancelled, before being started.
+    public long numCoalesced;
+    public long numStarted;
+    // Requests that completed after a newer version was submitted, that were cancelled while in
+    // flight, or that returned no candidate.
+    public long numStale;
+    public long numDelivered;
+    public long numFailed;
+    public long totalRecognizerLatencyMs;
+    public long maxRecognizerLatencyMs;
+    // From the first submission coalesced into a request to the delivery of its result.
+    public long totalEndToEndLatencyMs;
+
+    public long getAverageRecognizerLatencyMs() {
+      return numDelivered == 0 ? 0 : totalRecognizerLatencyMs / numDelivered;
+    }
+
+    public long getAverageEndToEndLatencyMs() {
+      return numDelivered == 0 ? 0 : totalEndToEndLatencyMs / numDelivered;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "submitted=%d, coalesced=%d, started=%d, stale=%d, delivered=%d, failed=%d,"
+              + " recognizer avg=%dms max=%dms, end-to-end avg=%dms",
+          numSubmitted,
+          numCoalesced,
+          numStarted,
+          numStale,
+          numDelivered,
+          numFailed,
+          getAverageRecognizerLatencyMs(),
+          maxRecognizerLatencyMs,
+          getAverageEndToEndLatencyMs());
+    }
+  }
+
+  private static class Request {
+    final long inkVersion;
+    final Ink ink;
+    final DigitalInkRecognizer recognizer;
+    final String languageTag;
+    @Nullable final RecognitionContext recognitionContext;
+    final long submitTimeMs;
+    final TaskCompletionSource<RecognitionTask> completion = new TaskCompletionSource<>();
+
+    Request(
+        long inkVersion,
+        Ink ink,
+        DigitalInkRecognizer recognizer,
+        String languageTag,
+        @Nullable RecognitionContext recognitionContext,
+        long submitTimeMs) {
+      this.inkVersion = inkVersion;
+      this.ink = ink;
+      this.recognizer = recognizer;
+      this.languageTag = languageTag;
+      this.recognitionContext = recognitionContext;
+      this.submitTimeMs = submitTimeMs;
+    }
+  }
+
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Runnable startPendingRunnable = this::onDebounceElapsed;
+  private final long debounceMs;
+  private final Metrics metrics = new Metrics();
+
+  @Nullable private Request pendingRequest;
+  @Nullable private Request inFlightRequest;
+  @Nullable private RecognitionTask inFlightTask;
+  private boolean isDebouncing;
+  private long latestInkVersion = Long.MIN_VALUE;
+
+  public RecognitionScheduler() {
+    this(DEFAULT_DEBOUNCE_MS);
+  }
+
+  public RecognitionScheduler(long debounceMs) {
+    this.debounceMs = debounceMs;
+  }
+
+  /**
+   * Submits a request to recognize the given version of the ink, replacing the pending request if
+   * there is one.
+   *
+   * @return a task completing with the finished recognition, or with null if the request was
+   *     replaced, cancelled, or if a newer version of the ink was submitted in the meantime
+   */
+  public Task<RecognitionTask> submit(
+      long inkVersion,
+      Ink ink,
+      DigitalInkRecognizer recognizer,
+      String languageTag,
+      @Nullable RecognitionContext recognitionContext) {
+    metrics.numSubmitted++;
+    latestInkVersion = Math.max(latestInkVersion, inkVersion);
+    long submitTimeMs = SystemClock.elapsedRealtime();
+    if (pendingRequest != null) {
+      metrics.numCoalesced++;
+      // The user has been waiting since the first of the coalesced requests.
+      submitTimeMs = pendingRequest.submitTimeMs;
+      pendingRequest.completion.trySetResult(null);
+    }
+    pendingRequest =
+        new Request(inkVersion, ink, recognizer, languageTag, recognitionContext, submitTimeMs);
+
+    handler.removeCallbacks(startPendingRunnable);
+    handler.postDelayed(startPendingRunnable, debounceMs);
+    isDebouncing = true;
+    return pendingRequest.completion.getTask();
+  }
+
+  /** Drops the pending request and discards the result of the one in flight, if any. */
+  public void cancel() {
+    handler.removeCallbacks(startPendingRunnable);
+    isDebouncing = false;
+    if (pendingRequest != null) {
+      metrics.numCoalesced++;
+      pendingRequest.completion.trySetResult(null);
+      pendingRequest = null;
+    }
+    if (inFlightTask != null) {
+      inFlightTask.cancel();
+    }
+  }
+
+  /** Returns the number of requests in flight or pending, at most 2. */
+  public int getQueueDepth() {
+    return (inFlightRequest != null ? 1 : 0) + (pendingRequest != null ? 1 : 0);
+  }
+
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  private void onDebounceElapsed() {
+    isDebouncing = false;
+    startPendingIfIdle();
+  }
+
+  private void startPendingIfIdle() {
+    if (inFlightRequest != null || pendingRequest == null) {
+      return;
+    }
+    Request request = pendingRequest;
+    pendingRequest = null;
+    RecognitionTask task =
+        new RecognitionTask(
+            request.recognizer, request.languageTag, request.ink, request.recognitionContext);
+    inFlightRequest = request;
+    inFlightTask = task;
+    metrics.numStarted++;
+    task.run().addOnCompleteListener(result -> onRequestCompleted(request, task, result));
+  }
+
+  private void onRequestCompleted(Request request, RecognitionTask task, Task<String> result) {
+    inFlightRequest = null;
+    inFlightTask = null;
+
+    if (!result.isSuccessful()) {
+      metrics.numFailed++;
+      Log.e(TAG, "Recognition failed for ink version " + request.inkVersion, result.getException());
+      request.completion.trySetException(result.getException());
+    } else if (!task.done() || request.inkVersion < latestInkVersion) {
+      metrics.numStale++;
+      Log.i(TAG, "Discarding result for stale ink version " + request.inkVersion);
+      request.completion.trySetResult(null);
+    } else {
+      metrics.numDelivered++;
+      metrics.totalRecognizerLatencyMs += task.getLatencyMs();
+      metrics.maxRecognizerLatencyMs =
+          Math.max(metrics.maxRecognizerLatencyMs, task.getLatencyMs());
+      metrics.totalEndToEndLatencyMs += SystemClock.elapsedRealtime() - request.submitTimeMs;
+      request.completion.trySetResult(task);
+    }
+
+    // A request submitted while this one was running starts right away, unless more input is
+    // still coming in.
+    if (!isDebouncing) {
+      startPendingIfIdle();
+    }
+  }
+}
@@ -1,11 +1,18 @@
 package com.google.mlkit.samples.vision.digitalink;
 
+import android.graphics.RectF;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
 import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.google.mlkit.vision.digitalink.DigitalInkRecognizer;
 import com.google.mlkit.vision.digitalink.Ink;
+import com.google.mlkit.vision.digitalink.RecognitionContext;
+import com.google.mlkit.vision.digitalink.RecognitionResult;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /** Task to run asynchronously to obtain recognition results. */
@@ -13,14 +20,31 @@ public class RecognitionTask {
 
   private static final String TAG = "MLKD.RecognitionTask";
   private final DigitalInkRecognizer recognizer;
+  private final String languageTag;
   private final Ink ink;
+  @Nullable private final RecognitionContext recognitionContext;
   @Nullable private RecognizedInk currentResult;
   private final AtomicBoolean cancelled;
   private final AtomicBoolean done;
+  private long latencyMs = -1;
 
-  public RecognitionTask(DigitalInkRecognizer recognizer, Ink ink) {
+  public RecognitionTask(DigitalInkRecognizer recognizer, String languageTag, Ink ink) {
+    this(recognizer, languageTag, ink, null);
+  }
+
+  /**
+   * Creates a task recognizing the given ink, with a context such as the text written before it.
+   * The language tag is the one of the recognizer's model, recorded on the result.
+   */
+  public RecognitionTask(
+      DigitalInkRecognizer recognizer,
+      String languageTag,
+      Ink ink,
+      @Nullable RecognitionContext recognitionContext) {
     this.recognizer = recognizer;
+    this.languageTag = languageTag;
     this.ink = ink;
+    this.recognitionContext = recognitionContext;
     this.currentResult = null;
     cancelled = new AtomicBoolean(false);
     done = new AtomicBoolean(false);
@@ -39,28 +63,102 @@ public class RecognitionTask {
     return this.currentResult;
   }
 
-  /** Helper class that stores an ink along with the corresponding recognized text. */
+  public int getNumStrokes() {
+    return ink.getStrokes().size();
+  }
+
+  /** Returns the number of points sent to the recognizer. */
+  public int getNumPoints() {
+    return countPoints(ink);
+  }
+
+  /** Returns the time the recognizer took, or -1 if the task hasn't completed yet. */
+  public long getLatencyMs() {
+    return latencyMs;
+  }
+
+  static int countPoints(Ink ink) {
+    int numPoints = 0;
+    for (Ink.Stroke stroke : ink.getStrokes()) {
+      numPoints += stroke.getPoints().size();
+    }
+    return numPoints;
+  }
+
+  /**
+   * Helper class that stores an ink along with the corresponding recognized text and the language
+   * it was recognized in. The bounds of the ink and of each of its strokes are computed once, when
+   * the ink is recognized.
+   */
   public static class RecognizedInk {
     public final Ink ink;
     public final String text;
+    public final String languageTag;
+    public final RectF bounds = new RectF();
+    public final List<RectF> strokeBounds;
 
-    RecognizedInk(Ink ink, String text) {
+    RecognizedInk(Ink ink, String text, String languageTag) {
       this.ink = ink;
       this.text = text;
+      this.languageTag = languageTag;
+      List<RectF> strokeBounds = new ArrayList<>(ink.getStrokes().size());
+      for (Ink.Stroke stroke : ink.getStrokes()) {
+        RectF strokeRect = computeBounds(stroke);
+        if (strokeBounds.isEmpty()) {
+          bounds.set(strokeRect);
+        } else {
+          // RectF.union ignores empty rectangles, such as the bounds of a dot.
+          bounds.set(
+              Math.min(bounds.left, strokeRect.left),
+              Math.min(bounds.top, strokeRect.top),
+              Math.max(bounds.right, strokeRect.right),
+              Math.max(bounds.bottom, strokeRect.bottom));
+        }
+        strokeBounds.add(strokeRect);
+      }
+      this.strokeBounds = Collections.unmodifiableList(strokeBounds);
+    }
+
+    private static RectF computeBounds(Ink.Stroke stroke) {
+      RectF rect = null;
+      for (Ink.Point p : stroke.getPoints()) {
+        if (rect == null) {
+          rect = new RectF(p.getX(), p.getY(), p.getX(), p.getY());
+        } else {
+          rect.union(p.getX(), p.getY());
+        }
+      }
+      return rect == null ? new RectF() : rect;
     }
   }
 
   public Task<String> run() {
     Log.i(TAG, "RecoTask.run");
-    return recognizer
-        .recognize(this.ink)
+    long startMs = SystemClock.elapsedRealtime();
+    Task<RecognitionResult> recognition =
+        recognitionContext == null
+            ? recognizer.recognize(this.ink)
+            : recognizer.recognize(this.ink, recognitionContext);
+    return recognition
         .onSuccessTask(
             result -> {
+              latencyMs = SystemClock.elapsedRealtime() - startMs;
               if (cancelled.get() || result.getCandidates().isEmpty()) {
                 return Tasks.forResult(null);
               }
-              currentResult = new RecognizedInk(ink, result.getCandidates().get(0).getText());
-              Log.i(TAG, "result: " + currentResult.text);
+              currentResult =
+                  new RecognizedInk(ink, result.getCandidates().get(0).getText(), languageTag);
+              Log.i(
+                  TAG,
+                  "result: "
+                      + currentResult.text
+                      + " ("
+                      + getNumStrokes()
+                      + " strokes, "
+                      + getNumPoints()
+                      + " points, "
+                      + latencyMs
+                      + " ms)");
               done.set(true);
               return Tasks.forResult(currentResult.text);
             });
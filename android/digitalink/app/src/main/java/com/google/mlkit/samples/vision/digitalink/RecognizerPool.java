@@ -0,0 +1,194 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import android.util.Log;
+import com.google.mlkit.vision.digitalink.DigitalInkRecognition;
+import com.google.mlkit.vision.digitalink.DigitalInkRecognitionModel;
+import com.google.mlkit.vision.digitalink.DigitalInkRecognitionModelIdentifier;
+import com.google.mlkit.vision.digitalink.DigitalInkRecognizer;
+import com.google.mlkit.vision.digitalink.DigitalInkRecognizerOptions;
+import com.google.mlkit.vision.digitalink.Ink;
+import com.google.mlkit.vision.digitalink.Ink.Point;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the recognizers of recently used languages open, so that switching between them doesn't
+ * reload their models.
+ *
+ * <p>A user of a recognizer acquires it, and releases it once done, so that recognizers in use are
+ * never closed. Idle recognizers are evicted in least recently used order once their estimated
+ * memory use exceeds the size of the pool, and closed when evicted. A recognizer only loads its
+ * model on its first request, so {@link #prewarm} sends it a tiny ink in the background ahead of
+ * the user's first stroke.
+ *
+ * <p>This class must be used on the main thread.
+ */
+class RecognizerPool {
+
+  private static final String TAG = "MLKD.RecognizerPool";
+  // Rough memory footprint of a loaded recognition model.
+  private static final int ESTIMATED_RECOGNIZER_SIZE_MB = 20;
+  // Share of the heap the pool may use. The models live in native memory, so the heap size is only
+  // a hint of how much memory the device has.
+  private static final int HEAP_FRACTION = 8;
+  // Enough to switch between a few languages without reloading, even on small heaps, where the
+  // estimate above would only keep the recognizer in use.
+  private static final int MIN_CAPACITY = 3;
+  private static final int BYTES_PER_MB = 1024 * 1024;
+  private static final Ink WARM_UP_INK =
+      Ink.builder()
+          .addStroke(
+              Ink.Stroke.builder()
+                  .addPoint(Point.create(0, 0, 0))
+                  .addPoint(Point.create(10, 10, 10))
+                  .build())
+          .build();
+
+  /** A recognizer acquired from the pool, to release once done with it. */
+  class Handle {
+    private final Entry entry;
+    private boolean released;
+
+    private Handle(Entry entry) {
+      this.entry = entry;
+    }
+
+    DigitalInkRecognizer getRecognizer() {
+      return entry.recognizer;
+    }
+
+    String getLanguageTag() {
+      return entry.identifier.getLanguageTag();
+    }
+
+    void release() {
+      if (released) {
+        return;
+      }
+      released = true;
+      entry.refCount--;
+      if (entry.removed) {
+        closeIfIdle(entry);
+      } else {
+        trimToCapacity();
+      }
+    }
+  }
+
+  private static class Entry {
+    final DigitalInkRecognitionModelIdentifier identifier;
+    final DigitalInkRecognizer recognizer;
+    int refCount;
+    // Whether the entry left the pool, to close once the last handle is released.
+    boolean removed;
+    boolean closed;
+
+    Entry(DigitalInkRecognitionModelIdentifier identifier, DigitalInkRecognizer recognizer) {
+      this.identifier = identifier;
+      this.recognizer = recognizer;
+    }
+  }
+
+  private final int capacity;
+  // Open recognizers, least recently used first.
+  private final LinkedHashMap<DigitalInkRecognitionModelIdentifier, Entry> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final Set<DigitalInkRecognitionModelIdentifier> warmedUp = new HashSet<>();
+
+  RecognizerPool() {
+    this((int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION / BYTES_PER_MB));
+  }
+
+  RecognizerPool(int maxSizeMb) {
+    capacity = Math.max(MIN_CAPACITY, maxSizeMb / ESTIMATED_RECOGNIZER_SIZE_MB);
+  }
+
+  /** Returns the recognizer for the given model, creating it if needed. */
+  Handle acquire(DigitalInkRecognitionModelIdentifier identifier) {
+    Entry entry = getOrCreate(identifier);
+    entry.refCount++;
+    trimToCapacity();
+    return new Handle(entry);
+  }
+
+  /** Returns the number of recognizers the pool can keep open. */
+  int getCapacity() {
+    return capacity;
+  }
+
+  /** Loads the model of the given recognizer in the background, if not done yet. */
+  void prewarm(DigitalInkRecognitionModelIdentifier identifier) {
+    Handle handle = acquire(identifier);
+    if (!warmedUp.add(identifier)) {
+      handle.release();
+      return;
+    }
+    Log.i(TAG, "Prewarming recognizer for " + identifier.getLanguageTag());
+    handle
+        .getRecognizer()
+        .recognize(WARM_UP_INK)
+        .addOnFailureListener(
+            e -> {
+              Log.w(TAG, "Prewarming failed for " + identifier.getLanguageTag(), e);
+              warmedUp.remove(identifier);
+            })
+        .addOnCompleteListener(task -> handle.release());
+  }
+
+  /**
+   * Removes the recognizer for the given model from the pool, e.g. because the model was deleted.
+   * It is closed once released by its current users, and the next acquire creates a new one.
+   */
+  void remove(DigitalInkRecognitionModelIdentifier identifier) {
+    Entry entry = entries.remove(identifier);
+    if (entry == null) {
+      return;
+    }
+    warmedUp.remove(identifier);
+    entry.removed = true;
+    closeIfIdle(entry);
+  }
+
+  private Entry getOrCreate(DigitalInkRecognitionModelIdentifier identifier) {
+    Entry entry = entries.get(identifier);
+    if (entry != null) {
+      return entry;
+    }
+    Log.i(TAG, "Creating recognizer for " + identifier.getLanguageTag());
+    DigitalInkRecognitionModel model = DigitalInkRecognitionModel.builder(identifier).build();
+    entry =
+        new Entry(
+            identifier,
+            DigitalInkRecognition.getClient(DigitalInkRecognizerOptions.builder(model).build()));
+    entries.put(identifier, entry);
+    return entry;
+  }
+
+  private void trimToCapacity() {
+    Iterator<Map.Entry<DigitalInkRecognitionModelIdentifier, Entry>> iterator =
+        entries.entrySet().iterator();
+    // The recognizers in use are skipped, they are evicted once released.
+    while (entries.size() > capacity && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      if (entry.refCount > 0) {
+        continue;
+      }
+      iterator.remove();
+      warmedUp.remove(entry.identifier);
+      entry.removed = true;
+      closeIfIdle(entry);
+    }
+  }
+
+  private void closeIfIdle(Entry entry) {
+    if (entry.refCount > 0 || entry.closed) {
+      return;
+    }
+    Log.i(TAG, "Closing recognizer for " + entry.identifier.getLanguageTag());
+    entry.closed = true;
+    entry.recognizer.close();
+  }
+}
@@ -1,5 +1,6 @@
 package com.google.mlkit.samples.vision.digitalink;
 
+import android.graphics.RectF;
 import android.os.Handler;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -8,12 +9,27 @@ import android.view.MotionEvent;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.google.mlkit.vision.digitalink.Ink;
-import com.google.mlkit.vision.digitalink.Ink.Point;
+import com.google.mlkit.vision.digitalink.RecognitionContext;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
-
-/** Manages the recognition logic and the content that has been added to the current page. */
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Manages the recognition logic and the content that has been added to the current page.
+ *
+ * <p>By default the whole current ink is sent to the recognizer on each request. In segmented mode
+ * (see {@link #setSegmentedRecognition}), the ink is split into words and lines as it is written:
+ * finished segments are committed to the content with their text, and only the open segment is
+ * recognized, with the committed text as pre-context. This keeps the cost of each request constant
+ * however long the writing gets.
+ */
 public class StrokeManager {
 
   /** Interface to register to be notified of changes in the recognized content. */
@@ -41,15 +57,49 @@ public class StrokeManager {
   private static final String TAG = "MLKD.StrokeManager";
   // This is a constant that is used as a message identifier to trigger the timeout.
   private static final int TIMEOUT_TRIGGER = 1;
+  // Number of characters of committed text passed as pre-context to the recognizer.
+  private static final int PRE_CONTEXT_LENGTH = 20;
+  private static final int MAX_RECORDED_RAW_INKS = 50;
+  private static final int CODEC_BENCHMARK_ITERATIONS = 20;
+  // Runs the file I/O of the benchmarks.
+  private static final Executor BACKGROUND_EXECUTOR = Executors.newSingleThreadExecutor();
+  // Distance from a stroke, in pixels, at which a tap still selects its ink.
+  private static final float HIT_TEST_TOLERANCE = 24f;
   // For handling recognition and model downloading.
-  private RecognitionTask recognitionTask = null;
+  private final RecognitionScheduler recognitionScheduler = new RecognitionScheduler();
+  // The last recognition delivered by the scheduler, and the version of the ink it covers.
+  @Nullable private RecognitionTask lastRecognition = null;
+  private long lastRecognitionInkVersion = -1;
   @VisibleForTesting ModelManager modelManager = new ModelManager();
   // Managing the recognition queue.
   private final List<RecognitionTask.RecognizedInk> content = new ArrayList<>();
+  // Index over the strokes of the content, kept in sync by addContent and removeContent.
+  private final InkSpatialIndex contentIndex = new InkSpatialIndex();
   // Managing ink currently drawn.
-  private Ink.Stroke.Builder strokeBuilder = Ink.Stroke.builder();
+  private final StrokeSimplifier.PointBuffer strokePoints = new StrokeSimplifier.PointBuffer();
   private Ink.Builder inkBuilder = Ink.builder();
+  // Preprocessing of the strokes before recognition, null to send all the points.
+  @Nullable private StrokeSimplifier strokeSimplifier = new StrokeSimplifier();
+  // Raw inks kept for the simplification benchmark, when recording is enabled.
+  private boolean recordRawInks = false;
+  private Ink.Builder rawInkBuilder = Ink.builder();
+  private final List<Ink> recordedRawInks = new ArrayList<>();
   private boolean stateChangedSinceLastRequest = false;
+  // Incremented on every change of the current ink.
+  private long inkVersion = 0;
+  // Segmented recognition state: the open segment is the current ink.
+  private boolean segmentedRecognition = false;
+  private final RectF segmentBounds = new RectF();
+  // Whether segmentBounds covers any stroke, as the bounds of a dot are an empty rectangle.
+  private boolean segmentHasStrokes;
+  private final RectF strokeBounds = new RectF();
+  private long segmentEndMs;
+  private long strokeStartMs;
+  private final StringBuilder committedText = new StringBuilder();
+  // Segment recognitions are chained so that segments are committed in writing order.
+  private Task<Void> pendingSegments = Tasks.forResult(null);
+  // Incremented on reset, so that pending segments of the previous page are dropped.
+  private int contentGeneration;
   @Nullable private ContentChangedListener contentChangedListener = null;
   @Nullable private StatusChangedListener statusChangedListener = null;
   @Nullable private DownloadedModelsChangedListener downloadedModelsChangedListener = null;
@@ -66,6 +116,27 @@ public class StrokeManager {
     clearCurrentInkAfterRecognition = shouldClear;
   }
 
+  /**
+   * Enables the segmented mode, where word and line boundaries are detected while writing and only
+   * the open segment is recognized.
+   */
+  public void setSegmentedRecognition(boolean segmented) {
+    segmentedRecognition = segmented;
+  }
+
+  /**
+   * Sets the simplifier applied to each stroke before it is added to the ink sent to the
+   * recognizer, or null to keep all the points reported by the touch events.
+   */
+  public void setStrokeSimplifier(@Nullable StrokeSimplifier strokeSimplifier) {
+    this.strokeSimplifier = strokeSimplifier;
+  }
+
+  /** Keeps the raw inks written from now on, to benchmark the stroke simplification on them. */
+  public void setRecordRawInks(boolean record) {
+    recordRawInks = record;
+  }
+
   // Handler to handle the UI Timeout.
   // This handler is only used to trigger the UI timeout. Each time a UI interaction happens,
   // the timer is reset by clearing the queue on this handler and sending a new delayed message (in
@@ -93,10 +164,21 @@ public class StrokeManager {
   }
 
   private void commitResult() {
-    if (recognitionTask.done() && recognitionTask.result() != null) {
-      content.add(recognitionTask.result());
-      setStatus("Successful recognition: " + recognitionTask.result().text);
-      if (clearCurrentInkAfterRecognition) {
+    RecognitionTask recognition = getUpToDateRecognition();
+    if (recognition != null) {
+      addContent(recognition.result());
+      setStatus(
+          "Successful recognition: "
+              + recognition.result().text
+              + " ("
+              + recognition.getNumPoints()
+              + " points, "
+              + recognition.getLatencyMs()
+              + " ms)");
+      if (segmentedRecognition) {
+        appendCommittedText(recognition.result().text);
+        resetCurrentInk();
+      } else if (clearCurrentInkAfterRecognition) {
         resetCurrentInk();
       }
       if (contentChangedListener != null) {
@@ -109,16 +191,161 @@ public class StrokeManager {
     Log.i(TAG, "reset");
     resetCurrentInk();
     content.clear();
-    if (recognitionTask != null && !recognitionTask.done()) {
-      recognitionTask.cancel();
-    }
+    contentIndex.clear();
+    committedText.setLength(0);
+    contentGeneration++;
+    recognitionScheduler.cancel();
+    Log.i(TAG, "Recognition metrics: " + recognitionScheduler.getMetrics());
     setStatus("");
   }
 
   private void resetCurrentInk() {
+    if (recordRawInks && !rawInkBuilder.isEmpty()) {
+      if (recordedRawInks.size() >= MAX_RECORDED_RAW_INKS) {
+        recordedRawInks.remove(0);
+      }
+      recordedRawInks.add(rawInkBuilder.build());
+    }
+    rawInkBuilder = Ink.builder();
+    // The stroke being drawn, if any, isn't reset: it may be the first one of a new segment.
     inkBuilder = Ink.builder();
-    strokeBuilder = Ink.Stroke.builder();
+    segmentBounds.setEmpty();
+    segmentHasStrokes = false;
     stateChangedSinceLastRequest = false;
+    inkVersion++;
+  }
+
+  /** Returns the last recognition if it covers the current ink, null otherwise. */
+  @Nullable
+  private RecognitionTask getUpToDateRecognition() {
+    if (lastRecognition == null || lastRecognitionInkVersion != inkVersion) {
+      return null;
+    }
+    return lastRecognition;
+  }
+
+  private void addToSegmentBounds(RectF bounds) {
+    if (!segmentHasStrokes) {
+      segmentBounds.set(bounds);
+      segmentHasStrokes = true;
+    } else {
+      // RectF.union ignores empty rectangles, such as the bounds of a dot.
+      segmentBounds.set(
+          Math.min(segmentBounds.left, bounds.left),
+          Math.min(segmentBounds.top, bounds.top),
+          Math.max(segmentBounds.right, bounds.right),
+          Math.max(segmentBounds.bottom, bounds.bottom));
+    }
+  }
+
+  private void addStroke() {
+    Ink.Stroke stroke =
+        strokeSimplifier != null
+            ? strokeSimplifier.simplify(strokePoints)
+            : strokePoints.toStroke();
+    inkBuilder.addStroke(stroke);
+    if (recordRawInks) {
+      rawInkBuilder.addStroke(strokeSimplifier != null ? strokePoints.toStroke() : stroke);
+    }
+    strokePoints.clear();
+  }
+
+  /**
+   * Commits the open segment if the stroke that was just finished starts a new word or line. The
+   * open segment is reused from the last recognition when it hasn't changed since, and recognized
+   * otherwise.
+   */
+  private void startSegmentIfNeeded() {
+    if (!segmentHasStrokes) {
+      return;
+    }
+    InkSegmenter.Boundary boundary =
+        InkSegmenter.classify(segmentBounds, segmentEndMs, strokeBounds, strokeStartMs);
+    if (boundary == InkSegmenter.Boundary.NONE) {
+      return;
+    }
+    Log.i(TAG, "Segment boundary: " + boundary);
+
+    RecognitionTask reusedRecognition = getUpToDateRecognition();
+    // Held until the segment is recognized, even if the model changes in the meantime.
+    RecognizerPool.Handle recognizerHandle =
+        reusedRecognition == null ? modelManager.acquireRecognizer() : null;
+    if (reusedRecognition == null && recognizerHandle == null) {
+      // Without a recognizer the segment can't be committed, keep writing into it.
+      return;
+    }
+    // Requests for the open segment are replaced by the segment request.
+    recognitionScheduler.cancel();
+
+    Ink segmentInk = inkBuilder.build();
+    int generation = contentGeneration;
+    pendingSegments =
+        pendingSegments
+            .continueWithTask(
+                previous -> {
+                  if (reusedRecognition != null) {
+                    return Tasks.forResult(reusedRecognition);
+                  }
+                  // The context is only known once the previous segments are committed.
+                  RecognitionTask segmentTask =
+                      new RecognitionTask(
+                          recognizerHandle.getRecognizer(),
+                          recognizerHandle.getLanguageTag(),
+                          segmentInk,
+                          getRecognitionContext());
+                  return segmentTask.run().continueWith(unused -> segmentTask);
+                })
+            .continueWith(
+                task -> {
+                  if (recognizerHandle != null) {
+                    recognizerHandle.release();
+                  }
+                  // Skips segments cleared by a reset in the meantime, or whose recognition failed.
+                  if (generation == contentGeneration
+                      && task.isSuccessful()
+                      && task.getResult().done()) {
+                    commitSegment(task.getResult());
+                  }
+                  return null;
+                });
+    resetCurrentInk();
+  }
+
+  private void commitSegment(RecognitionTask segmentTask) {
+    RecognitionTask.RecognizedInk segment = segmentTask.result();
+    addContent(segment);
+    appendCommittedText(segment.text);
+    setStatus(
+        "Committed segment: "
+            + segment.text
+            + " ("
+            + segmentTask.getNumPoints()
+            + " points, "
+            + segmentTask.getLatencyMs()
+            + " ms)");
+    if (contentChangedListener != null) {
+      contentChangedListener.onContentChanged();
+    }
+  }
+
+  private void appendCommittedText(String text) {
+    if (committedText.length() > 0) {
+      committedText.append(' ');
+    }
+    committedText.append(text);
+    // Only the end of the text is used as pre-context.
+    if (committedText.length() > PRE_CONTEXT_LENGTH) {
+      committedText.delete(0, committedText.length() - PRE_CONTEXT_LENGTH);
+    }
+  }
+
+  @Nullable
+  private RecognitionContext getRecognitionContext() {
+    if (!segmentedRecognition) {
+      return null;
+    }
+    // The open segment always starts a new word.
+    return RecognitionContext.builder().setPreContext(committedText + " ").build();
   }
 
   public Ink getCurrentInk() {
@@ -139,20 +366,42 @@ public class StrokeManager {
     float x = event.getX();
     float y = event.getY();
     long t = System.currentTimeMillis();
+    // Event times are in the uptime base, only their offsets to the current event are used.
+    long eventTime = event.getEventTime();
 
     // A new event happened -> clear all pending timeout messages.
     uiHandler.removeMessages(TIMEOUT_TRIGGER);
 
     switch (action) {
       case MotionEvent.ACTION_DOWN:
+        strokePoints.clear();
+        strokePoints.add(x, y, t);
+        strokeBounds.set(x, y, x, y);
+        strokeStartMs = t;
+        break;
       case MotionEvent.ACTION_MOVE:
-        strokeBuilder.addPoint(Point.create(x, y, t));
+        // Touch events batch the points reported since the previous event, oldest first.
+        for (int i = 0; i < event.getHistorySize(); i++) {
+          float historicalX = event.getHistoricalX(i);
+          float historicalY = event.getHistoricalY(i);
+          strokePoints.add(
+              historicalX, historicalY, t - (eventTime - event.getHistoricalEventTime(i)));
+          strokeBounds.union(historicalX, historicalY);
+        }
+        strokePoints.add(x, y, t);
+        strokeBounds.union(x, y);
         break;
       case MotionEvent.ACTION_UP:
-        strokeBuilder.addPoint(Point.create(x, y, t));
-        inkBuilder.addStroke(strokeBuilder.build());
-        strokeBuilder = Ink.Stroke.builder();
+        strokePoints.add(x, y, t);
+        strokeBounds.union(x, y);
+        if (segmentedRecognition) {
+          startSegmentIfNeeded();
+        }
+        addStroke();
+        addToSegmentBounds(strokeBounds);
+        segmentEndMs = t;
         stateChangedSinceLastRequest = true;
+        inkVersion++;
         if (triggerRecognitionAfterInput) {
           recognize();
         }
@@ -179,8 +428,148 @@ public class StrokeManager {
     this.downloadedModelsChangedListener = downloadedModelsChangedListener;
   }
 
+  /** Returns a read-only view of the recognized inks, in the order they were added. */
   public List<RecognitionTask.RecognizedInk> getContent() {
-    return content;
+    return Collections.unmodifiableList(content);
+  }
+
+  /** Returns the recognized inks with a stroke in the given region, in the order of the content. */
+  public List<RecognitionTask.RecognizedInk> getContentInRegion(RectF region) {
+    return contentIndex.query(region);
+  }
+
+  /** Returns the recognized ink with a stroke at the given point, or null if there is none. */
+  @Nullable
+  public RecognitionTask.RecognizedInk getContentAt(float x, float y) {
+    return contentIndex.hitTest(x, y, HIT_TEST_TOLERANCE);
+  }
+
+  /** Removes the recognized inks with a stroke in the given region, and returns how many. */
+  public int eraseRegion(RectF region) {
+    List<RecognitionTask.RecognizedInk> erased = contentIndex.query(region);
+    if (erased.isEmpty()) {
+      return 0;
+    }
+    removeContent(erased);
+    if (contentChangedListener != null) {
+      contentChangedListener.onContentChanged();
+    }
+    return erased.size();
+  }
+
+  /**
+   * Recognizes the inks with a stroke in the given region again, as a single ink, and replaces them
+   * with the result.
+   */
+  public Task<String> recognizeRegion(RectF region) {
+    List<RecognitionTask.RecognizedInk> selected = contentIndex.query(region);
+    if (selected.isEmpty() || modelManager.getRecognizer() == null) {
+      setStatus("No recognition, region empty or recognizer not set");
+      return Tasks.forResult(null);
+    }
+    RecognizerPool.Handle recognizerHandle = modelManager.acquireRecognizer();
+    Ink.Builder regionInk = Ink.builder();
+    for (RecognitionTask.RecognizedInk recognizedInk : selected) {
+      for (Ink.Stroke stroke : recognizedInk.ink.getStrokes()) {
+        regionInk.addStroke(stroke);
+      }
+    }
+    RecognitionTask regionTask =
+        new RecognitionTask(
+            recognizerHandle.getRecognizer(),
+            recognizerHandle.getLanguageTag(),
+            regionInk.build());
+    int generation = contentGeneration;
+    return regionTask
+        .run()
+        .addOnCompleteListener(task -> recognizerHandle.release())
+        .addOnSuccessListener(
+            text -> {
+              if (generation != contentGeneration || !regionTask.done()) {
+                return;
+              }
+              removeContent(selected);
+              addContent(regionTask.result());
+              setStatus("Region recognized: " + text);
+              if (contentChangedListener != null) {
+                contentChangedListener.onContentChanged();
+              }
+            });
+  }
+
+  /**
+   * Writes the content to the channel in the {@link InkDocumentCodec} format, each segment tagged
+   * with the language it was recognized in. The ink that isn't recognized yet is not saved.
+   */
+  public void saveContent(FileChannel channel) throws IOException {
+    InkDocumentCodec.encode(getDocumentSegments(), channel);
+  }
+
+  /**
+   * Replaces the content with the document read from the channel. The segments keep their language
+   * tags, so that saving the content again doesn't retag them with the active language.
+   */
+  public void loadContent(FileChannel channel) throws IOException {
+    List<InkDocumentCodec.Segment> segments = InkDocumentCodec.decode(channel);
+    reset();
+    for (InkDocumentCodec.Segment segment : segments) {
+      addContent(segment.recognizedInk);
+      appendCommittedText(segment.recognizedInk.text);
+    }
+    setStatus("Loaded " + segments.size() + " segments");
+    if (contentChangedListener != null) {
+      contentChangedListener.onContentChanged();
+    }
+  }
+
+  /**
+   * Benchmarks the document codec on the content and the recorded raw inks, using a temporary file
+   * in the given directory.
+   */
+  public Task<InkCodecBenchmark.Report> runCodecBenchmark(File directory) {
+    List<InkDocumentCodec.Segment> segments = getDocumentSegments();
+    for (Ink rawInk : recordedRawInks) {
+      String languageTag = modelManager.getActiveLanguageTag();
+      segments.add(
+          new InkDocumentCodec.Segment(
+              languageTag, new RecognitionTask.RecognizedInk(rawInk, "", languageTag)));
+    }
+    if (segments.isEmpty()) {
+      setStatus("Nothing to benchmark");
+      return Tasks.forResult(null);
+    }
+    return Tasks.call(
+            BACKGROUND_EXECUTOR,
+            () ->
+                InkCodecBenchmark.run(
+                    segments,
+                    File.createTempFile("ink", ".bin", directory),
+                    CODEC_BENCHMARK_ITERATIONS))
+        .addOnSuccessListener(report -> setStatus("Codec benchmark: " + report));
+  }
+
+  private List<InkDocumentCodec.Segment> getDocumentSegments() {
+    List<InkDocumentCodec.Segment> segments = new ArrayList<>(content.size());
+    for (RecognitionTask.RecognizedInk recognizedInk : content) {
+      segments.add(new InkDocumentCodec.Segment(recognizedInk.languageTag, recognizedInk));
+    }
+    return segments;
+  }
+
+  private void addContent(RecognitionTask.RecognizedInk recognizedInk) {
+    content.add(recognizedInk);
+    contentIndex.add(recognizedInk);
+  }
+
+  private void removeContent(List<RecognitionTask.RecognizedInk> recognizedInks) {
+    Set<RecognitionTask.RecognizedInk> removed =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+    for (RecognitionTask.RecognizedInk recognizedInk : recognizedInks) {
+      if (contentIndex.remove(recognizedInk)) {
+        removed.add(recognizedInk);
+      }
+    }
+    content.removeAll(removed);
   }
 
   public String getStatus() {
@@ -229,6 +618,11 @@ public class StrokeManager {
       return Tasks.forResult(null);
     }
 
+    // The download state comes from the model registry, so this only goes to the model manager
+    // until the registry is loaded.
+    if (Boolean.TRUE.equals(modelManager.getCachedDownloadState())) {
+      return submitRecognition();
+    }
     return modelManager
         .checkIsModelDownloaded()
         .onSuccessTask(
@@ -237,16 +631,59 @@ public class StrokeManager {
                 setStatus("Model not downloaded yet");
                 return Tasks.forResult(null);
               }
+              return submitRecognition();
+            });
+  }
 
-              stateChangedSinceLastRequest = false;
-              recognitionTask =
-                  new RecognitionTask(modelManager.getRecognizer(), inkBuilder.build());
+  private Task<String> submitRecognition() {
+    RecognizerPool.Handle recognizerHandle = modelManager.acquireRecognizer();
+    if (recognizerHandle == null) {
+      setStatus("Recognizer not set");
+      return Tasks.forResult(null);
+    }
+    stateChangedSinceLastRequest = false;
+    long requestInkVersion = inkVersion;
+    return recognitionScheduler
+        .submit(
+            requestInkVersion,
+            inkBuilder.build(),
+            recognizerHandle.getRecognizer(),
+            recognizerHandle.getLanguageTag(),
+            getRecognitionContext())
+        .addOnCompleteListener(task -> recognizerHandle.release())
+        .onSuccessTask(
+            recognition -> {
+              if (recognition == null) {
+                // Replaced by a newer request, or stale.
+                return Tasks.forResult(null);
+              }
+              lastRecognition = recognition;
+              lastRecognitionInkVersion = requestInkVersion;
+              uiHandler.removeMessages(TIMEOUT_TRIGGER);
               uiHandler.sendMessageDelayed(
                   uiHandler.obtainMessage(TIMEOUT_TRIGGER), CONVERSION_TIMEOUT_MS);
-              return recognitionTask.run();
+              return Tasks.forResult(recognition.result().text);
             });
   }
 
+  /**
+   * Recognizes the recorded raw inks with and without the current stroke simplifier, and shows how
+   * they compare in the status.
+   */
+  public Task<StrokeSimplificationBenchmark.Report> runSimplificationBenchmark() {
+    if (modelManager.getRecognizer() == null || recordedRawInks.isEmpty()) {
+      setStatus("Nothing to benchmark");
+      return Tasks.forResult(null);
+    }
+    StrokeSimplifier simplifier =
+        strokeSimplifier != null ? strokeSimplifier : new StrokeSimplifier();
+    RecognizerPool.Handle recognizerHandle = modelManager.acquireRecognizer();
+    return new StrokeSimplificationBenchmark(recognizerHandle.getRecognizer(), simplifier)
+        .run(new ArrayList<>(recordedRawInks))
+        .addOnCompleteListener(task -> recognizerHandle.release())
+        .addOnSuccessListener(report -> setStatus("Simplification benchmark: " + report));
+  }
+
   public void refreshDownloadedModelsStatus() {
     modelManager
         .getDownloadedModelLanguages()
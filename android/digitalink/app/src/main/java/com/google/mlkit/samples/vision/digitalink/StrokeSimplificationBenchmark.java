@@ -0,0 +1,121 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import android.util.Log;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.digitalink.DigitalInkRecognizer;
+import com.google.mlkit.vision.digitalink.Ink;
+import com.google.mlkit.vision.digitalink.RecognitionResult;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the accuracy versus size trade-off of a {@link StrokeSimplifier} on recorded inks.
+ *
+ * <p>Each ink is recognized once as recorded and once simplified, one request at a time so that
+ * the latencies are comparable. The simplification is considered lossless for an ink when both
+ * requests return the same top candidate.
+ */
+public class StrokeSimplificationBenchmark {
+
+  private static final String TAG = "MLKD.SimplifyBenchmark";
+
+  /** Aggregated results of a benchmark run. */
+  public static class Report {
+    public int numInks;
+    public int numMatchingInks;
+    public long numRawPoints;
+    public long numSimplifiedPoints;
+    public long rawLatencyMs;
+    public long simplifiedLatencyMs;
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d/%d inks match, points %d -> %d (%.1fx), latency %d ms -> %d ms",
+          numMatchingInks,
+          numInks,
+          numRawPoints,
+          numSimplifiedPoints,
+          numSimplifiedPoints == 0 ? 1f : (float) numRawPoints / numSimplifiedPoints,
+          rawLatencyMs,
+          simplifiedLatencyMs);
+    }
+  }
+
+  private final DigitalInkRecognizer recognizer;
+  private final StrokeSimplifier simplifier;
+
+  public StrokeSimplificationBenchmark(
+      DigitalInkRecognizer recognizer, StrokeSimplifier simplifier) {
+    this.recognizer = recognizer;
+    this.simplifier = simplifier;
+  }
+
+  /** Recognizes the given raw inks with and without simplification, and reports the differences. */
+  public Task<Report> run(List<Ink> rawInks) {
+    Report report = new Report();
+    Task<Void> chain = Tasks.forResult(null);
+    for (Ink rawInk : rawInks) {
+      Ink simplifiedInk = simplify(rawInk);
+      chain = chain.onSuccessTask(unused -> compare(rawInk, simplifiedInk, report));
+    }
+    return chain.onSuccessTask(
+        unused -> {
+          Log.i(TAG, "Benchmark: " + report);
+          return Tasks.forResult(report);
+        });
+  }
+
+  private Task<Void> compare(Ink rawInk, Ink simplifiedInk, Report report) {
+    long[] startMs = {SystemClock.elapsedRealtime()};
+    String[] rawText = new String[1];
+    return recognizer
+        .recognize(rawInk)
+        .onSuccessTask(
+            rawResult -> {
+              report.rawLatencyMs += SystemClock.elapsedRealtime() - startMs[0];
+              rawText[0] = getTopCandidate(rawResult);
+              startMs[0] = SystemClock.elapsedRealtime();
+              return recognizer.recognize(simplifiedInk);
+            })
+        .onSuccessTask(
+            simplifiedResult -> {
+              report.simplifiedLatencyMs += SystemClock.elapsedRealtime() - startMs[0];
+              report.numInks++;
+              report.numRawPoints += RecognitionTask.countPoints(rawInk);
+              report.numSimplifiedPoints += RecognitionTask.countPoints(simplifiedInk);
+              String simplifiedText = getTopCandidate(simplifiedResult);
+              if (rawText[0] != null && rawText[0].equals(simplifiedText)) {
+                report.numMatchingInks++;
+              } else {
+                Log.i(TAG, "Mismatch: '" + rawText[0] + "' vs '" + simplifiedText + "'");
+              }
+              return Tasks.forResult(null);
+            });
+  }
+
+  private Ink simplify(Ink rawInk) {
+    StrokeSimplifier.PointBuffer points = new StrokeSimplifier.PointBuffer();
+    Ink.Builder builder = Ink.builder();
+    for (Ink.Stroke stroke : rawInk.getStrokes()) {
+      points.clear();
+      for (Ink.Point point : stroke.getPoints()) {
+        Long t = point.getTimestamp();
+        points.add(point.getX(), point.getY(), t == null ? 0 : t);
+      }
+      builder.addStroke(simplifier.simplify(points));
+    }
+    return builder.build();
+  }
+
+  @Nullable
+  private static String getTopCandidate(RecognitionResult result) {
+    return result.getCandidates().isEmpty() ? null : result.getCandidates().get(0).getText();
+  }
+}
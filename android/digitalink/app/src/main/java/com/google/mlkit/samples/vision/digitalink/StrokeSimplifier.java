@@ -0,0 +1,220 @@
+package com.google.mlkit.samples.vision.digitalink;
+
+import com.google.mlkit.vision.digitalink.Ink;
+import com.google.mlkit.vision.digitalink.Ink.Point;
+import java.util.Arrays;
+
+/**
+ * Reduces the number of points of a stroke before it is sent to the recognizer.
+ *
+ * <p>High rate digitizers report many nearly collinear points per stroke, which make recognition
+ * requests larger without making them more accurate. The simplifier first drops points closer
+ * than a minimum distance to the previous kept point, unless the pen paused in between, then runs
+ * the Ramer-Douglas-Peucker algorithm to remove the points that deviate from the simplified
+ * polyline by less than a tolerance. The first and last points of a stroke are always kept.
+ *
+ * <p>This class is not thread safe.
+ */
+public class StrokeSimplifier {
+
+  /** Default minimum distance between two kept points, in pixels. */
+  public static final float DEFAULT_MIN_DISTANCE = 2f;
+  /** Default maximum deviation from the original stroke, in pixels. */
+  public static final float DEFAULT_TOLERANCE = 1f;
+  /** Default pause after which a point is kept regardless of its distance, in milliseconds. */
+  public static final long DEFAULT_MAX_TIME_GAP_MS = 100;
+
+  /** Growable primitive arrays holding the points of a stroke as they are drawn. */
+  public static class PointBuffer {
+    private float[] xs = new float[64];
+    private float[] ys = new float[64];
+    private long[] ts = new long[64];
+    private int size;
+
+    public void add(float x, float y, long t) {
+      if (size == xs.length) {
+        int capacity = size * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        ts = Arrays.copyOf(ts, capacity);
+      }
+      xs[size] = x;
+      ys[size] = y;
+      ts[size] = t;
+      size++;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public void clear() {
+      size = 0;
+    }
+
+    /** Returns a stroke with all the points of the buffer. */
+    public Ink.Stroke toStroke() {
+      Ink.Stroke.Builder builder = Ink.Stroke.builder();
+      for (int i = 0; i < size; i++) {
+        builder.addPoint(Point.create(xs[i], ys[i], ts[i]));
+      }
+      return builder.build();
+    }
+  }
+
+  private final float minDistance;
+  private final float tolerance;
+  private final long maxTimeGapMs;
+
+  // Scratch buffers reused across strokes.
+  private int[] indices = new int[64];
+  private int[] stack = new int[128];
+  private boolean[] kept = new boolean[64];
+
+  private long numInputPoints;
+  private long numOutputPoints;
+
+  public StrokeSimplifier() {
+    this(DEFAULT_MIN_DISTANCE, DEFAULT_TOLERANCE, DEFAULT_MAX_TIME_GAP_MS);
+  }
+
+  /**
+   * Creates a simplifier with the given thresholds.
+   *
+   * @param minDistance the minimum distance between two kept points, in pixels
+   * @param tolerance the maximum deviation from the original stroke, in pixels
+   * @param maxTimeGapMs the pause after which a point is kept regardless of its distance
+   */
+  public StrokeSimplifier(float minDistance, float tolerance, long maxTimeGapMs) {
+    this.minDistance = minDistance;
+    this.tolerance = tolerance;
+    this.maxTimeGapMs = maxTimeGapMs;
+  }
+
+  /** Returns a stroke with the points of the buffer that are needed to preserve its shape. */
+  public Ink.Stroke simplify(PointBuffer points) {
+    int numIndices = decimate(points);
+    douglasPeucker(points, numIndices);
+
+    Ink.Stroke.Builder builder = Ink.Stroke.builder();
+    int numKept = 0;
+    for (int i = 0; i < numIndices; i++) {
+      if (kept[i]) {
+        int index = indices[i];
+        builder.addPoint(Point.create(points.xs[index], points.ys[index], points.ts[index]));
+        numKept++;
+      }
+    }
+    numInputPoints += points.size;
+    numOutputPoints += numKept;
+    return builder.build();
+  }
+
+  /** Returns the number of points passed to {@link #simplify} so far. */
+  public long getNumInputPoints() {
+    return numInputPoints;
+  }
+
+  /** Returns the number of points kept by {@link #simplify} so far. */
+  public long getNumOutputPoints() {
+    return numOutputPoints;
+  }
+
+  /** Returns how many input points there were for each kept point, 1 if nothing was simplified. */
+  public float getReductionRatio() {
+    return numOutputPoints == 0 ? 1f : (float) numInputPoints / numOutputPoints;
+  }
+
+  public void resetStats() {
+    numInputPoints = 0;
+    numOutputPoints = 0;
+  }
+
+  /** Fills {@link #indices} with the points far enough apart, and returns how many there are. */
+  private int decimate(PointBuffer points) {
+    ensureCapacity(points.size);
+    if (points.size == 0) {
+      return 0;
+    }
+    float minDistanceSquared = minDistance * minDistance;
+    int numIndices = 0;
+    indices[numIndices++] = 0;
+    int last = 0;
+    for (int i = 1; i < points.size - 1; i++) {
+      float dx = points.xs[i] - points.xs[last];
+      float dy = points.ys[i] - points.ys[last];
+      if (dx * dx + dy * dy >= minDistanceSquared
+          || points.ts[i] - points.ts[last] >= maxTimeGapMs) {
+        indices[numIndices++] = i;
+        last = i;
+      }
+    }
+    if (points.size > 1) {
+      indices[numIndices++] = points.size - 1;
+    }
+    return numIndices;
+  }
+
+  /** Marks in {@link #kept} the decimated points that the simplified stroke needs. */
+  private void douglasPeucker(PointBuffer points, int numIndices) {
+    Arrays.fill(kept, 0, numIndices, false);
+    if (numIndices == 0) {
+      return;
+    }
+    kept[0] = true;
+    kept[numIndices - 1] = true;
+
+    // Iterative version with an explicit stack of [first, last] ranges, to avoid deep recursion on
+    // long strokes.
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+    stack[stackSize++] = numIndices - 1;
+    while (stackSize > 0) {
+      int lastIndex = stack[--stackSize];
+      int firstIndex = stack[--stackSize];
+      float maxDistance = 0;
+      int farthest = -1;
+      for (int i = firstIndex + 1; i < lastIndex; i++) {
+        float distance =
+            segmentDistance(points, indices[i], indices[firstIndex], indices[lastIndex]);
+        if (distance > maxDistance) {
+          maxDistance = distance;
+          farthest = i;
+        }
+      }
+      if (farthest >= 0 && maxDistance > tolerance) {
+        kept[farthest] = true;
+        stack[stackSize++] = firstIndex;
+        stack[stackSize++] = farthest;
+        stack[stackSize++] = farthest;
+        stack[stackSize++] = lastIndex;
+      }
+    }
+  }
+
+  private void ensureCapacity(int size) {
+    if (indices.length < size) {
+      indices = new int[size];
+      kept = new boolean[size];
+      // Each range on the stack splits in two, so there are at most size ranges of 2 ints.
+      stack = new int[2 * size];
+    }
+  }
+
+  /** Returns the distance from point p to the segment from a to b. */
+  private static float segmentDistance(PointBuffer points, int p, int a, int b) {
+    float ax = points.xs[a];
+    float ay = points.ys[a];
+    float dx = points.xs[b] - ax;
+    float dy = points.ys[b] - ay;
+    float px = points.xs[p] - ax;
+    float py = points.ys[p] - ay;
+    float lengthSquared = dx * dx + dy * dy;
+    if (lengthSquared > 0) {
+      float t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+      px -= t * dx;
+      py -= t * dy;
+    }
+    return (float) Math.sqrt(px * px + py * py);
+  }
+}
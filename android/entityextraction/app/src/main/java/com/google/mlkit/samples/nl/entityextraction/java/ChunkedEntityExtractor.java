@@ -0,0 +1,244 @@
+package com.google.mlkit.samples.nl.entityextraction.java;
+
+import androidx.annotation.NonNull;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.nl.entityextraction.Entity;
+import com.google.mlkit.nl.entityextraction.EntityAnnotation;
+import com.google.mlkit.nl.entityextraction.EntityExtractionParams;
+import com.google.mlkit.nl.entityextraction.EntityExtractor;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Extracts the entities of long texts, e.g. emails or documents, by annotating chunks of them.
+ *
+ * <p>The text is split at paragraph or sentence boundaries. Each chunk owns a range of the text
+ * and is annotated with some text around it as context. Only the entities starting in the owned
+ * range are kept, so that an entity crossing a boundary is reported once, in full. A bounded
+ * number of chunks are annotated at once, and the entities of each chunk are delivered as soon as
+ * it is done, with offsets in the original text.
+ */
+public class ChunkedEntityExtractor {
+
+  static final int MAX_CHUNK_LENGTH = 2000;
+  // Context annotated on each side of the owned range, longer than most entities.
+  static final int OVERLAP_LENGTH = 200;
+  static final int MAX_PARALLEL_CHUNKS = 3;
+
+  /** An entity annotation, with offsets in the original text. */
+  public static class ExtractedEntity {
+    public final int start;
+    public final int end;
+    public final String annotatedText;
+    public final List<Entity> entities;
+
+    ExtractedEntity(int start, int end, String annotatedText, List<Entity> entities) {
+      this.start = start;
+      this.end = end;
+      this.annotatedText = annotatedText;
+      this.entities = entities;
+    }
+  }
+
+  /** Receives the entities of each chunk as it is annotated, on the main thread. */
+  public interface Listener {
+    void onEntities(List<ExtractedEntity> entities);
+  }
+
+  /** Summary of an extraction. */
+  public static class Report {
+    public final int numChunks;
+    public final int numCharacters;
+    public final int numEntities;
+    public final long wallTimeMs;
+
+    Report(int numChunks, int numCharacters, int numEntities, long wallTimeMs) {
+      this.numChunks = numChunks;
+      this.numCharacters = numCharacters;
+      this.numEntities = numEntities;
+      this.wallTimeMs = wallTimeMs;
+    }
+
+    public double getCharactersPerSecond() {
+      return wallTimeMs == 0 ? 0 : numCharacters * 1000.0 / wallTimeMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d entities in %d chars (%d chunks) in %d ms, %.0f chars/s",
+          numEntities,
+          numCharacters,
+          numChunks,
+          wallTimeMs,
+          getCharactersPerSecond());
+    }
+  }
+
+  /** A range of the text annotated at once, and the part of it whose entities are kept. */
+  static class Chunk {
+    final int start;
+    final int end;
+    final int ownedStart;
+    final int ownedEnd;
+
+    Chunk(int start, int end, int ownedStart, int ownedEnd) {
+      this.start = start;
+      this.end = end;
+      this.ownedStart = ownedStart;
+      this.ownedEnd = ownedEnd;
+    }
+  }
+
+  private final EntityExtractor entityExtractor;
+  private final Executor splitExecutor;
+
+  /**
+   * Creates a pipeline on the given extractor, whose model must be downloaded. The text is split on
+   * the given executor.
+   */
+  public ChunkedEntityExtractor(EntityExtractor entityExtractor, Executor splitExecutor) {
+    this.entityExtractor = entityExtractor;
+    this.splitExecutor = splitExecutor;
+  }
+
+  /** Extracts the entities of the text, and returns the summary once all of them are delivered. */
+  public Task<Report> extract(String text, Listener listener) {
+    long startNanos = System.nanoTime();
+    return Tasks.call(splitExecutor, () -> split(text))
+        .onSuccessTask(chunks -> new Run(text, chunks, listener, startNanos).start());
+  }
+
+  /** Splits the text into chunks, preferably at paragraph, then sentence, then word boundaries. */
+  static List<Chunk> split(String text) {
+    List<Chunk> chunks = new ArrayList<>();
+    BreakIterator sentences = BreakIterator.getSentenceInstance();
+    sentences.setText(text);
+    int ownedStart = 0;
+    while (ownedStart < text.length()) {
+      int ownedEnd = findChunkEnd(text, sentences, ownedStart);
+      int start = ownedStart;
+      if (start > 0) {
+        // Doesn't start the context in the middle of a word.
+        start = Math.max(0, ownedStart - OVERLAP_LENGTH);
+        while (start < ownedStart && !Character.isWhitespace(text.charAt(start))) {
+          start++;
+        }
+      }
+      int end = ownedEnd;
+      if (end < text.length()) {
+        end = Math.min(text.length(), ownedEnd + OVERLAP_LENGTH);
+        while (end > ownedEnd && end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+          end--;
+        }
+      }
+      chunks.add(new Chunk(start, end, ownedStart, ownedEnd));
+      ownedStart = ownedEnd;
+    }
+    return chunks;
+  }
+
+  private static int findChunkEnd(String text, BreakIterator sentences, int start) {
+    int limit = start + MAX_CHUNK_LENGTH;
+    if (limit >= text.length()) {
+      return text.length();
+    }
+    int paragraph = text.lastIndexOf("\n\n", limit - 2);
+    if (paragraph > start + MAX_CHUNK_LENGTH / 2) {
+      return paragraph + 2;
+    }
+    int sentence = sentences.preceding(limit + 1);
+    if (sentence != BreakIterator.DONE && sentence > start + MAX_CHUNK_LENGTH / 4) {
+      return sentence;
+    }
+    for (int i = limit; i > start + MAX_CHUNK_LENGTH / 4; i--) {
+      if (Character.isWhitespace(text.charAt(i - 1))) {
+        return i;
+      }
+    }
+    return limit;
+  }
+
+  /** The state of an extraction, only accessed on the main thread. */
+  private class Run {
+    private final String text;
+    private final List<Chunk> chunks;
+    private final Listener listener;
+    private final long startNanos;
+    private final TaskCompletionSource<Report> result = new TaskCompletionSource<>();
+    private int nextChunk;
+    private int runningChunks;
+    private int numEntities;
+
+    Run(String text, List<Chunk> chunks, Listener listener, long startNanos) {
+      this.text = text;
+      this.chunks = chunks;
+      this.listener = listener;
+      this.startNanos = startNanos;
+    }
+
+    Task<Report> start() {
+      annotateNextChunks();
+      return result.getTask();
+    }
+
+    private void annotateNextChunks() {
+      if (result.getTask().isComplete()) {
+        return;
+      }
+      if (nextChunk == chunks.size() && runningChunks == 0) {
+        long wallTimeMs = (System.nanoTime() - startNanos) / 1_000_000;
+        result.setResult(new Report(chunks.size(), text.length(), numEntities, wallTimeMs));
+        return;
+      }
+      while (runningChunks < MAX_PARALLEL_CHUNKS && nextChunk < chunks.size()) {
+        Chunk chunk = chunks.get(nextChunk++);
+        runningChunks++;
+        entityExtractor
+            .annotate(
+                new EntityExtractionParams.Builder(text.substring(chunk.start, chunk.end)).build())
+            .addOnCompleteListener(
+                task -> {
+                  runningChunks--;
+                  if (task.isSuccessful()) {
+                    onChunkAnnotated(chunk, task.getResult());
+                  } else {
+                    result.trySetException(task.getException());
+                  }
+                  annotateNextChunks();
+                });
+      }
+    }
+
+    private void onChunkAnnotated(Chunk chunk, List<EntityAnnotation> annotations) {
+      if (result.getTask().isComplete()) {
+        return;
+      }
+      List<ExtractedEntity> entities = new ArrayList<>();
+      for (EntityAnnotation annotation : annotations) {
+        int start = chunk.start + annotation.getStart();
+        // Entities starting in the context belong to the neighboring chunks.
+        if (start < chunk.ownedStart || start >= chunk.ownedEnd) {
+          continue;
+        }
+        entities.add(
+            new ExtractedEntity(
+                start,
+                chunk.start + annotation.getEnd(),
+                annotation.getAnnotatedText(),
+                annotation.getEntities()));
+      }
+      numEntities += entities.size();
+      if (!entities.isEmpty()) {
+        listener.onEntities(entities);
+      }
+    }
+  }
+}
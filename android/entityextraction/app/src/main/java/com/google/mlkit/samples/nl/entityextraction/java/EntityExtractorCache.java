@@ -0,0 +1,279 @@
+package com.google.mlkit.samples.nl.entityextraction.java;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.text.TextUtils;
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.nl.entityextraction.EntityExtraction;
+import com.google.mlkit.nl.entityextraction.EntityExtractionParams;
+import com.google.mlkit.nl.entityextraction.EntityExtractionRemoteModel;
+import com.google.mlkit.nl.entityextraction.EntityExtractor;
+import com.google.mlkit.nl.entityextraction.EntityExtractorOptions;
+import com.google.mlkit.nl.entityextraction.EntityExtractorOptions.ModelIdentifier;
+import com.mlkit.example.internal.modelstate.ModelStateRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cache of entity extractors, one per model language, sized from the memory available to the app.
+ *
+ * <p>Extractors are kept open across activities, so that switching back to a recently used model
+ * doesn't reload it. An extraction acquires the extractor of its model, and releases it once done,
+ * so that extractors in use are never closed. The least recently used idle extractor is closed
+ * when the cache is full, and the cache shrinks when the system reports memory pressure. The last
+ * used models are remembered across launches, to load them in the background at startup.
+ *
+ * <p>Must be used on the main thread.
+ */
+class EntityExtractorCache implements ComponentCallbacks2 {
+
+  private static final String TAG = "EntityExtractorCache";
+  // Rough memory used by an extractor with its model loaded, in MB.
+  private static final int EXTRACTOR_MEMORY_MB = 32;
+  private static final int MAX_EXTRACTORS = 4;
+  private static final String PREFERENCES_NAME = "entity_extractor_cache";
+  private static final String RECENT_MODELS_KEY = "recent_models";
+  private static final String PREWARM_TEXT = "Hello";
+
+  private static EntityExtractorCache instance;
+
+  /** An extractor acquired from the cache, to release once done with it. */
+  class Handle {
+    private final Entry entry;
+    private boolean released;
+
+    private Handle(Entry entry) {
+      this.entry = entry;
+    }
+
+    EntityExtractor getExtractor() {
+      return entry.extractor;
+    }
+
+    @MainThread
+    void release() {
+      if (released) {
+        return;
+      }
+      released = true;
+      entry.refCount--;
+      trimToCapacity();
+    }
+  }
+
+  private static class Entry {
+    final EntityExtractor extractor;
+    int refCount;
+
+    Entry(EntityExtractor extractor) {
+      this.extractor = extractor;
+    }
+  }
+
+  private final SharedPreferences preferences;
+  private final int capacity;
+  private final ModelStateRegistry<EntityExtractionRemoteModel> modelRegistry =
+      ModelStateRegistry.getInstance(EntityExtractionRemoteModel.class);
+  // Open extractors, least recently used first.
+  private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<>(MAX_EXTRACTORS, 0.75f, true);
+  // Capacity lowered by memory pressure, or -1.
+  private int trimmedCapacity = -1;
+  private int opened;
+  private int closed;
+  private int hits;
+
+  private EntityExtractorCache(Context context) {
+    preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    int memoryClassCapacity = activityManager.getMemoryClass() / EXTRACTOR_MEMORY_MB;
+    capacity = Math.max(1, Math.min(MAX_EXTRACTORS, memoryClassCapacity));
+    context.registerComponentCallbacks(this);
+    Log.d(TAG, "Cache capacity: " + capacity);
+  }
+
+  @MainThread
+  static EntityExtractorCache getInstance(Context context) {
+    if (instance == null) {
+      instance = new EntityExtractorCache(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /** Opens the extractor of the model ahead of its use, or reuses it if it is still open. */
+  @MainThread
+  void open(@ModelIdentifier String model) {
+    acquire(model).release();
+    // Only models explicitly used are remembered, not the prewarmed ones.
+    rememberRecentModel(model);
+  }
+
+  /**
+   * Acquires the extractor of the model once its model is downloaded. The model manager is only
+   * queried when the download state of the model isn't known yet. The handle must be released
+   * once done with the extractor.
+   */
+  @MainThread
+  Task<Handle> acquireWhenReady(@ModelIdentifier String model) {
+    Handle handle = acquire(model);
+    rememberRecentModel(model);
+    EntityExtractionRemoteModel remoteModel =
+        new EntityExtractionRemoteModel.Builder(model).build();
+    if (Boolean.TRUE.equals(modelRegistry.isDownloaded(remoteModel))) {
+      return Tasks.forResult(handle);
+    }
+    return handle
+        .getExtractor()
+        .downloadModelIfNeeded()
+        .addOnFailureListener(e -> handle.release())
+        .onSuccessTask(
+            ignored -> {
+              modelRegistry.setDownloaded(remoteModel, true);
+              return Tasks.forResult(handle);
+            });
+  }
+
+  /**
+   * Loads the extractors of the last used models in the background, the ones already downloaded
+   * only.
+   */
+  @MainThread
+  void prewarm() {
+    List<String> recentModels = getRecentModels();
+    // Opens the most recent last, so that it is the last evicted.
+    for (int i = Math.min(recentModels.size(), getCapacity()) - 1; i >= 0; i--) {
+      String model = recentModels.get(i);
+      modelRegistry
+          .checkIsDownloaded(new EntityExtractionRemoteModel.Builder(model).build())
+          .addOnSuccessListener(
+              downloaded -> {
+                // Never evicts an extractor for a prewarmed one.
+                if (!downloaded
+                    || entries.containsKey(model)
+                    || entries.size() >= getCapacity()) {
+                  return;
+                }
+                // Annotating some text loads the model. The extractor is in use meanwhile.
+                Handle handle = acquire(model);
+                handle
+                    .getExtractor()
+                    .annotate(new EntityExtractionParams.Builder(PREWARM_TEXT).build())
+                    .addOnFailureListener(e -> Log.w(TAG, "Failed to prewarm " + model, e))
+                    .addOnCompleteListener(task -> handle.release());
+              });
+    }
+  }
+
+  /** Returns the counts of the extractors opened, closed and reused. */
+  String getMetrics() {
+    return String.format(
+        Locale.US,
+        "open=%d, opened=%d, closed=%d, hits=%d",
+        entries.size(),
+        opened,
+        closed,
+        hits);
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    int newCapacity;
+    if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+      // The process is likely to be killed, nothing is worth keeping.
+      newCapacity = 0;
+    } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+      // Keeps the extractor of the model last used.
+      newCapacity = 1;
+    } else {
+      // UI_HIDDEN only means the app went to the background, not that memory is low, and switching
+      // back to it should stay instant.
+      return;
+    }
+    trimmedCapacity = trimmedCapacity < 0 ? newCapacity : Math.min(trimmedCapacity, newCapacity);
+    trimToCapacity();
+  }
+
+  @Override
+  public void onLowMemory() {
+    onTrimMemory(TRIM_MEMORY_COMPLETE);
+  }
+
+  @Override
+  public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+
+  private Handle acquire(String model) {
+    Entry entry = getOrOpen(model);
+    entry.refCount++;
+    trimToCapacity();
+    return new Handle(entry);
+  }
+
+  private Entry getOrOpen(String model) {
+    // The app is used again, the memory pressure is over.
+    trimmedCapacity = -1;
+    Entry entry = entries.get(model);
+    if (entry != null) {
+      hits++;
+      return entry;
+    }
+    entry =
+        new Entry(EntityExtraction.getClient(new EntityExtractorOptions.Builder(model).build()));
+    entries.put(model, entry);
+    opened++;
+    return entry;
+  }
+
+  private int getCapacity() {
+    return trimmedCapacity >= 0 ? trimmedCapacity : capacity;
+  }
+
+  private void trimToCapacity() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    // The extractors in use are skipped, they are closed once released if still over capacity.
+    while (entries.size() > getCapacity() && iterator.hasNext()) {
+      Map.Entry<String, Entry> eldest = iterator.next();
+      if (eldest.getValue().refCount > 0) {
+        continue;
+      }
+      iterator.remove();
+      eldest.getValue().extractor.close();
+      closed++;
+      Log.d(TAG, "Closed extractor: " + eldest.getKey());
+    }
+  }
+
+  /** Returns the last used models, most recent first. */
+  private List<String> getRecentModels() {
+    String recentModels = preferences.getString(RECENT_MODELS_KEY, "");
+    if (TextUtils.isEmpty(recentModels)) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(Arrays.asList(TextUtils.split(recentModels, ",")));
+  }
+
+  private void rememberRecentModel(String model) {
+    List<String> recentModels = getRecentModels();
+    if (!recentModels.isEmpty() && recentModels.get(0).equals(model)) {
+      return;
+    }
+    recentModels.remove(model);
+    recentModels.add(0, model);
+    while (recentModels.size() > MAX_EXTRACTORS) {
+      recentModels.remove(recentModels.size() - 1);
+    }
+    preferences.edit().putString(RECENT_MODELS_KEY, TextUtils.join(",", recentModels)).apply();
+  }
+}
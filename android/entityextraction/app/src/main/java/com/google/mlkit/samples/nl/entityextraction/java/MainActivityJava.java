@@ -23,10 +23,6 @@ import androidx.annotation.NonNull;
 import com.google.mlkit.nl.entityextraction.DateTimeEntity;
 import com.google.mlkit.nl.entityextraction.DateTimeEntity.DateTimeGranularity;
 import com.google.mlkit.nl.entityextraction.Entity;
-import com.google.mlkit.nl.entityextraction.EntityAnnotation;
-import com.google.mlkit.nl.entityextraction.EntityExtraction;
-import com.google.mlkit.nl.entityextraction.EntityExtractionParams;
-import com.google.mlkit.nl.entityextraction.EntityExtractor;
 import com.google.mlkit.nl.entityextraction.EntityExtractorOptions;
 import com.google.mlkit.nl.entityextraction.EntityExtractorOptions.ModelIdentifier;
 import com.google.mlkit.nl.entityextraction.FlightNumberEntity;
@@ -35,10 +31,12 @@ import com.google.mlkit.nl.entityextraction.MoneyEntity;
 import com.google.mlkit.nl.entityextraction.PaymentCardEntity;
 import com.google.mlkit.nl.entityextraction.TrackingNumberEntity;
 import com.google.mlkit.samples.nl.entityextraction.R;
+import com.google.mlkit.samples.nl.entityextraction.java.ChunkedEntityExtractor.ExtractedEntity;
 import java.text.DateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /** Default launcher activity. */
 public class MainActivityJava extends AppCompatActivity {
@@ -48,10 +46,14 @@ public class MainActivityJava extends AppCompatActivity {
   public static final int REQUEST_CODE = 1;
 
   @ModelIdentifier private String currentModel = EntityExtractorOptions.ENGLISH;
-  private EntityExtractor entityExtractor;
+  private EntityExtractorCache entityExtractorCache;
   private TextView currentModelView;
   private EditText input;
   private TextView output;
+  // Splits the long inputs into chunks.
+  private final ExecutorService extractionExecutor = Executors.newSingleThreadExecutor();
+  // Incremented on every extraction, to drop the entities of the previous ones.
+  private int extractionId;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -63,9 +65,9 @@ public class MainActivityJava extends AppCompatActivity {
     }
     setContentView(R.layout.activity_main);
 
-    EntityExtractorOptions options = new EntityExtractorOptions.Builder(currentModel).build();
-    entityExtractor = EntityExtraction.getClient(options);
-    getLifecycle().addObserver(entityExtractor);
+    // Extractors outlive the activity, they are closed by the cache.
+    entityExtractorCache = EntityExtractorCache.getInstance(this);
+    entityExtractorCache.prewarm();
 
     currentModelView = findViewById(R.id.current_model);
     currentModelView.setText(
@@ -89,38 +91,51 @@ public class MainActivityJava extends AppCompatActivity {
 
   public void extractEntities(final String input) {
     output.setText(R.string.wait_message);
+    final int id = ++extractionId;
 
-    entityExtractor
-        .downloadModelIfNeeded()
-        .onSuccessTask(ignored -> entityExtractor.annotate(getEntityExtractionParams(input)))
+    entityExtractorCache
+        .acquireWhenReady(currentModel)
+        .onSuccessTask(
+            extractorHandle -> {
+              if (id == extractionId) {
+                output.setText(getString(R.string.entities_detected));
+                output.append("\n");
+              }
+              // Long texts are annotated in chunks, and the entities displayed as they are found.
+              // The extractor stays open until all the chunks are annotated.
+              return new ChunkedEntityExtractor(extractorHandle.getExtractor(), extractionExecutor)
+                  .extract(
+                      input,
+                      entities -> {
+                        if (id != extractionId) {
+                          return;
+                        }
+                        for (ExtractedEntity extractedEntity : entities) {
+                          for (Entity entity : extractedEntity.entities) {
+                            displayEntityInfo(extractedEntity.annotatedText, entity);
+                            output.append("\n");
+                          }
+                        }
+                      })
+                  .addOnCompleteListener(task -> extractorHandle.release());
+            })
         .addOnFailureListener(
             e -> {
               Log.e(TAG, "Annotation failed", e);
-              output.setText(getString(R.string.entity_extraction_error));
+              if (id == extractionId) {
+                output.setText(getString(R.string.entity_extraction_error));
+              }
             })
         .addOnSuccessListener(
-            result -> {
-              if (result.isEmpty()) {
+            report -> {
+              Log.d(TAG, "Extraction done: " + report);
+              Log.d(TAG, "Extractors: " + entityExtractorCache.getMetrics());
+              if (id == extractionId && report.numEntities == 0) {
                 output.setText(getString(R.string.no_entity_detected));
-                return;
-              }
-              output.setText(getString(R.string.entities_detected));
-              output.append("\n");
-              for (EntityAnnotation entityAnnotation : result) {
-                List<Entity> entities = entityAnnotation.getEntities();
-                String annotatedText = entityAnnotation.getAnnotatedText();
-                for (Entity entity : entities) {
-                  displayEntityInfo(annotatedText, entity);
-                  output.append("\n");
-                }
               }
             });
   }
 
-  private static EntityExtractionParams getEntityExtractionParams(String input) {
-    return new EntityExtractionParams.Builder(input).build();
-  }
-
   @Override
   public boolean onCreateOptionsMenu(Menu menu) {
     getMenuInflater().inflate(R.menu.menu_choose_model, menu);
@@ -145,11 +160,17 @@ public class MainActivityJava extends AppCompatActivity {
       currentModel = newModel;
       currentModelView.setText(
           getString(R.string.current_model, currentModel.toUpperCase(Locale.US)));
-      entityExtractor =
-          EntityExtraction.getClient(new EntityExtractorOptions.Builder(newModel).build());
+      // Opens the extractor now, or reuses it if the model was used recently.
+      entityExtractorCache.open(newModel);
     }
   }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    extractionExecutor.shutdown();
+  }
+
   @Override
   public void onSaveInstanceState(@NonNull Bundle outState) {
     super.onSaveInstanceState(outState);
@@ -13,13 +13,12 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
-import com.google.android.gms.tasks.Task;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.mlkit.common.model.DownloadConditions;
-import com.google.mlkit.common.model.RemoteModelManager;
 import com.google.mlkit.nl.entityextraction.EntityExtractionRemoteModel;
 import com.google.mlkit.nl.entityextraction.EntityExtractorOptions;
 import com.google.mlkit.samples.nl.entityextraction.R;
+import com.mlkit.example.internal.modelstate.ModelStateRegistry;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -33,7 +32,9 @@ public class ModelsActivityJava extends AppCompatActivity {
   public static final String MODEL_KEY = "model";
 
   private ListView listView;
-  private final RemoteModelManager remoteModelManager = RemoteModelManager.getInstance();
+  private LanguageAdapter languageAdapter;
+  private final ModelStateRegistry<EntityExtractionRemoteModel> modelRegistry =
+      ModelStateRegistry.getInstance(EntityExtractionRemoteModel.class);
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -42,8 +43,9 @@ public class ModelsActivityJava extends AppCompatActivity {
 
     listView = findViewById(R.id.models_list_view);
     List</* @ModelIdentifier */ String> languages = EntityExtractorOptions.getAllModelIdentifiers();
-    LanguageAdapter languageAdapter = new LanguageAdapter(languages);
+    languageAdapter = new LanguageAdapter(languages);
     listView.setAdapter(languageAdapter);
+    modelRegistry.addListener(languageAdapter);
 
     listView.setOnItemClickListener(
         (parent, view, position, id) -> {
@@ -54,7 +56,14 @@ public class ModelsActivityJava extends AppCompatActivity {
         });
   }
 
-  class LanguageAdapter extends BaseAdapter {
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    modelRegistry.removeListener(languageAdapter);
+  }
+
+  class LanguageAdapter extends BaseAdapter
+      implements ModelStateRegistry.Listener<EntityExtractionRemoteModel> {
 
     private final List<String> languageList;
     private final Set<String> downloadedModels = new HashSet<>();
@@ -64,18 +73,15 @@ public class ModelsActivityJava extends AppCompatActivity {
 
     public LanguageAdapter(List<String> languageList) {
       this.languageList = languageList;
-      Task<Set<EntityExtractionRemoteModel>> downloadedModelsTask =
-          remoteModelManager.getDownloadedModels(EntityExtractionRemoteModel.class);
-      downloadedModelsTask
-          .addOnFailureListener(e -> Log.w(TAG, "DownloadedModels failed with exception", e))
-          .addOnSuccessListener(
-              models -> {
-                downloadedModels.clear();
-                for (EntityExtractionRemoteModel model : models) {
-                  downloadedModels.add(model.getModelIdentifier());
-                }
-                notifyDataSetChanged();
-              });
+    }
+
+    @Override
+    public void onDownloadedModelsChanged(Set<EntityExtractionRemoteModel> models) {
+      downloadedModels.clear();
+      for (EntityExtractionRemoteModel model : models) {
+        downloadedModels.add(model.getModelIdentifier());
+      }
+      notifyDataSetChanged();
     }
 
     @Override
@@ -110,30 +116,20 @@ public class ModelsActivityJava extends AppCompatActivity {
         imageView.setImageResource(R.drawable.ic_baseline_delete_gray_32);
         imageView.setOnClickListener(
             view ->
-                remoteModelManager
-                    .deleteDownloadedModel(remoteModel)
+                modelRegistry
+                    .delete(remoteModel)
                     .addOnFailureListener(
-                        e -> Log.w(TAG, "Deleting model failed with exception", e))
-                    .addOnSuccessListener(
-                        aVoid -> {
-                          downloadedModels.remove(modelIdentifier);
-                          notifyDataSetChanged();
-                        }));
+                        e -> Log.w(TAG, "Deleting model failed with exception", e)));
       } else {
         imageView.setImageResource(R.drawable.ic_baseline_get_app_gray_32);
         imageView.setOnClickListener(
             view -> {
               downloadingModels.add(modelIdentifier);
               updateSnackbar();
-              remoteModelManager
+              modelRegistry
                   .download(remoteModel, new DownloadConditions.Builder().build())
                   .addOnFailureListener(
                       e -> Log.w(TAG, "Downloading model failed with exception", e))
-                  .addOnSuccessListener(
-                      aVoid -> {
-                        downloadedModels.add(modelIdentifier);
-                        notifyDataSetChanged();
-                      })
                   .addOnCompleteListener(
                       r -> {
                         downloadingModels.remove(modelIdentifier);
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mlkit.example.internal.modelstate;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.common.model.DownloadConditions;
+import com.google.mlkit.common.model.RemoteModel;
+import com.google.mlkit.common.model.RemoteModelManager;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process registry of the downloaded remote models of a type, e.g. translation models.
+ *
+ * <p>The registry queries the remote model manager once, and then tracks the downloads and
+ * deletions made through it, so that checking whether a model is downloaded is a synchronous map
+ * lookup rather than a call to the model manager. Listeners are notified on the main thread when
+ * the set of downloaded models changes. If the query fails, it is retried on the next {@link
+ * #checkIsDownloaded} or {@link #addListener} call.
+ *
+ * <p>There is one registry per model type in the process, shared by all the screens using it.
+ */
+public class ModelStateRegistry<T extends RemoteModel> {
+
+  /** Receives the set of downloaded models whenever it changes, on the main thread. */
+  public interface Listener<T extends RemoteModel> {
+    void onDownloadedModelsChanged(Set<T> downloadedModels);
+  }
+
+  private static final String TAG = "ModelStateRegistry";
+
+  private static final Map<Class<?>, ModelStateRegistry<?>> registries = new HashMap<>();
+
+  private final Class<T> modelClass;
+  private final RemoteModelManager remoteModelManager;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
+
+  // Guarded by this.
+  private final Set<T> downloadedModels = new HashSet<>();
+  private boolean loaded;
+  @Nullable private Task<Set<T>> pendingRefresh;
+  // Downloads and deletions completed while a refresh is in flight, applied on top of its result.
+  private final Map<T, Boolean> changesDuringRefresh = new HashMap<>();
+
+  private ModelStateRegistry(Class<T> modelClass, RemoteModelManager remoteModelManager) {
+    this.modelClass = modelClass;
+    this.remoteModelManager = remoteModelManager;
+  }
+
+  /** Returns the registry of the given model type, loading it on first use. */
+  @SuppressWarnings("unchecked")
+  public static synchronized <T extends RemoteModel> ModelStateRegistry<T> getInstance(
+      Class<T> modelClass) {
+    ModelStateRegistry<T> registry = (ModelStateRegistry<T>) registries.get(modelClass);
+    if (registry == null) {
+      registry = new ModelStateRegistry<>(modelClass, RemoteModelManager.getInstance());
+      registries.put(modelClass, registry);
+      registry.refresh();
+    }
+    return registry;
+  }
+
+  /** Returns whether the registry has loaded the downloaded models from the model manager. */
+  public synchronized boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Returns whether the model is downloaded, or null if the registry isn't loaded yet. Cheap
+   * enough to call on every request.
+   */
+  @Nullable
+  public synchronized Boolean isDownloaded(T model) {
+    if (downloadedModels.contains(model)) {
+      return true;
+    }
+    return loaded ? false : null;
+  }
+
+  /**
+   * Returns whether the model is downloaded, from the registry when loaded, from the model manager
+   * otherwise.
+   */
+  public Task<Boolean> checkIsDownloaded(T model) {
+    Boolean downloaded = isDownloaded(model);
+    if (downloaded != null) {
+      return Tasks.forResult(downloaded);
+    }
+    refreshIfNotLoaded();
+    return remoteModelManager.isModelDownloaded(model);
+  }
+
+  /** Returns a snapshot of the downloaded models. */
+  public synchronized Set<T> getDownloadedModels() {
+    return Collections.unmodifiableSet(new HashSet<>(downloadedModels));
+  }
+
+  /**
+   * Reloads the downloaded models from the model manager, e.g. when models may have been changed
+   * outside of the registry. Concurrent calls share the same query.
+   */
+  public synchronized Task<Set<T>> refresh() {
+    if (pendingRefresh != null) {
+      return pendingRefresh;
+    }
+    changesDuringRefresh.clear();
+    Task<Set<T>> refresh =
+        remoteModelManager
+            .getDownloadedModels(modelClass)
+            .addOnCompleteListener(
+                new OnCompleteListener<Set<T>>() {
+                  @Override
+                  public void onComplete(@NonNull Task<Set<T>> task) {
+                    onRefreshComplete(task);
+                  }
+                });
+    // The listener may already have run if the query completed synchronously.
+    if (!refresh.isComplete()) {
+      pendingRefresh = refresh;
+    }
+    return refresh;
+  }
+
+  /** Downloads the model, and records it as downloaded once done. */
+  public Task<Void> download(final T model, DownloadConditions conditions) {
+    return remoteModelManager
+        .download(model, conditions)
+        .addOnSuccessListener(
+            new OnSuccessListener<Void>() {
+              @Override
+              public void onSuccess(Void unused) {
+                setDownloaded(model, true);
+              }
+            });
+  }
+
+  /** Deletes the model, and records it as deleted once done. */
+  public Task<Void> delete(final T model) {
+    return remoteModelManager
+        .deleteDownloadedModel(model)
+        .addOnSuccessListener(
+            new OnSuccessListener<Void>() {
+              @Override
+              public void onSuccess(Void unused) {
+                setDownloaded(model, false);
+              }
+            });
+  }
+
+  /**
+   * Records the state of a model changed outside of the registry, e.g. downloaded by a client's
+   * {@code downloadModelIfNeeded()}.
+   */
+  public void setDownloaded(T model, boolean downloaded) {
+    boolean changed;
+    synchronized (this) {
+      changed = downloaded ? downloadedModels.add(model) : downloadedModels.remove(model);
+      if (pendingRefresh != null) {
+        changesDuringRefresh.put(model, downloaded);
+      }
+    }
+    if (changed) {
+      notifyListeners();
+    }
+  }
+
+  /** Adds a listener, immediately notified of the current models if the registry is loaded. */
+  @MainThread
+  public void addListener(Listener<T> listener) {
+    listeners.add(listener);
+    if (isLoaded()) {
+      listener.onDownloadedModelsChanged(getDownloadedModels());
+    } else {
+      refreshIfNotLoaded();
+    }
+  }
+
+  @MainThread
+  public void removeListener(Listener<T> listener) {
+    listeners.remove(listener);
+  }
+
+  /** Queries the model manager again if the previous query failed. */
+  private synchronized void refreshIfNotLoaded() {
+    if (!loaded) {
+      refresh();
+    }
+  }
+
+  private void onRefreshComplete(Task<Set<T>> task) {
+    synchronized (this) {
+      pendingRefresh = null;
+      if (!task.isSuccessful()) {
+        Log.w(
+            TAG,
+            "Failed to query the downloaded models of type " + modelClass.getSimpleName(),
+            task.getException());
+        return;
+      }
+      downloadedModels.clear();
+      downloadedModels.addAll(task.getResult());
+      for (Map.Entry<T, Boolean> change : changesDuringRefresh.entrySet()) {
+        if (change.getValue()) {
+          downloadedModels.add(change.getKey());
+        } else {
+          downloadedModels.remove(change.getKey());
+        }
+      }
+      changesDuringRefresh.clear();
+      loaded = true;
+    }
+    notifyListeners();
+  }
+
+  private void notifyListeners() {
+    if (Looper.myLooper() != Looper.getMainLooper()) {
+      mainHandler.post(
+          new Runnable() {
+            @Override
+            public void run() {
+              notifyListeners();
+            }
+          });
+      return;
+    }
+    Set<T> models = getDownloadedModels();
+    for (Listener<T> listener : listeners) {
+      listener.onDownloadedModelsChanged(models);
+    }
+  }
+}
@@ -72,6 +72,18 @@ public class ChatFragment extends Fragment implements ReplyChipAdapter.ClickList
         setHasOptionsMenu(true);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        mViewModel.setFocused(true);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        mViewModel.setFocused(false);
+    }
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater,
@@ -148,10 +160,14 @@ public class ChatFragment extends Fragment implements ReplyChipAdapter.ClickList
         mViewModel.getMessages().observe(getViewLifecycleOwner(), new Observer<List<Message>>() {
             @Override
             public void onChanged(List<Message> messages) {
-                mChatAdapter.setMessages(messages);
-                if (mChatAdapter.getItemCount() > 0) {
-                    mChatRecycler.smoothScrollToPosition(mChatAdapter.getItemCount() - 1);
-                }
+                mChatAdapter.setMessages(messages, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mChatAdapter.getItemCount() > 0) {
+                            mChatRecycler.smoothScrollToPosition(mChatAdapter.getItemCount() - 1);
+                        }
+                    }
+                });
             }
         });
 
@@ -16,6 +16,9 @@
 
 package com.google.mlkit.samples.smartreply.java.chat;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
@@ -23,31 +26,48 @@ import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModel;
 import androidx.annotation.NonNull;
 
-import com.google.android.gms.tasks.Continuation;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.Tasks;
-import com.google.mlkit.nl.smartreply.SmartReply;
-import com.google.mlkit.nl.smartreply.SmartReplyGenerator;
 import com.google.mlkit.nl.smartreply.SmartReplySuggestion;
-import com.google.mlkit.nl.smartreply.SmartReplySuggestionResult;
-import com.google.mlkit.nl.smartreply.TextMessage;
 import com.google.mlkit.samples.smartreply.java.model.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
 public class ChatViewModel extends ViewModel {
 
     private final String REMOTE_USER_ID = UUID.randomUUID().toString();
+    // Smart Reply only considers the last 10 messages of a conversation.
+    private static final int MAX_CONTEXT_MESSAGES = 10;
+    private static final int SUGGESTION_CACHE_SIZE = 32;
 
     private MediatorLiveData<List<SmartReplySuggestion>> suggestions = new MediatorLiveData<>();
     private MutableLiveData<List<Message>> messageList = new MutableLiveData<>();
     private MutableLiveData<Boolean> emulatingRemoteUser = new MutableLiveData<>();
-    private SmartReplyGenerator smartReply = SmartReply.getClient();
+    // Shared by all the conversations, with REMOTE_USER_ID identifying this one.
+    private final SmartReplyScheduler smartReplyScheduler = SmartReplyScheduler.getInstance();
+    private final ConversationWindow conversationWindow =
+            new ConversationWindow(REMOTE_USER_ID, MAX_CONTEXT_MESSAGES);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean suggestionsRequested;
+    // Conversation version and user of the last suggestions requested, to skip duplicate requests.
+    private long requestedVersion = -1;
+    private boolean requestedForRemoteUser;
+    // Suggestions for the conversation tails seen so far, keyed by tail hash and emulated user.
+    private final LruCache<Long, List<SmartReplySuggestion>> suggestionCache =
+            new LruCache<>(SUGGESTION_CACHE_SIZE);
+    private int suggestionCacheHits;
+    private int suggestionCacheMisses;
+    private final Runnable generateSuggestions = new Runnable() {
+        @Override
+        public void run() {
+            suggestionsRequested = false;
+            generateSuggestions();
+        }
+    };
 
     public ChatViewModel() {
+        smartReplyScheduler.openConversation(REMOTE_USER_ID);
         initSuggestionsGenerator();
         emulatingRemoteUser.postValue(false);
     }
@@ -66,7 +86,15 @@ public class ChatViewModel extends ViewModel {
 
     void setMessages(List<Message> messages) {
         clearSuggestions();
-        messageList.postValue(messages);
+        // Posts an immutable snapshot, so that the list being diffed never changes.
+        List<Message> snapshot = Collections.unmodifiableList(new ArrayList<>(messages));
+        conversationWindow.reset(snapshot);
+        messageList.postValue(snapshot);
+    }
+
+    /** Sets whether the conversation is on screen, to serve its suggestions first. */
+    void setFocused(boolean focused) {
+        smartReplyScheduler.setFocused(REMOTE_USER_ID, focused);
     }
 
     void switchUser() {
@@ -79,88 +107,107 @@ public class ChatViewModel extends ViewModel {
     }
 
     void addMessage(String message) {
-        List<Message> list = messageList.getValue();
-        if (list == null) {
-            list = new ArrayList<>();
+        List<Message> current = messageList.getValue();
+        // Posts a new snapshot rather than modifying the one displayed.
+        List<Message> list = new ArrayList<>(current == null ? 0 : current.size() + 1);
+        if (current != null) {
+            list.addAll(current);
         }
-        list.add(new Message(message, !emulatingRemoteUser.getValue(), System.currentTimeMillis()));
+        Message newMessage =
+                new Message(message, !emulatingRemoteUser.getValue(), System.currentTimeMillis());
+        list.add(newMessage);
+        conversationWindow.append(newMessage);
         clearSuggestions();
-        messageList.postValue(list);
+        messageList.postValue(Collections.unmodifiableList(list));
     }
 
     private void initSuggestionsGenerator() {
+        // Both sources fire when the conversation is set up, the requests are coalesced into a
+        // single generation.
         suggestions.addSource(emulatingRemoteUser, new Observer<Boolean>() {
             @Override
             public void onChanged(Boolean isEmulatingRemoteUser) {
-                List<Message> list = messageList.getValue();
-                if (list == null || list.isEmpty()) {
-                    return;
-                }
-
-                generateReplies(list, isEmulatingRemoteUser)
-                        .addOnSuccessListener(new OnSuccessListener<List<SmartReplySuggestion>>() {
-                            @Override
-                            public void onSuccess(List<SmartReplySuggestion> result) {
-                                suggestions.postValue(result);
-                            }
-                        });
+                requestSuggestions();
             }
         });
 
         suggestions.addSource(messageList, new Observer<List<Message>>() {
             @Override
             public void onChanged(List<Message> list) {
-                Boolean isEmulatingRemoteUser = emulatingRemoteUser.getValue();
-                if (isEmulatingRemoteUser == null || list.isEmpty()) {
-                    return;
-                }
-
-                generateReplies(list, isEmulatingRemoteUser).addOnSuccessListener(new OnSuccessListener<List<SmartReplySuggestion>>() {
-                    @Override
-                    public void onSuccess(List<SmartReplySuggestion> result) {
-                        suggestions.postValue(result);
-                    }
-                });
+                requestSuggestions();
             }
         });
     }
 
-    private Task<List<SmartReplySuggestion>> generateReplies(List<Message> messages,
-                                                             boolean isEmulatingRemoteUser) {
-        Message lastMessage = messages.get(messages.size() - 1);
+    private void requestSuggestions() {
+        if (!suggestionsRequested) {
+            suggestionsRequested = true;
+            mainHandler.post(generateSuggestions);
+        }
+    }
 
-        // If the last message in the chat thread is not sent by the "other" user, don't generate
-        // smart replies.
-        if (lastMessage.isLocalUser && !isEmulatingRemoteUser || !lastMessage.isLocalUser && isEmulatingRemoteUser) {
-            return Tasks.forException(new Exception("Not running smart reply!"));
+    private void generateSuggestions() {
+        final Boolean isEmulatingRemoteUser = emulatingRemoteUser.getValue();
+        if (isEmulatingRemoteUser == null || conversationWindow.isEmpty()) {
+            return;
         }
+        final long version = conversationWindow.getVersion();
+        if (version == requestedVersion && isEmulatingRemoteUser == requestedForRemoteUser) {
+            return;
+        }
+        requestedVersion = version;
+        requestedForRemoteUser = isEmulatingRemoteUser;
 
-        List<TextMessage> chatHistory = new ArrayList<>();
-        for (Message message : messages) {
-            if (message.isLocalUser && !isEmulatingRemoteUser || !message.isLocalUser && isEmulatingRemoteUser) {
-                chatHistory.add(TextMessage.createForLocalUser(message.text,
-                        message.timestamp));
-            } else {
-                chatHistory.add(TextMessage.createForRemoteUser(message.text,
-                        message.timestamp, REMOTE_USER_ID));
-            }
+        // There are no suggestions when the last message was sent by the emulated user.
+        if (conversationWindow.getLastMessage().isLocalUser != isEmulatingRemoteUser) {
+            return;
+        }
+
+        // The same tail, e.g. after switching users back and forth, gets the same suggestions.
+        final long cacheKey = conversationWindow.getTailHash() * 2 + (isEmulatingRemoteUser ? 1 : 0);
+        List<SmartReplySuggestion> cachedSuggestions = suggestionCache.get(cacheKey);
+        if (cachedSuggestions != null) {
+            suggestionCacheHits++;
+            suggestions.setValue(cachedSuggestions);
+            return;
         }
+        suggestionCacheMisses++;
 
-        return smartReply.suggestReplies(chatHistory)
-                .continueWith(new Continuation<SmartReplySuggestionResult, List<SmartReplySuggestion>>() {
+        // Only the latest request of the conversation is answered.
+        smartReplyScheduler.submit(
+                REMOTE_USER_ID,
+                conversationWindow.getTextMessages(isEmulatingRemoteUser),
+                new SmartReplyScheduler.Callback() {
                     @Override
-                    public List<SmartReplySuggestion> then(@NonNull Task<SmartReplySuggestionResult> task) {
-                        return task.getResult().getSuggestions();
+                    public void onSuggestions(List<SmartReplySuggestion> result) {
+                        suggestionCache.put(cacheKey, result);
+                        // Drops the suggestions if the conversation changed in the meantime.
+                        if (version == conversationWindow.getVersion()
+                                && isEmulatingRemoteUser.equals(emulatingRemoteUser.getValue())) {
+                            suggestions.setValue(result);
+                        }
                     }
                 });
     }
 
+    /** Returns the hit and miss counts of the suggestion cache. */
+    public String getSuggestionCacheStats() {
+        return "hits=" + suggestionCacheHits
+                + ", misses=" + suggestionCacheMisses
+                + ", evictions=" + suggestionCache.evictionCount()
+                + ", size=" + suggestionCache.size();
+    }
+
+    /** Returns the metrics of the Smart Reply requests of all the conversations. */
+    public String getSchedulerMetrics() {
+        return smartReplyScheduler.getMetrics();
+    }
+
     @Override
     public void onCleared() {
         super.onCleared();
-        // Instances of smartReply must be closed appropriately, so here we utilize ViewModel's
-        // onCleared() to close the smartReply instance when this ViewModel is no longer in use and
-        // destroyed.
-        smartReply.close();
+        mainHandler.removeCallbacks(generateSuggestions);
+        // The shared Smart Reply client is closed once no conversation uses it anymore.
+        smartReplyScheduler.closeConversation(REMOTE_USER_ID);
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.samples.smartreply.java.chat;
+
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.nl.smartreply.TextMessage;
+import com.google.mlkit.samples.smartreply.java.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last messages of a conversation, already converted to the {@link TextMessage}s passed to
+ * Smart Reply.
+ *
+ * <p>Smart Reply only looks at the end of a conversation, so only the last messages are kept, in a
+ * ring buffer. Each message is converted once when appended, from the point of view of both users,
+ * so that building the input of a suggestion costs the same whatever the length of the
+ * conversation.
+ *
+ * <p>The window also maintains a rolling hash of its messages, updated in constant time as messages
+ * are appended, which identifies the tail of the conversation, e.g. to cache suggestions.
+ */
+class ConversationWindow {
+
+    // Base of the polynomial rolling hash.
+    private static final long HASH_BASE = 1_000_003L;
+
+    private final String remoteUserId;
+    private final Message[] messages;
+    // Messages as seen by the blue user, whose messages are local, and by the red user.
+    private final TextMessage[] blueUserMessages;
+    private final TextMessage[] redUserMessages;
+    // Index of the oldest message in the ring, and number of messages in it.
+    private int start;
+    private int size;
+    // Incremented on every change, to tell whether suggestions are still up to date.
+    private long version;
+    // Hashes of the messages in the ring, their rolling hash, and the weight of the oldest message
+    // in it when the window is full.
+    private final long[] messageHashes;
+    private long tailHash;
+    private final long oldestHashWeight;
+
+    ConversationWindow(String remoteUserId, int capacity) {
+        this.remoteUserId = remoteUserId;
+        messages = new Message[capacity];
+        blueUserMessages = new TextMessage[capacity];
+        redUserMessages = new TextMessage[capacity];
+        messageHashes = new long[capacity];
+        long weight = 1;
+        for (int i = 1; i < capacity; i++) {
+            weight *= HASH_BASE;
+        }
+        oldestHashWeight = weight;
+    }
+
+    /** Adds a message at the end of the conversation, dropping the oldest one if full. */
+    void append(Message message) {
+        int index;
+        if (size < messages.length) {
+            index = (start + size) % messages.length;
+            size++;
+        } else {
+            index = start;
+            start = (start + 1) % messages.length;
+            // Removes the oldest message from the hash before shifting the others.
+            tailHash -= messageHashes[index] * oldestHashWeight;
+        }
+        messages[index] = message;
+        messageHashes[index] = hash(message);
+        tailHash = tailHash * HASH_BASE + messageHashes[index];
+        if (message.isLocalUser) {
+            blueUserMessages[index] = TextMessage.createForLocalUser(message.text, message.timestamp);
+            redUserMessages[index] =
+                    TextMessage.createForRemoteUser(message.text, message.timestamp, remoteUserId);
+        } else {
+            blueUserMessages[index] =
+                    TextMessage.createForRemoteUser(message.text, message.timestamp, remoteUserId);
+            redUserMessages[index] = TextMessage.createForLocalUser(message.text, message.timestamp);
+        }
+        version++;
+    }
+
+    /** Replaces the conversation, only converting the messages which fit in the window. */
+    void reset(List<Message> conversation) {
+        clear();
+        for (int i = Math.max(0, conversation.size() - messages.length); i < conversation.size(); i++) {
+            append(conversation.get(i));
+        }
+        version++;
+    }
+
+    void clear() {
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = null;
+            blueUserMessages[i] = null;
+            redUserMessages[i] = null;
+            messageHashes[i] = 0;
+        }
+        start = 0;
+        size = 0;
+        tailHash = 0;
+        version++;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a hash of the authors and texts of the messages in the window, equal for windows
+     * holding the same messages whatever the rest of the conversation.
+     */
+    long getTailHash() {
+        return tailHash * 31 + size;
+    }
+
+    /** Returns the message at the given position in the window, 0 being the oldest. */
+    Message getMessage(int position) {
+        return messages[(start + position) % messages.length];
+    }
+
+    @Nullable
+    Message getLastMessage() {
+        return size == 0 ? null : getMessage(size - 1);
+    }
+
+    /** Returns the 64-bit FNV-1a hash of the author and the text of the message. */
+    private static long hash(Message message) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ (message.isLocalUser ? 1 : 2)) * 0x100000001b3L;
+        for (int i = 0; i < message.text.length(); i++) {
+            hash = (hash ^ message.text.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Returns the messages of the window, oldest first, as seen by the blue or the red user. */
+    List<TextMessage> getTextMessages(boolean isEmulatingRemoteUser) {
+        TextMessage[] textMessages = isEmulatingRemoteUser ? redUserMessages : blueUserMessages;
+        List<TextMessage> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(textMessages[(start + i) % messages.length]);
+        }
+        return result;
+    }
+}
@@ -17,6 +17,9 @@
 package com.google.mlkit.samples.smartreply.java.chat;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -26,17 +29,35 @@ import android.widget.TextView;
 import com.google.mlkit.samples.smartreply.R;
 import com.google.mlkit.samples.smartreply.java.model.Message;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import de.hdodenhof.circleimageview.CircleImageView;
 
+/**
+ * Adapter of the chat messages. Lists of messages are immutable snapshots, diffed off the main
+ * thread, so that adding a message only inserts and binds its row.
+ */
 class MessageListAdapter extends RecyclerView.Adapter<MessageListAdapter.MessageViewHolder> {
 
-    private final List<Message> mMessagesList = new ArrayList<>();
+    private static final DiffUtil.ItemCallback<Message> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Message>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+                    return oldItem.id == newItem.id;
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+                    return oldItem.hasSameContents(newItem);
+                }
+            };
+
+    private final AsyncListDiffer<Message> mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
     private boolean mEmulatingRemoteUser = false;
 
-    public MessageListAdapter() {}
+    public MessageListAdapter() {
+        setHasStableIds(true);
+    }
 
     @Override
     @NonNull
@@ -47,14 +68,19 @@ class MessageListAdapter extends RecyclerView.Adapter<MessageListAdapter.Message
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        Message message = mMessagesList.get(position);
+        Message message = mDiffer.getCurrentList().get(position);
         holder.bind(message);
     }
 
+    @Override
+    public long getItemId(int position) {
+        return mDiffer.getCurrentList().get(position).id;
+    }
+
     @Override
     public int getItemViewType(int position) {
-        if (mMessagesList.get(position).isLocalUser && !mEmulatingRemoteUser
-                || !mMessagesList.get(position).isLocalUser && mEmulatingRemoteUser) {
+        boolean isLocalUser = mDiffer.getCurrentList().get(position).isLocalUser;
+        if (isLocalUser && !mEmulatingRemoteUser || !isLocalUser && mEmulatingRemoteUser) {
             return R.layout.item_message_local;
         } else {
             return R.layout.item_message_remote;
@@ -63,13 +89,15 @@ class MessageListAdapter extends RecyclerView.Adapter<MessageListAdapter.Message
 
     @Override
     public int getItemCount() {
-        return mMessagesList.size();
+        return mDiffer.getCurrentList().size();
     }
 
-    public void setMessages(List<Message> messages) {
-        mMessagesList.clear();
-        mMessagesList.addAll(messages);
-        notifyDataSetChanged();
+    /**
+     * Displays the given snapshot of the messages, which must not be modified afterwards. The
+     * callback runs once the list is displayed.
+     */
+    public void setMessages(List<Message> messages, @Nullable Runnable commitCallback) {
+        mDiffer.submitList(messages, commitCallback);
     }
 
     public boolean getEmulatingRemoteUser() {
@@ -77,8 +105,12 @@ class MessageListAdapter extends RecyclerView.Adapter<MessageListAdapter.Message
     }
 
     public void setEmulatingRemoteUser(boolean emulatingRemoteUser) {
+        if (this.mEmulatingRemoteUser == emulatingRemoteUser) {
+            return;
+        }
         this.mEmulatingRemoteUser = emulatingRemoteUser;
-        notifyDataSetChanged();
+        // Every message changes sides, the items stay the same.
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     static class MessageViewHolder extends RecyclerView.ViewHolder {
@@ -17,6 +17,8 @@
 package com.google.mlkit.samples.smartreply.java.chat;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -26,7 +28,6 @@ import android.widget.TextView;
 import com.google.mlkit.nl.smartreply.SmartReplySuggestion;
 import com.google.mlkit.samples.smartreply.R;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class ReplyChipAdapter extends RecyclerView.Adapter<ReplyChipAdapter.ViewHolder> {
@@ -37,11 +38,28 @@ public class ReplyChipAdapter extends RecyclerView.Adapter<ReplyChipAdapter.View
 
     }
 
-    private List<SmartReplySuggestion> mSuggestions = new ArrayList<>();
+    private static final DiffUtil.ItemCallback<SmartReplySuggestion> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<SmartReplySuggestion>() {
+                @Override
+                public boolean areItemsTheSame(
+                        @NonNull SmartReplySuggestion oldItem, @NonNull SmartReplySuggestion newItem) {
+                    return oldItem.getText().equals(newItem.getText());
+                }
+
+                @Override
+                public boolean areContentsTheSame(
+                        @NonNull SmartReplySuggestion oldItem, @NonNull SmartReplySuggestion newItem) {
+                    return oldItem.getText().equals(newItem.getText());
+                }
+            };
+
+    private final AsyncListDiffer<SmartReplySuggestion> mDiffer =
+            new AsyncListDiffer<>(this, DIFF_CALLBACK);
     private ClickListener mListener;
 
     public ReplyChipAdapter(@NonNull ClickListener listener) {
         mListener = listener;
+        setHasStableIds(true);
     }
 
     @NonNull
@@ -53,19 +71,24 @@ public class ReplyChipAdapter extends RecyclerView.Adapter<ReplyChipAdapter.View
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        SmartReplySuggestion suggestion = mSuggestions.get(position);
+        SmartReplySuggestion suggestion = mDiffer.getCurrentList().get(position);
         holder.bind(suggestion);
     }
 
+    @Override
+    public long getItemId(int position) {
+        // Suggestions are identified by their text, unique within a list.
+        return mDiffer.getCurrentList().get(position).getText().hashCode();
+    }
+
     @Override
     public int getItemCount() {
-        return mSuggestions.size();
+        return mDiffer.getCurrentList().size();
     }
 
+    /** Displays the given suggestions, which must not be modified afterwards. */
     public void setSuggestions(List<SmartReplySuggestion> suggestions) {
-        mSuggestions.clear();
-        mSuggestions.addAll(suggestions);
-        notifyDataSetChanged();
+        mDiffer.submitList(suggestions);
     }
 
     public class ViewHolder extends RecyclerView.ViewHolder {
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.samples.smartreply.java.chat;
+
+import android.os.SystemClock;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.mlkit.nl.smartreply.SmartReply;
+import com.google.mlkit.nl.smartreply.SmartReplyGenerator;
+import com.google.mlkit.nl.smartreply.SmartReplySuggestion;
+import com.google.mlkit.nl.smartreply.SmartReplySuggestionResult;
+import com.google.mlkit.nl.smartreply.TextMessage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Schedules the Smart Reply requests of all the conversations of the app on a single generator.
+ *
+ * <p>Each conversation has a single pending slot: a new request replaces the one waiting, and the
+ * result of a request superseded while running is dropped, so only the latest state of a
+ * conversation is ever delivered. At most a fixed number of requests run at once. The focused
+ * conversation, i.e. the one on screen, is always served first, and one slot is kept for it, so
+ * that busy conversations in the background can't delay its suggestions.
+ *
+ * <p>All the methods and callbacks run on the main thread.
+ */
+@MainThread
+class SmartReplyScheduler {
+
+    private static final int MAX_CONCURRENT_REQUESTS = 2;
+    // Number of latencies kept to compute the percentiles.
+    private static final int LATENCY_SAMPLES = 128;
+
+    private static SmartReplyScheduler instance;
+
+    /** Receives the suggestions of the latest request of a conversation. */
+    interface Callback {
+        void onSuggestions(List<SmartReplySuggestion> suggestions);
+    }
+
+    private static class Request {
+        final String conversationId;
+        final List<TextMessage> messages;
+        final Callback callback;
+        final long sequence;
+        final long submitTimeMs;
+
+        Request(String conversationId, List<TextMessage> messages, Callback callback, long sequence) {
+            this.conversationId = conversationId;
+            this.messages = messages;
+            this.callback = callback;
+            this.sequence = sequence;
+            this.submitTimeMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    @Nullable private SmartReplyGenerator generator;
+    private int openConversations;
+    @Nullable private String focusedConversationId;
+    // Waiting requests in submission order, at most one per conversation.
+    private final LinkedHashMap<String, Request> pendingRequests = new LinkedHashMap<>();
+    // Sequence of the latest request of each conversation, to drop the results of older ones.
+    private final Map<String, Long> latestSequences = new HashMap<>();
+    private long nextSequence;
+    private int runningRequests;
+    private int runningBackgroundRequests;
+
+    // Metrics.
+    private long startTimeMs = -1;
+    private int submitted;
+    private int superseded;
+    private int delivered;
+    private int failed;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+
+    private SmartReplyScheduler() {}
+
+    static SmartReplyScheduler getInstance() {
+        if (instance == null) {
+            instance = new SmartReplyScheduler();
+        }
+        return instance;
+    }
+
+    /** Starts serving a conversation. The generator is open as long as a conversation is. */
+    void openConversation(String conversationId) {
+        if (openConversations++ == 0) {
+            generator = SmartReply.getClient();
+        }
+        latestSequences.put(conversationId, -1L);
+    }
+
+    /** Stops serving a conversation, dropping its requests. */
+    void closeConversation(String conversationId) {
+        pendingRequests.remove(conversationId);
+        latestSequences.remove(conversationId);
+        if (conversationId.equals(focusedConversationId)) {
+            focusedConversationId = null;
+        }
+        if (--openConversations == 0) {
+            generator.close();
+            generator = null;
+        }
+    }
+
+    /** Sets whether the requests of a conversation go first, e.g. while it is on screen. */
+    void setFocused(String conversationId, boolean focused) {
+        if (focused) {
+            focusedConversationId = conversationId;
+            dispatch();
+        } else if (conversationId.equals(focusedConversationId)) {
+            focusedConversationId = null;
+        }
+    }
+
+    /**
+     * Requests suggestions for the given messages of an open conversation, replacing its previous
+     * request. The callback isn't called if another request is submitted in the meantime.
+     */
+    void submit(String conversationId, List<TextMessage> messages, Callback callback) {
+        if (startTimeMs < 0) {
+            startTimeMs = SystemClock.elapsedRealtime();
+        }
+        submitted++;
+        Request request = new Request(conversationId, messages, callback, nextSequence++);
+        latestSequences.put(conversationId, request.sequence);
+        // Re-inserted rather than replaced, so that the conversation goes to the back of the queue.
+        if (pendingRequests.remove(conversationId) != null) {
+            superseded++;
+        }
+        pendingRequests.put(conversationId, request);
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (runningRequests < MAX_CONCURRENT_REQUESTS && !pendingRequests.isEmpty()) {
+            Request request = pendingRequests.remove(focusedConversationId);
+            if (request == null) {
+                // Keeps a slot for the focused conversation.
+                if (runningBackgroundRequests >= Math.max(1, MAX_CONCURRENT_REQUESTS - 1)) {
+                    return;
+                }
+                Iterator<Request> oldest = pendingRequests.values().iterator();
+                request = oldest.next();
+                oldest.remove();
+            }
+            run(request);
+        }
+    }
+
+    private void run(final Request request) {
+        final boolean background = !request.conversationId.equals(focusedConversationId);
+        runningRequests++;
+        if (background) {
+            runningBackgroundRequests++;
+        }
+        generator.suggestReplies(request.messages)
+                .addOnCompleteListener(new OnCompleteListener<SmartReplySuggestionResult>() {
+                    @Override
+                    public void onComplete(@NonNull Task<SmartReplySuggestionResult> task) {
+                        runningRequests--;
+                        if (background) {
+                            runningBackgroundRequests--;
+                        }
+                        onRequestComplete(request, task);
+                        dispatch();
+                    }
+                });
+    }
+
+    private void onRequestComplete(Request request, Task<SmartReplySuggestionResult> task) {
+        Long latestSequence = latestSequences.get(request.conversationId);
+        if (latestSequence == null || latestSequence != request.sequence) {
+            superseded++;
+            return;
+        }
+        if (!task.isSuccessful()) {
+            failed++;
+            return;
+        }
+        // Results without replies, e.g. in an unsupported language, hold an empty list, which is
+        // delivered too so that it can be cached.
+        latencies[latencyCount++ % LATENCY_SAMPLES] =
+                SystemClock.elapsedRealtime() - request.submitTimeMs;
+        delivered++;
+        request.callback.onSuggestions(task.getResult().getSuggestions());
+    }
+
+    /**
+     * Returns the request counts, the delivery throughput and the latency percentiles of the
+     * recent requests, from submission to delivery.
+     */
+    String getMetrics() {
+        long elapsedMs = startTimeMs < 0 ? 0 : SystemClock.elapsedRealtime() - startTimeMs;
+        long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+        Arrays.sort(sorted);
+        return String.format(
+                Locale.US,
+                "submitted=%d, superseded=%d, delivered=%d, failed=%d, pending=%d, running=%d,"
+                        + " throughput=%.2f/s, latency p50=%dms p90=%dms",
+                submitted,
+                superseded,
+                delivered,
+                failed,
+                pendingRequests.size(),
+                runningRequests,
+                elapsedMs == 0 ? 0 : delivered * 1000.0 / elapsedMs,
+                percentile(sorted, 50),
+                percentile(sorted, 90));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -27,18 +27,32 @@ import androidx.core.graphics.drawable.DrawableCompat;
 
 import com.google.mlkit.samples.smartreply.R;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+/** An immutable chat message, with an id unique in the process to track it across list updates. */
 public class Message {
 
+    private static final AtomicLong nextId = new AtomicLong();
+
+    public final long id;
     public final String text;
     public final boolean isLocalUser;
     public final long timestamp;
 
     public Message(String text, boolean isLocalUser, long timestamp) {
+        this.id = nextId.getAndIncrement();
         this.text = text;
         this.isLocalUser = isLocalUser;
         this.timestamp = timestamp;
     }
 
+    /** Returns whether the message displays the same as the other one. */
+    public boolean hasSameContents(Message other) {
+        return text.equals(other.text)
+                && isLocalUser == other.isLocalUser
+                && timestamp == other.timestamp;
+    }
+
     @NonNull
     public Drawable getIcon(Context context) {
         Drawable drawable = ContextCompat.getDrawable(context, R.drawable.ic_tag_faces_black_24dp);
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.mlkit.samples.nl.translate.java;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Translates a stream of texts for a language pair, e.g. a string table or a chat log.
+ *
+ * <p>Identical texts are only translated once: the distinct texts and their translations are kept
+ * for the duration of a run. At most a fixed number of translations are in flight, and results are
+ * emitted in input order as soon as all the ones before them are available. The input is pulled as
+ * results are emitted, so that a slow text holds back a bounded window of results, whatever the
+ * length of the input.
+ *
+ * <p>The translator is behind the {@link Translator} interface, with no dependency on the Android
+ * main thread, so that the service can be exercised on the JVM with a fake.
+ */
+public class BulkTranslationService {
+
+  // Number of texts which can wait for earlier ones to be emitted, per translation in flight.
+  static final int WINDOW_PER_TRANSLATION = 4;
+
+  /** Translates a single text, calling back on any thread. */
+  public interface Translator {
+    void translate(String text, Callback callback);
+
+    /** Receives the outcome of a translation. */
+    interface Callback {
+      void onSuccess(String translation);
+
+      void onFailure(Exception e);
+    }
+  }
+
+  /** The outcome of the translation of a text of the input. */
+  public static class Result {
+    // Position of the text in the input.
+    public final long index;
+    public final String text;
+    @Nullable public final String translation;
+    @Nullable public final Exception error;
+    // Time spent translating the text, 0 if it was a duplicate of an earlier one.
+    public final long latencyMs;
+    public final boolean duplicate;
+
+    Result(
+        long index,
+        String text,
+        @Nullable String translation,
+        @Nullable Exception error,
+        long latencyMs,
+        boolean duplicate) {
+      this.index = index;
+      this.text = text;
+      this.translation = translation;
+      this.error = error;
+      this.latencyMs = latencyMs;
+      this.duplicate = duplicate;
+    }
+  }
+
+  /**
+   * Receives the results in input order, one at a time, along with the number emitted so far.
+   * Called on the thread of the translator callbacks.
+   */
+  public interface ResultListener {
+    void onResult(Result result, long numCompleted);
+  }
+
+  /** Aggregated results of a run. */
+  public static class Report {
+    public final long numItems;
+    public final long numTranslated;
+    public final long numFailed;
+    public final long numCharacters;
+    public final long wallTimeMs;
+    public final long p50LatencyMs;
+    public final long p90LatencyMs;
+    public final long p99LatencyMs;
+
+    Report(
+        long numItems,
+        long numTranslated,
+        long numFailed,
+        long numCharacters,
+        long wallTimeMs,
+        long[] sortedLatencies) {
+      this.numItems = numItems;
+      this.numTranslated = numTranslated;
+      this.numFailed = numFailed;
+      this.numCharacters = numCharacters;
+      this.wallTimeMs = wallTimeMs;
+      this.p50LatencyMs = percentile(sortedLatencies, 50);
+      this.p90LatencyMs = percentile(sortedLatencies, 90);
+      this.p99LatencyMs = percentile(sortedLatencies, 99);
+    }
+
+    /** Returns the number of input texts processed per second. */
+    public double getItemsPerSecond() {
+      return wallTimeMs == 0 ? 0 : numItems * 1000.0 / wallTimeMs;
+    }
+
+    /** Returns the number of input characters processed per second. */
+    public double getCharactersPerSecond() {
+      return wallTimeMs == 0 ? 0 : numCharacters * 1000.0 / wallTimeMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d items (%d translated, %d failed) in %d ms, %.1f items/s, %.0f chars/s,"
+              + " latency p50=%dms p90=%dms p99=%dms",
+          numItems,
+          numTranslated,
+          numFailed,
+          wallTimeMs,
+          getItemsPerSecond(),
+          getCharactersPerSecond(),
+          p50LatencyMs,
+          p90LatencyMs,
+          p99LatencyMs);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+  }
+
+  /** A distinct text of the input, with its translation once done. */
+  private static class UniqueText {
+    boolean done;
+    @Nullable String translation;
+    @Nullable Exception error;
+    // Indexes of the duplicates received while the translation was in flight.
+    final List<Long> waitingIndexes = new ArrayList<>();
+  }
+
+  private final Translator translator;
+  private final int maxConcurrency;
+
+  // State of the current run, guarded by this.
+  private final Map<String, UniqueText> uniqueTexts = new HashMap<>();
+  private final Map<Long, Result> pendingResults = new HashMap<>();
+  private long nextIndexToEmit;
+  private long numFailed;
+  private long numCharacters;
+  private int numTranslated;
+  private long[] latencies = new long[64];
+
+  public BulkTranslationService(Translator translator, int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency must be at least 1");
+    }
+    this.translator = translator;
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  /**
+   * Returns a service using the given ML Kit translator, whose models must have been downloaded.
+   */
+  public static BulkTranslationService forTranslator(
+      com.google.mlkit.nl.translate.Translator mlKitTranslator, int maxConcurrency) {
+    return new BulkTranslationService(asTranslator(mlKitTranslator), maxConcurrency);
+  }
+
+  /** Adapts the given ML Kit translator, whose models must have been downloaded. */
+  public static Translator asTranslator(
+      final com.google.mlkit.nl.translate.Translator mlKitTranslator) {
+    // Runs the callbacks on the translator thread rather than the main thread, which the service
+    // might be blocking.
+    final Executor directExecutor =
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            command.run();
+          }
+        };
+    return new Translator() {
+      @Override
+      public void translate(String text, final Callback callback) {
+        mlKitTranslator
+            .translate(text)
+            .addOnSuccessListener(
+                directExecutor,
+                new OnSuccessListener<String>() {
+                  @Override
+                  public void onSuccess(String translation) {
+                    callback.onSuccess(translation);
+                  }
+                })
+            .addOnFailureListener(
+                directExecutor,
+                new OnFailureListener() {
+                  @Override
+                  public void onFailure(@NonNull Exception e) {
+                    callback.onFailure(e);
+                  }
+                });
+      }
+    };
+  }
+
+  /**
+   * Translates all the texts, blocking until they are all emitted. Must not be called on the main
+   * thread, nor concurrently on the same service.
+   */
+  @WorkerThread
+  public Report run(Iterator<String> texts, final ResultListener listener)
+      throws InterruptedException {
+    synchronized (this) {
+      uniqueTexts.clear();
+      pendingResults.clear();
+      nextIndexToEmit = 0;
+      numFailed = 0;
+      numCharacters = 0;
+      numTranslated = 0;
+    }
+    int windowSize = maxConcurrency * WINDOW_PER_TRANSLATION;
+    final Semaphore window = new Semaphore(windowSize);
+    final Semaphore inFlight = new Semaphore(maxConcurrency);
+    long startNanos = System.nanoTime();
+    long index = 0;
+    while (true) {
+      // Waits for the results before the window to be emitted before pulling the next text, which
+      // provides the backpressure.
+      window.acquire();
+      if (!texts.hasNext()) {
+        window.release();
+        break;
+      }
+      final String text = texts.next();
+      final long textIndex = index++;
+      final UniqueText uniqueText;
+      synchronized (this) {
+        UniqueText existing = uniqueTexts.get(text);
+        if (existing != null) {
+          if (existing.done) {
+            complete(
+                new Result(textIndex, text, existing.translation, existing.error, 0, true),
+                listener,
+                window);
+          } else {
+            existing.waitingIndexes.add(textIndex);
+          }
+          continue;
+        }
+        uniqueText = new UniqueText();
+        uniqueTexts.put(text, uniqueText);
+      }
+
+      inFlight.acquire();
+      final long itemStartNanos = System.nanoTime();
+      translator.translate(
+          text,
+          new Translator.Callback() {
+            @Override
+            public void onSuccess(String translation) {
+              done(translation, null);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+              done(null, e);
+            }
+
+            private void done(@Nullable String translation, @Nullable Exception error) {
+              long latencyMs = elapsedMs(itemStartNanos);
+              try {
+                synchronized (BulkTranslationService.this) {
+                  uniqueText.done = true;
+                  uniqueText.translation = translation;
+                  uniqueText.error = error;
+                  recordLatency(latencyMs);
+                  complete(
+                      new Result(textIndex, text, translation, error, latencyMs, false),
+                      listener,
+                      window);
+                  for (long waitingIndex : uniqueText.waitingIndexes) {
+                    complete(
+                        new Result(waitingIndex, text, translation, error, 0, true),
+                        listener,
+                        window);
+                  }
+                  uniqueText.waitingIndexes.clear();
+                }
+              } finally {
+                inFlight.release();
+              }
+            }
+          });
+    }
+    // Waits for all the results to be emitted.
+    window.acquire(windowSize);
+    window.release(windowSize);
+    long wallTimeMs = elapsedMs(startNanos);
+
+    synchronized (this) {
+      long[] sorted = Arrays.copyOf(latencies, numTranslated);
+      Arrays.sort(sorted);
+      Report report =
+          new Report(nextIndexToEmit, numTranslated, numFailed, numCharacters, wallTimeMs, sorted);
+      uniqueTexts.clear();
+      return report;
+    }
+  }
+
+  /** Buffers the result, and emits all the results which are next in input order. */
+  private void complete(Result result, ResultListener listener, Semaphore window) {
+    pendingResults.put(result.index, result);
+    Result next;
+    while ((next = pendingResults.remove(nextIndexToEmit)) != null) {
+      nextIndexToEmit++;
+      numCharacters += next.text.length();
+      if (next.error != null) {
+        numFailed++;
+      }
+      try {
+        listener.onResult(next, nextIndexToEmit);
+      } finally {
+        window.release();
+      }
+    }
+  }
+
+  private void recordLatency(long latencyMs) {
+    if (numTranslated == latencies.length) {
+      latencies = Arrays.copyOf(latencies, numTranslated * 2);
+    }
+    latencies[numTranslated++] = latencyMs;
+  }
+
+  private static long elapsedMs(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1_000_000;
+  }
+}
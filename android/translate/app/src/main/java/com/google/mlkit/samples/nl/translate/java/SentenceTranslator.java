@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.mlkit.samples.nl.translate.java;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import java.text.BreakIterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Translates long texts sentence by sentence, so that an edit only re-translates the sentences it
+ * touched.
+ *
+ * <p>The text is split into sentences with a {@link BreakIterator}. Sentences with a known
+ * translation are resolved synchronously, and the others are translated with a bounded number in
+ * flight at once. The translations are then joined in order, keeping the whitespace between the
+ * source sentences.
+ *
+ * <p>Must be used on the main thread.
+ */
+class SentenceTranslator {
+
+  static final int DEFAULT_MAX_PARALLEL_SENTENCES = 2;
+
+  /** Looks up and runs the translations of single sentences. */
+  interface SentenceTranslation {
+    /** Returns the known translation of the sentence, or null. */
+    @Nullable
+    String getCachedTranslation(String sentence);
+
+    Task<String> translate(String sentence);
+  }
+
+  /** A sentence and the whitespace around it in the source text. */
+  static class Sentence {
+    final String leadingWhitespace;
+    final String text;
+    final String trailingWhitespace;
+
+    Sentence(String leadingWhitespace, String text, String trailingWhitespace) {
+      this.leadingWhitespace = leadingWhitespace;
+      this.text = text;
+      this.trailingWhitespace = trailingWhitespace;
+    }
+  }
+
+  private final int maxParallelSentences;
+  // Counts of the sentences of the last translation, for logging.
+  private int lastNumSentences;
+  private int lastNumTranslatedSentences;
+
+  SentenceTranslator() {
+    this(DEFAULT_MAX_PARALLEL_SENTENCES);
+  }
+
+  SentenceTranslator(int maxParallelSentences) {
+    this.maxParallelSentences = maxParallelSentences;
+  }
+
+  /** Splits the text into sentences, using the sentence boundaries of the given locale. */
+  static List<Sentence> split(String text, Locale locale) {
+    List<Sentence> sentences = new ArrayList<>();
+    BreakIterator iterator = BreakIterator.getSentenceInstance(locale);
+    iterator.setText(text);
+    int start = iterator.first();
+    for (int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+      int textStart = start;
+      while (textStart < end && Character.isWhitespace(text.charAt(textStart))) {
+        textStart++;
+      }
+      int textEnd = end;
+      while (textEnd > textStart && Character.isWhitespace(text.charAt(textEnd - 1))) {
+        textEnd--;
+      }
+      sentences.add(
+          new Sentence(
+              text.substring(start, textStart),
+              text.substring(textStart, textEnd),
+              text.substring(textEnd, end)));
+    }
+    return sentences;
+  }
+
+  /**
+   * Translates the text sentence by sentence. Fails with the first error of a sentence translation.
+   */
+  @MainThread
+  Task<String> translate(String text, Locale locale, SentenceTranslation translation) {
+    final List<Sentence> sentences = split(text, locale);
+    final String[] translations = new String[sentences.size()];
+    // Indexes of the sentences to translate, grouped by text so that repeated sentences are only
+    // translated once.
+    final Map<String, List<Integer>> missingSentences = new HashMap<>();
+    for (int i = 0; i < sentences.size(); i++) {
+      Sentence sentence = sentences.get(i);
+      if (sentence.text.isEmpty()) {
+        translations[i] = "";
+        continue;
+      }
+      String cachedTranslation = translation.getCachedTranslation(sentence.text);
+      if (cachedTranslation != null) {
+        translations[i] = cachedTranslation;
+        continue;
+      }
+      List<Integer> indexes = missingSentences.get(sentence.text);
+      if (indexes == null) {
+        indexes = new ArrayList<>();
+        missingSentences.put(sentence.text, indexes);
+      }
+      indexes.add(i);
+    }
+    lastNumSentences = sentences.size();
+    lastNumTranslatedSentences = missingSentences.size();
+    if (missingSentences.isEmpty()) {
+      return Tasks.forResult(join(sentences, translations));
+    }
+
+    final TaskCompletionSource<String> result = new TaskCompletionSource<>();
+    final Queue<String> queue = new ArrayDeque<>(missingSentences.keySet());
+    final int[] remaining = {missingSentences.size()};
+    OnSentenceTranslated onSentenceTranslated =
+        new OnSentenceTranslated() {
+          @Override
+          public void onTranslated(String sentence, Task<String> task) {
+            if (!task.isSuccessful()) {
+              Exception e = task.getException();
+              result.trySetException(e != null ? e : new Exception("Translation failed"));
+              queue.clear();
+              return;
+            }
+            for (int index : missingSentences.get(sentence)) {
+              translations[index] = task.getResult();
+            }
+            if (--remaining[0] == 0) {
+              result.trySetResult(join(sentences, translations));
+            } else {
+              startNext(queue, translation, this);
+            }
+          }
+        };
+    for (int i = 0; i < maxParallelSentences; i++) {
+      startNext(queue, translation, onSentenceTranslated);
+    }
+    return result.getTask();
+  }
+
+  /** Returns the number of sentences in the last text, and how many of them weren't cached. */
+  @NonNull
+  String getLastStats() {
+    return lastNumTranslatedSentences + "/" + lastNumSentences + " sentences translated";
+  }
+
+  private interface OnSentenceTranslated {
+    void onTranslated(String sentence, Task<String> task);
+  }
+
+  private static void startNext(
+      Queue<String> queue,
+      SentenceTranslation translation,
+      final OnSentenceTranslated onSentenceTranslated) {
+    final String sentence = queue.poll();
+    if (sentence == null) {
+      return;
+    }
+    translation
+        .translate(sentence)
+        .addOnCompleteListener(
+            new OnCompleteListener<String>() {
+              @Override
+              public void onComplete(@NonNull Task<String> task) {
+                onSentenceTranslated.onTranslated(sentence, task);
+              }
+            });
+  }
+
+  private static String join(List<Sentence> sentences, String[] translations) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < sentences.size(); i++) {
+      Sentence sentence = sentences.get(i);
+      builder
+          .append(sentence.leadingWhitespace)
+          .append(translations[i])
+          .append(sentence.trailingWhitespace);
+    }
+    return builder.toString();
+  }
+}
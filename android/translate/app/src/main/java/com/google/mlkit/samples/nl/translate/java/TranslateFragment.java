@@ -35,6 +35,8 @@ import android.widget.TextView;
 import android.widget.ToggleButton;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.mlkit.samples.nl.translate.R;
 import java.util.List;
@@ -65,6 +67,7 @@ public class TranslateFragment extends Fragment {
   public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
     super.onViewCreated(view, savedInstanceState);
     final Button switchButton = view.findViewById(R.id.buttonSwitchLang);
+    final Button translateLinesButton = view.findViewById(R.id.buttonTranslateLines);
     final ToggleButton sourceSyncButton = view.findViewById(R.id.buttonSyncSource);
     final ToggleButton targetSyncButton = view.findViewById(R.id.buttonSyncTarget);
     final TextInputEditText srcTextView = view.findViewById(R.id.sourceText);
@@ -74,6 +77,8 @@ public class TranslateFragment extends Fragment {
     final Spinner targetLangSelector = view.findViewById(R.id.targetLangSelector);
 
     final TranslateViewModel viewModel = ViewModelProviders.of(this).get(TranslateViewModel.class);
+    // Edits of long texts only re-translate the sentences they touch.
+    viewModel.setSegmentedTranslation(true);
 
     // Get available language list and set up source and target language spinners
     // with default selections.
@@ -124,6 +129,33 @@ public class TranslateFragment extends Fragment {
           }
         });
 
+    // Translate each line of the input on its own, e.g. a list of strings.
+    translateLinesButton.setVisibility(View.VISIBLE);
+    translateLinesButton.setOnClickListener(
+        new View.OnClickListener() {
+          @Override
+          public void onClick(View v) {
+            setProgressText(targetTextView);
+            viewModel
+                .translateLines()
+                .addOnCompleteListener(
+                    new OnCompleteListener<String>() {
+                      @Override
+                      public void onComplete(@NonNull Task<String> task) {
+                        if (task.isSuccessful()) {
+                          targetTextView.setText(task.getResult());
+                        } else {
+                          Exception e = task.getException();
+                          srcTextView.setError(
+                              e != null
+                                  ? e.getLocalizedMessage()
+                                  : getString(R.string.unknown_error));
+                        }
+                      }
+                    });
+          }
+        });
+
     // Set up toggle buttons to delete or download remote models locally.
     sourceSyncButton.setOnCheckedChangeListener(
         new CompoundButton.OnCheckedChangeListener() {
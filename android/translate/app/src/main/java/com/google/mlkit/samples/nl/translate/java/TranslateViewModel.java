@@ -17,53 +17,70 @@
 package com.google.mlkit.samples.nl.translate.java;
 
 import android.app.Application;
+import android.text.TextUtils;
+import android.util.Log;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Observer;
-import android.util.LruCache;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.SuccessContinuation;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.google.mlkit.common.model.DownloadConditions;
-import com.google.mlkit.common.model.RemoteModelManager;
 import com.google.mlkit.nl.translate.TranslateLanguage;
 import com.google.mlkit.nl.translate.TranslateRemoteModel;
-import com.google.mlkit.nl.translate.Translation;
-import com.google.mlkit.nl.translate.Translator;
 import com.google.mlkit.nl.translate.TranslatorOptions;
 import com.google.mlkit.samples.nl.translate.R;
+import com.mlkit.example.internal.modelstate.ModelStateRegistry;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TranslateViewModel extends AndroidViewModel {
-  // This specifies the number of translators instance we want to keep in our LRU cache.
-  // Each instance of the translator is built with different options based on the source
-  // language and the target language, and since we want to be able to manage the number of
-  // translator instances to keep around, an LRU cache is an easy way to achieve this.
-  private static final int NUM_TRANSLATORS = 3;
-
-  private final RemoteModelManager modelManager;
-  private final LruCache<TranslatorOptions, Translator> translators =
-      new LruCache<TranslatorOptions, Translator>(NUM_TRANSLATORS) {
-        @Override
-        public Translator create(TranslatorOptions options) {
-          return Translation.getClient(options);
-        }
-
+  private static final String TAG = "TranslateViewModel";
+  private static final int BULK_TRANSLATION_CONCURRENCY = 4;
+  // Downloaded translation models, shared with the other screens of the app.
+  private final ModelStateRegistry<TranslateRemoteModel> modelRegistry =
+      ModelStateRegistry.getInstance(TranslateRemoteModel.class);
+  private final ModelStateRegistry.Listener<TranslateRemoteModel> modelRegistryListener =
+      new ModelStateRegistry.Listener<TranslateRemoteModel>() {
         @Override
-        public void entryRemoved(
-            boolean evicted, TranslatorOptions key, Translator oldValue, Translator newValue) {
-          oldValue.close();
+        public void onDownloadedModelsChanged(Set<TranslateRemoteModel> downloadedModels) {
+          List<String> modelCodes = new ArrayList<>(downloadedModels.size());
+          for (TranslateRemoteModel model : downloadedModels) {
+            modelCodes.add(model.getLanguage());
+          }
+          Collections.sort(modelCodes);
+          availableModels.setValue(modelCodes);
         }
       };
+  // Each instance of the translator is built with different options based on the source
+  // language and the target language. The pool keeps as many of them open as the memory of
+  // the device allows, and closes those used the least when it is full.
+  private final TranslatorPool translatorPool;
+  // Translations already done, so that repeated inputs don't go through the translator again.
+  private final TranslationCache translationCache;
+  // Runs the disk operations of the translation cache off the main thread.
+  private final ExecutorService cacheExecutor = Executors.newSingleThreadExecutor();
+  // Runs bulk translations, which block until done.
+  private final ExecutorService bulkExecutor = Executors.newSingleThreadExecutor();
+  private final TranslationScheduler translationScheduler;
+  // Translates sentence by sentence when segmented translation is enabled.
+  private final SentenceTranslator sentenceTranslator = new SentenceTranslator();
+  private boolean segmentedTranslation;
   MutableLiveData<Language> sourceLang = new MutableLiveData<>();
   MutableLiveData<Language> targetLang = new MutableLiveData<>();
   MutableLiveData<String> sourceText = new MutableLiveData<>();
@@ -72,7 +89,9 @@ public class TranslateViewModel extends AndroidViewModel {
 
   public TranslateViewModel(@NonNull Application application) {
     super(application);
-    modelManager = RemoteModelManager.getInstance();
+    translatorPool = new TranslatorPool(application);
+    translationCache =
+        new TranslationCache(new File(application.getCacheDir(), "translations"));
 
     // Create a translation result or error object.
     final OnCompleteListener<String> processTranslation =
@@ -84,33 +103,47 @@ public class TranslateViewModel extends AndroidViewModel {
             } else {
               translatedText.setValue(new ResultOrError(null, task.getException()));
             }
-            // Update the list of downloaded models as more may have been
-            // automatically downloaded due to requested translation.
-            fetchDownloadedModels();
           }
         };
 
+    // Keystrokes are debounced, and only the result of the latest input is delivered.
+    translationScheduler =
+        new TranslationScheduler(
+            new TranslationScheduler.Translation() {
+              @Override
+              public Task<String> translate(TranslationScheduler.Request request) {
+                return translateRequest(request);
+              }
+            },
+            new TranslationScheduler.Listener() {
+              @Override
+              public void onTranslationComplete(
+                  TranslationScheduler.Request request, Task<String> task) {
+                processTranslation.onComplete(task);
+              }
+            });
+
     // Start translation if any of the following change: input text, source lang, target lang.
     translatedText.addSource(
         sourceText,
         new Observer<String>() {
           @Override
           public void onChanged(@Nullable String s) {
-            translate().addOnCompleteListener(processTranslation);
+            scheduleTranslation(/* debounce= */ true, processTranslation);
           }
         });
     Observer<Language> languageObserver =
         new Observer<Language>() {
           @Override
           public void onChanged(@Nullable Language language) {
-            translate().addOnCompleteListener(processTranslation);
+            scheduleTranslation(/* debounce= */ false, processTranslation);
           }
         };
     translatedText.addSource(sourceLang, languageObserver);
     translatedText.addSource(targetLang, languageObserver);
 
-    // Update the list of downloaded models.
-    fetchDownloadedModels();
+    // Update the list of downloaded models whenever it changes.
+    modelRegistry.addListener(modelRegistryListener);
   }
 
   // Gets a list of all available translation languages.
@@ -127,52 +160,247 @@ public class TranslateViewModel extends AndroidViewModel {
     return new TranslateRemoteModel.Builder(languageCode).build();
   }
 
-  // Updates the list of downloaded models available for local translation.
-  private void fetchDownloadedModels() {
-    modelManager
-        .getDownloadedModels(TranslateRemoteModel.class)
+  // Starts downloading a remote model for local translation.
+  void downloadLanguage(Language language) {
+    TranslateRemoteModel model = getModel(TranslateLanguage.fromLanguageTag(language.getCode()));
+    modelRegistry.download(model, new DownloadConditions.Builder().build());
+  }
+
+  // Deletes a locally stored translation model.
+  void deleteLanguage(Language language) {
+    TranslateRemoteModel model = getModel(TranslateLanguage.fromLanguageTag(language.getCode()));
+    modelRegistry.delete(model);
+  }
+
+  // Translates the current input through the scheduler, unless the result is already known.
+  private void scheduleTranslation(boolean debounce, OnCompleteListener<String> listener) {
+    final String text = sourceText.getValue();
+    final Language source = sourceLang.getValue();
+    final Language target = targetLang.getValue();
+    if (source == null || target == null || text == null || text.isEmpty()) {
+      translationScheduler.supersede();
+      listener.onComplete(Tasks.forResult(""));
+      return;
+    }
+    String sourceLangCode = TranslateLanguage.fromLanguageTag(source.getCode());
+    String targetLangCode = TranslateLanguage.fromLanguageTag(target.getCode());
+    String cachedTranslation =
+        translationCache.getFromMemory(
+            TranslationCache.getKey(sourceLangCode, targetLangCode, text));
+    if (cachedTranslation != null) {
+      translationScheduler.supersede();
+      listener.onComplete(Tasks.forResult(cachedTranslation));
+      return;
+    }
+    translationScheduler.submit(sourceLangCode, targetLangCode, text, debounce);
+  }
+
+  /**
+   * Sets whether texts are translated sentence by sentence, so that editing a long text only
+   * re-translates the sentences that changed.
+   */
+  void setSegmentedTranslation(boolean segmentedTranslation) {
+    this.segmentedTranslation = segmentedTranslation;
+  }
+
+  private Task<String> translateRequest(final TranslationScheduler.Request request) {
+    if (!segmentedTranslation) {
+      return translate(request.sourceLanguage, request.targetLanguage, request.text);
+    }
+    return sentenceTranslator
+        .translate(
+            request.text,
+            new Locale(request.sourceLanguage),
+            new SentenceTranslator.SentenceTranslation() {
+              @Nullable
+              @Override
+              public String getCachedTranslation(String sentence) {
+                return translationCache.getFromMemory(
+                    TranslationCache.getKey(
+                        request.sourceLanguage, request.targetLanguage, sentence));
+              }
+
+              @Override
+              public Task<String> translate(String sentence) {
+                return TranslateViewModel.this.translate(
+                    request.sourceLanguage, request.targetLanguage, sentence);
+              }
+            })
         .addOnSuccessListener(
-            new OnSuccessListener<Set<TranslateRemoteModel>>() {
+            new OnSuccessListener<String>() {
               @Override
-              public void onSuccess(Set<TranslateRemoteModel> remoteModels) {
-                List<String> modelCodes = new ArrayList<>(remoteModels.size());
-                for (TranslateRemoteModel model : remoteModels) {
-                  modelCodes.add(model.getLanguage());
-                }
-                Collections.sort(modelCodes);
-                availableModels.setValue(modelCodes);
+              public void onSuccess(String translation) {
+                Log.d(TAG, "Segmented translation: " + sentenceTranslator.getLastStats());
+                // Lets the same text be served from the cache without being split again.
+                translationCache.putInMemory(
+                    TranslationCache.getKey(
+                        request.sourceLanguage, request.targetLanguage, request.text),
+                    translation);
               }
             });
   }
 
-  // Starts downloading a remote model for local translation.
-  void downloadLanguage(Language language) {
-    TranslateRemoteModel model = getModel(TranslateLanguage.fromLanguageTag(language.getCode()));
-    modelManager
-        .download(model, new DownloadConditions.Builder().build())
-        .addOnCompleteListener(
-            new OnCompleteListener<Void>() {
+  /**
+   * Translates the current input line by line, e.g. a string table pasted as the source text. The
+   * lines which fail to translate are kept as is.
+   */
+  Task<String> translateLines() {
+    final String text = sourceText.getValue();
+    final Language source = sourceLang.getValue();
+    final Language target = targetLang.getValue();
+    if (source == null || target == null || text == null || text.isEmpty()) {
+      return Tasks.forResult("");
+    }
+    final String[] lines = text.split("\n", -1);
+    final String[] translatedLines = new String[lines.length];
+    return translateAll(
+            source,
+            target,
+            Arrays.asList(lines).iterator(),
+            new BulkTranslationService.ResultListener() {
               @Override
-              public void onComplete(@NonNull Task<Void> task) {
-                fetchDownloadedModels();
+              public void onResult(BulkTranslationService.Result result, long numCompleted) {
+                translatedLines[(int) result.index] =
+                    result.translation != null ? result.translation : result.text;
+              }
+            })
+        .onSuccessTask(
+            new SuccessContinuation<BulkTranslationService.Report, String>() {
+              @NonNull
+              @Override
+              public Task<String> then(BulkTranslationService.Report report) {
+                Log.d(TAG, "Bulk translation: " + report);
+                Log.d(TAG, "Translation cache: " + translationCache.getStats());
+                return Tasks.forResult(TextUtils.join("\n", translatedLines));
               }
             });
   }
 
-  // Deletes a locally stored translation model.
-  void deleteLanguage(Language language) {
-    TranslateRemoteModel model = getModel(TranslateLanguage.fromLanguageTag(language.getCode()));
-    modelManager
-        .deleteDownloadedModel(model)
+  /**
+   * Translates all the texts from the source to the target language, downloading the models if
+   * needed. Texts already in the translation cache aren't translated again, and new translations
+   * are added to it. Results are emitted in input order on a background thread.
+   */
+  Task<BulkTranslationService.Report> translateAll(
+      Language source,
+      Language target,
+      final Iterator<String> texts,
+      final BulkTranslationService.ResultListener listener) {
+    final String sourceLangCode = TranslateLanguage.fromLanguageTag(source.getCode());
+    final String targetLangCode = TranslateLanguage.fromLanguageTag(target.getCode());
+    TranslatorOptions options =
+        new TranslatorOptions.Builder()
+            .setSourceLanguage(sourceLangCode)
+            .setTargetLanguage(targetLangCode)
+            .build();
+    final TranslatorPool.Handle translator = translatorPool.acquire(options);
+    // Stops pulling texts once the view model is cleared, so that the run ends with the
+    // translations in flight.
+    final Iterator<String> textsUntilCleared =
+        new Iterator<String>() {
+          @Override
+          public boolean hasNext() {
+            return !bulkExecutor.isShutdown() && texts.hasNext();
+          }
+
+          @Override
+          public String next() {
+            return texts.next();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+    // The download is awaited on the bulk thread rather than chained, so that nothing is submitted
+    // to the bulk executor after it is shut down.
+    return Tasks.call(
+            bulkExecutor,
+            new Callable<BulkTranslationService.Report>() {
+              @Override
+              public BulkTranslationService.Report call() throws Exception {
+                Tasks.await(translator.getTranslator().downloadModelIfNeeded());
+                BulkTranslationService.Translator cachedTranslator =
+                    newCachedTranslator(
+                        sourceLangCode,
+                        targetLangCode,
+                        BulkTranslationService.asTranslator(translator.getTranslator()));
+                return new BulkTranslationService(cachedTranslator, BULK_TRANSLATION_CONCURRENCY)
+                    .run(textsUntilCleared, listener);
+              }
+            })
         .addOnCompleteListener(
-            new OnCompleteListener<Void>() {
+            new OnCompleteListener<BulkTranslationService.Report>() {
               @Override
-              public void onComplete(@NonNull Task<Void> task) {
-                fetchDownloadedModels();
+              public void onComplete(@NonNull Task<BulkTranslationService.Report> task) {
+                translator.release();
               }
             });
   }
 
+  /**
+   * Wraps a bulk translator with the translation cache. Lookups run on the bulk translation
+   * thread, and new translations are written to disk on the cache thread.
+   */
+  private BulkTranslationService.Translator newCachedTranslator(
+      final String sourceLangCode,
+      final String targetLangCode,
+      final BulkTranslationService.Translator translator) {
+    return new BulkTranslationService.Translator() {
+      @Override
+      public void translate(String text, final Callback callback) {
+        // Blank lines, e.g. between paragraphs, are kept as is.
+        if (text.trim().isEmpty()) {
+          callback.onSuccess(text);
+          return;
+        }
+        final String cacheKey = TranslationCache.getKey(sourceLangCode, targetLangCode, text);
+        String cachedTranslation = translationCache.getFromMemory(cacheKey);
+        if (cachedTranslation == null) {
+          cachedTranslation = translationCache.getFromDisk(cacheKey);
+        }
+        if (cachedTranslation != null) {
+          callback.onSuccess(cachedTranslation);
+          return;
+        }
+        translator.translate(
+            text,
+            new Callback() {
+              @Override
+              public void onSuccess(final String translation) {
+                translationCache.putInMemory(cacheKey, translation);
+                if (!cacheExecutor.isShutdown()) {
+                  cacheExecutor.execute(
+                      new Runnable() {
+                        @Override
+                        public void run() {
+                          translationCache.putOnDisk(cacheKey, translation);
+                        }
+                      });
+                }
+                callback.onSuccess(translation);
+              }
+
+              @Override
+              public void onFailure(Exception e) {
+                callback.onFailure(e);
+              }
+            });
+      }
+    };
+  }
+
+  // Returns the counts of the translators opened, closed and reloaded by the pool.
+  TranslatorPool.Metrics getTranslatorPoolMetrics() {
+    return translatorPool.getMetrics();
+  }
+
+  // Returns the counts of the translations coalesced or dropped while typing.
+  TranslationScheduler.Metrics getSchedulerMetrics() {
+    return translationScheduler.getMetrics();
+  }
+
   public Task<String> translate() {
     final String text = sourceText.getValue();
     final Language source = sourceLang.getValue();
@@ -180,22 +408,70 @@ public class TranslateViewModel extends AndroidViewModel {
     if (source == null || target == null || text == null || text.isEmpty()) {
       return Tasks.forResult("");
     }
-    String sourceLangCode = TranslateLanguage.fromLanguageTag(source.getCode());
-    String targetLangCode = TranslateLanguage.fromLanguageTag(target.getCode());
+    return translate(
+        TranslateLanguage.fromLanguageTag(source.getCode()),
+        TranslateLanguage.fromLanguageTag(target.getCode()),
+        text);
+  }
+
+  private Task<String> translate(String sourceLangCode, String targetLangCode, String text) {
     TranslatorOptions options =
         new TranslatorOptions.Builder()
             .setSourceLanguage(sourceLangCode)
             .setTargetLanguage(targetLangCode)
             .build();
-    return translators
-        .get(options)
-        .downloadModelIfNeeded()
+    final String cacheKey = TranslationCache.getKey(sourceLangCode, targetLangCode, text);
+    // Memory hits complete synchronously, without going through the translator.
+    String cachedTranslation = translationCache.getFromMemory(cacheKey);
+    if (cachedTranslation != null) {
+      return Tasks.forResult(cachedTranslation);
+    }
+    return Tasks.call(
+            cacheExecutor,
+            new Callable<String>() {
+              @Override
+              public String call() {
+                return translationCache.getFromDisk(cacheKey);
+              }
+            })
+        .continueWithTask(
+            new Continuation<String, Task<String>>() {
+              @Override
+              public Task<String> then(@NonNull Task<String> task) {
+                if (task.isSuccessful() && task.getResult() != null) {
+                  return Tasks.forResult(task.getResult());
+                }
+                return translateAndCache(
+                    options, sourceLangCode, targetLangCode, text, cacheKey);
+              }
+            });
+  }
+
+  private Task<String> translateAndCache(
+      TranslatorOptions options,
+      String sourceLangCode,
+      String targetLangCode,
+      final String text,
+      final String cacheKey) {
+    final TranslateRemoteModel sourceModel = getModel(sourceLangCode);
+    final TranslateRemoteModel targetModel = getModel(targetLangCode);
+    final TranslatorPool.Handle translator = translatorPool.acquire(options);
+    // Skips the model check when the registry knows both models are downloaded.
+    Task<Void> modelsReady =
+        Boolean.TRUE.equals(modelRegistry.isDownloaded(sourceModel))
+                && Boolean.TRUE.equals(modelRegistry.isDownloaded(targetModel))
+            ? Tasks.<Void>forResult(null)
+            : translator.getTranslator().downloadModelIfNeeded();
+    return modelsReady
         .continueWithTask(
             new Continuation<Void, Task<String>>() {
               @Override
               public Task<String> then(@NonNull Task<Void> task) {
                 if (task.isSuccessful()) {
-                  return translators.get(options).translate(text);
+                  // The models may have been downloaded for this translation.
+                  modelRegistry.setDownloaded(sourceModel, true);
+                  modelRegistry.setDownloaded(targetModel, true);
+                  return translator.getTranslator().translate(text);
                 } else {
                   Exception e = task.getException();
                   if (e == null) {
@@ -204,6 +480,30 @@ public class TranslateViewModel extends AndroidViewModel {
                   return Tasks.forException(e);
                 }
               }
+            })
+        .addOnCompleteListener(
+            new OnCompleteListener<String>() {
+              @Override
+              public void onComplete(@NonNull Task<String> task) {
+                translator.release();
+              }
+            })
+        .addOnSuccessListener(
+            new OnSuccessListener<String>() {
+              @Override
+              public void onSuccess(final String translation) {
+                translationCache.putInMemory(cacheKey, translation);
+                if (cacheExecutor.isShutdown()) {
+                  return;
+                }
+                cacheExecutor.execute(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        translationCache.putOnDisk(cacheKey, translation);
+                      }
+                    });
+              }
             });
   }
 
@@ -272,8 +572,17 @@ public class TranslateViewModel extends AndroidViewModel {
   protected void onCleared() {
     super.onCleared();
     // Each new instance of a translator needs to be closed appropriately. Here we utilize the
-    // ViewModel's onCleared() to clear our LruCache and close each Translator instance when
-    // this ViewModel is no longer used and destroyed.
-    translators.evictAll();
+    // ViewModel's onCleared() to close each Translator instance of the pool when this ViewModel
+    // is no longer used and destroyed. A bulk translation still running stops pulling texts once
+    // the bulk executor is shut down, and its translator is closed once released.
+    bulkExecutor.shutdown();
+    translatorPool.close();
+    modelRegistry.removeListener(modelRegistryListener);
+    translationScheduler.cancel();
+    Log.d(TAG, "Translation scheduler: " + translationScheduler.getMetrics());
+    Log.d(TAG, "Translation cache: " + translationCache.getStats());
+    translationCache.clearMemory();
+    // Lets pending writes to the disk cache finish.
+    cacheExecutor.shutdown();
   }
 }
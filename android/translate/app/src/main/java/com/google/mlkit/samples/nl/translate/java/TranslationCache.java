@@ -0,0 +1,291 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.mlkit.samples.nl.translate.java;
+
+import android.util.Log;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Two-tier cache of translations, keyed by source language, target language and normalized text.
+ *
+ * <p>The first tier is an in-memory LRU bounded by the number of characters it holds, and is read
+ * synchronously. The second tier stores one file per translation in a directory. Files are named
+ * after a 64-bit hash of the key, hold the full key to detect collisions, and a CRC32 checksum that
+ * is validated on every read: corrupted files are deleted and treated as misses. The disk tier is
+ * trimmed, oldest files first, when it grows over its size limit. Disk operations must not run on
+ * the main thread.
+ */
+class TranslationCache {
+
+  private static final String TAG = "TranslationCache";
+  // Bumped when the key normalization changes, so that entries stored under old keys are dropped.
+  private static final int FILE_MAGIC = 0x544C4332; // "TLC2"
+  // Whitespace other than line breaks.
+  private static final Pattern HORIZONTAL_WHITESPACE = Pattern.compile("[ \\t\\x0B\\f]+");
+
+  // Maximum number of characters, keys and values included, held in memory.
+  static final int DEFAULT_MEMORY_CHARS = 256 * 1024;
+  static final long DEFAULT_DISK_BYTES = 4 * 1024 * 1024;
+
+  /** Hit and miss counters of the cache. */
+  static class Stats {
+    final AtomicLong memoryHits = new AtomicLong();
+    final AtomicLong diskHits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong corruptedEntries = new AtomicLong();
+
+    @NonNull
+    @Override
+    public String toString() {
+      long lookups = memoryHits.get() + diskHits.get() + misses.get();
+      return String.format(
+          Locale.US,
+          "memory hits=%d, disk hits=%d, misses=%d (hit rate %.0f%%), corrupted=%d",
+          memoryHits.get(),
+          diskHits.get(),
+          misses.get(),
+          lookups == 0 ? 0f : 100f * (lookups - misses.get()) / lookups,
+          corruptedEntries.get());
+    }
+  }
+
+  private final LruCache<String, String> memoryCache;
+  private final File directory;
+  private final long maxDiskBytes;
+  private final Stats stats = new Stats();
+  // Total size of the disk tier, -1 until loaded by the first write. Guarded by this.
+  private long diskBytes = -1;
+
+  TranslationCache(File directory) {
+    this(directory, DEFAULT_MEMORY_CHARS, DEFAULT_DISK_BYTES);
+  }
+
+  TranslationCache(File directory, int maxMemoryChars, long maxDiskBytes) {
+    this.directory = directory;
+    this.maxDiskBytes = maxDiskBytes;
+    memoryCache =
+        new LruCache<String, String>(maxMemoryChars) {
+          @Override
+          protected int sizeOf(String key, String value) {
+            return key.length() + value.length();
+          }
+        };
+  }
+
+  /** Returns the cache key of a translation. */
+  static String getKey(String sourceLanguage, String targetLanguage, String text) {
+    return sourceLanguage + '\u0000' + targetLanguage + '\u0000' + normalize(text);
+  }
+
+  /**
+   * Normalizes the text so that inputs which translate identically share an entry: Unicode
+   * normalization, trimmed, with runs of spaces and tabs collapsed. Case and line breaks are kept,
+   * as they can change the translation and its layout.
+   */
+  static String normalize(String text) {
+    String normalized = Normalizer.normalize(text, Normalizer.Form.NFC).trim();
+    return HORIZONTAL_WHITESPACE.matcher(normalized).replaceAll(" ");
+  }
+
+  /** Returns the translation from the memory tier, or null. */
+  @Nullable
+  String getFromMemory(String key) {
+    String translation = memoryCache.get(key);
+    if (translation != null) {
+      stats.memoryHits.incrementAndGet();
+    }
+    return translation;
+  }
+
+  /** Returns the translation from the disk tier and promotes it to memory, or returns null. */
+  @Nullable
+  @WorkerThread
+  synchronized String getFromDisk(String key) {
+    File file = getFile(key);
+    if (!file.exists()) {
+      stats.misses.incrementAndGet();
+      return null;
+    }
+    String translation = null;
+    try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+      if (input.readInt() != FILE_MAGIC) {
+        throw new IOException("Bad magic");
+      }
+      long checksum = input.readLong();
+      byte[] keyBytes = readBytes(input);
+      byte[] valueBytes = readBytes(input);
+      if (checksum != computeChecksum(keyBytes, valueBytes)) {
+        throw new IOException("Bad checksum");
+      }
+      // A different key means a hash collision, which is a plain miss.
+      if (Arrays.equals(keyBytes, key.getBytes(StandardCharsets.UTF_8))) {
+        translation = new String(valueBytes, StandardCharsets.UTF_8);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Deleting corrupted cache entry " + file.getName(), e);
+      stats.corruptedEntries.incrementAndGet();
+      deleteFile(file);
+    }
+    if (translation == null) {
+      stats.misses.incrementAndGet();
+      return null;
+    }
+    stats.diskHits.incrementAndGet();
+    // Marks the file as recently used for trimming.
+    file.setLastModified(System.currentTimeMillis());
+    memoryCache.put(key, translation);
+    return translation;
+  }
+
+  /** Adds a translation to the memory tier. */
+  void putInMemory(String key, String translation) {
+    memoryCache.put(key, translation);
+  }
+
+  /** Adds a translation to the disk tier, and trims it if it went over its size limit. */
+  @WorkerThread
+  synchronized void putOnDisk(String key, String translation) {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      Log.w(TAG, "Failed to create " + directory);
+      return;
+    }
+    if (diskBytes < 0) {
+      File[] files = directory.listFiles();
+      diskBytes = files != null ? getTotalLength(files) : 0;
+    }
+    File file = getFile(key);
+    long previousLength = file.length();
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = translation.getBytes(StandardCharsets.UTF_8);
+    try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+      output.writeInt(FILE_MAGIC);
+      output.writeLong(computeChecksum(keyBytes, valueBytes));
+      output.writeInt(keyBytes.length);
+      output.write(keyBytes);
+      output.writeInt(valueBytes.length);
+      output.write(valueBytes);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write cache entry " + file.getName(), e);
+      diskBytes += file.length() - previousLength;
+      deleteFile(file);
+      return;
+    }
+    diskBytes += file.length() - previousLength;
+    if (diskBytes > maxDiskBytes) {
+      trimDisk();
+    }
+  }
+
+  /** Clears the memory tier. */
+  void clearMemory() {
+    memoryCache.evictAll();
+  }
+
+  Stats getStats() {
+    return stats;
+  }
+
+  private void trimDisk() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    // Resyncs the tracked size, in case files were changed outside of the cache.
+    diskBytes = getTotalLength(files);
+    // Trims to 3/4 of the limit, so that trimming doesn't happen again on the next write.
+    Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    for (File file : files) {
+      if (diskBytes <= maxDiskBytes * 3 / 4) {
+        break;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        diskBytes -= length;
+      }
+    }
+  }
+
+  private void deleteFile(File file) {
+    long length = file.length();
+    if (file.delete() && diskBytes >= 0) {
+      diskBytes -= length;
+    }
+  }
+
+  private static long getTotalLength(File[] files) {
+    long total = 0;
+    for (File file : files) {
+      total += file.length();
+    }
+    return total;
+  }
+
+  private File getFile(String key) {
+    return new File(directory, hashKey(key));
+  }
+
+  /** Returns the first 64 bits of the SHA-256 of the key, as 16 hex characters. */
+  private static String hashKey(String key) {
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder(16);
+      for (int i = 0; i < 8; i++) {
+        name.append(String.format(Locale.US, "%02x", digest[i]));
+      }
+      return name.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-256 is always available on Android.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long computeChecksum(byte[] keyBytes, byte[] valueBytes) {
+    CRC32 crc = new CRC32();
+    crc.update(keyBytes);
+    crc.update(valueBytes);
+    return crc.getValue();
+  }
+
+  private static byte[] readBytes(DataInputStream input) throws IOException {
+    int length = input.readInt();
+    if (length < 0 || length > DEFAULT_DISK_BYTES) {
+      throw new IOException("Bad length " + length);
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return bytes;
+  }
+}
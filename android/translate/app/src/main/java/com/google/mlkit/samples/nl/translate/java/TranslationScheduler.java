@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.mlkit.samples.nl.translate.java;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Schedules the translations of the text being typed.
+ *
+ * <p>Keystrokes are debounced, so that a burst of typing results in a single translation. Each
+ * request gets a sequence number, and only the completion of the most recent request is delivered:
+ * older ones, which may complete out of order, are dropped. For each language pair at most one
+ * translation is in flight, and a single request waits for it to complete, replaced by any newer
+ * one.
+ *
+ * <p>All methods must be called on the main thread, and the listener is called on it.
+ */
+class TranslationScheduler {
+
+  static final long DEFAULT_DEBOUNCE_MS = 300;
+
+  /** A translation to run. */
+  static class Request {
+    final long sequence;
+    final String sourceLanguage;
+    final String targetLanguage;
+    final String text;
+
+    Request(long sequence, String sourceLanguage, String targetLanguage, String text) {
+      this.sequence = sequence;
+      this.sourceLanguage = sourceLanguage;
+      this.targetLanguage = targetLanguage;
+      this.text = text;
+    }
+
+    String getLanguagePair() {
+      return sourceLanguage + "-" + targetLanguage;
+    }
+  }
+
+  /** Runs a translation. */
+  interface Translation {
+    Task<String> translate(Request request);
+  }
+
+  /** Receives the completion of the most recent request. */
+  interface Listener {
+    void onTranslationComplete(Request request, Task<String> task);
+  }
+
+  /** Counts of the requests handled by the scheduler. */
+  static class Metrics {
+    int submitted;
+    // Requests replaced by a newer one before they started.
+    int coalesced;
+    // Requests which completed after a newer one was submitted.
+    int dropped;
+    int delivered;
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "submitted=%d, coalesced=%d, dropped=%d, delivered=%d",
+          submitted,
+          coalesced,
+          dropped,
+          delivered);
+    }
+  }
+
+  private final Translation translation;
+  private final Listener listener;
+  private final long debounceMs;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Metrics metrics = new Metrics();
+  // Language pairs with a translation in flight, and the request waiting for it, if any.
+  private final Map<String, Request> pendingRequests = new HashMap<>();
+
+  private long lastSequence;
+  @Nullable private Request debouncedRequest;
+
+  private final Runnable debounceRunnable =
+      new Runnable() {
+        @Override
+        public void run() {
+          Request request = debouncedRequest;
+          debouncedRequest = null;
+          if (request != null) {
+            enqueue(request);
+          }
+        }
+      };
+
+  TranslationScheduler(Translation translation, Listener listener) {
+    this(translation, listener, DEFAULT_DEBOUNCE_MS);
+  }
+
+  TranslationScheduler(Translation translation, Listener listener, long debounceMs) {
+    this.translation = translation;
+    this.listener = listener;
+    this.debounceMs = debounceMs;
+  }
+
+  /**
+   * Schedules the translation of the text, after the debounce delay if {@code debounce} is true,
+   * e.g. for keystrokes, or as soon as possible otherwise, e.g. when the languages change. Any
+   * request submitted before is superseded.
+   */
+  @MainThread
+  void submit(String sourceLanguage, String targetLanguage, String text, boolean debounce) {
+    Request request = new Request(supersede(), sourceLanguage, targetLanguage, text);
+    metrics.submitted++;
+    if (debounce) {
+      debouncedRequest = request;
+      handler.postDelayed(debounceRunnable, debounceMs);
+    } else {
+      enqueue(request);
+    }
+  }
+
+  /**
+   * Supersedes all the requests submitted so far, e.g. because the result is already known, and
+   * returns the new sequence number.
+   */
+  @MainThread
+  long supersede() {
+    if (debouncedRequest != null) {
+      handler.removeCallbacks(debounceRunnable);
+      debouncedRequest = null;
+      metrics.coalesced++;
+    }
+    return ++lastSequence;
+  }
+
+  /** Drops all the pending requests, and the results of those in flight. */
+  @MainThread
+  void cancel() {
+    supersede();
+    for (Map.Entry<String, Request> entry : pendingRequests.entrySet()) {
+      if (entry.getValue() != null) {
+        entry.setValue(null);
+        metrics.coalesced++;
+      }
+    }
+  }
+
+  @MainThread
+  Metrics getMetrics() {
+    return metrics;
+  }
+
+  private void enqueue(Request request) {
+    String languagePair = request.getLanguagePair();
+    if (pendingRequests.containsKey(languagePair)) {
+      // A translation is in flight, this request waits for it in place of any other.
+      if (pendingRequests.put(languagePair, request) != null) {
+        metrics.coalesced++;
+      }
+      return;
+    }
+    start(request);
+  }
+
+  private void start(final Request request) {
+    final String languagePair = request.getLanguagePair();
+    pendingRequests.put(languagePair, null);
+    translation
+        .translate(request)
+        .addOnCompleteListener(
+            new OnCompleteListener<String>() {
+              @Override
+              public void onComplete(@NonNull Task<String> task) {
+                if (request.sequence == lastSequence) {
+                  metrics.delivered++;
+                  listener.onTranslationComplete(request, task);
+                } else {
+                  metrics.dropped++;
+                }
+                Request next = pendingRequests.remove(languagePair);
+                if (next == null) {
+                  return;
+                }
+                if (next.sequence == lastSequence) {
+                  start(next);
+                } else {
+                  metrics.coalesced++;
+                }
+              }
+            });
+  }
+}
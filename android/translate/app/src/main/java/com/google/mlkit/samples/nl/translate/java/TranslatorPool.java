@@ -0,0 +1,352 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.mlkit.samples.nl.translate.java;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.mlkit.nl.translate.Translation;
+import com.google.mlkit.nl.translate.Translator;
+import com.google.mlkit.nl.translate.TranslatorOptions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Pool of translators, one per language pair, sized from the memory available to the app.
+ *
+ * <p>A translation acquires the translator of its language pair, and releases it once done, so
+ * that translators in use are never closed. When the pool is full, the idle translator used the
+ * least often is closed, with usage counts halved on every eviction so that past popularity fades.
+ * The pool shrinks when the system asks the app to trim its memory. Once the app is used again, the
+ * pairs closed because of it are reopened in the background, and the free slots left are filled
+ * with the recently evicted pairs used the most.
+ *
+ * <p>Must be used on the main thread.
+ */
+class TranslatorPool implements ComponentCallbacks2 {
+
+  private static final String TAG = "TranslatorPool";
+  // Rough memory used by a translator with its models loaded, in MB.
+  private static final int TRANSLATOR_MEMORY_MB = 64;
+  private static final int MAX_TRANSLATORS = 6;
+  // Number of closed language pairs remembered, to count reloads and to prewarm them.
+  private static final int MAX_EVICTED_PAIRS = 8;
+  private static final long PREWARM_DELAY_MS = 1000;
+  private static final String PREWARM_TEXT = "Hello";
+
+  /** A translator acquired from the pool, to release once done with it. */
+  class Handle {
+    private final Entry entry;
+    private boolean released;
+
+    private Handle(Entry entry) {
+      this.entry = entry;
+    }
+
+    Translator getTranslator() {
+      return entry.translator;
+    }
+
+    @MainThread
+    void release() {
+      if (released) {
+        return;
+      }
+      released = true;
+      entry.refCount--;
+      if (closed) {
+        // Translators still in use when the pool was closed are closed by their last user.
+        if (entry.refCount == 0) {
+          entry.translator.close();
+          metrics.closed++;
+        }
+        return;
+      }
+      trimToCapacity();
+    }
+  }
+
+  /** Counts of the translators opened and closed by the pool. */
+  static class Metrics {
+    int opened;
+    int closed;
+    // Translators opened again for a language pair closed earlier.
+    int reloaded;
+    int prewarmed;
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "opened=%d, closed=%d, reloaded=%d, prewarmed=%d",
+          opened,
+          closed,
+          reloaded,
+          prewarmed);
+    }
+  }
+
+  private static class Entry {
+    final Translator translator;
+    int refCount;
+    int useCount;
+    long lastUseTime;
+
+    Entry(Translator translator) {
+      this.translator = translator;
+    }
+  }
+
+  private final Context context;
+  private final int capacity;
+  private final Map<TranslatorOptions, Entry> entries = new HashMap<>();
+  // Closed language pairs with their usage counts, least recently closed first.
+  private final LinkedHashMap<TranslatorOptions, Integer> evictedPairs = new LinkedHashMap<>();
+  // Pairs closed because of memory pressure, to reopen when the app is used again.
+  private final List<TranslatorOptions> trimmedPairs = new ArrayList<>();
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Metrics metrics = new Metrics();
+  // Capacity lowered by memory pressure, or -1.
+  private int trimmedCapacity = -1;
+  private boolean closed;
+
+  TranslatorPool(Context context) {
+    this.context = context.getApplicationContext();
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    int memoryClassCapacity = activityManager.getMemoryClass() / TRANSLATOR_MEMORY_MB;
+    capacity = Math.max(1, Math.min(MAX_TRANSLATORS, memoryClassCapacity));
+    this.context.registerComponentCallbacks(this);
+    Log.d(TAG, "Pool capacity: " + capacity);
+  }
+
+  /** Returns the translator of the language pair, opening it if needed. */
+  @MainThread
+  Handle acquire(TranslatorOptions options) {
+    if (trimmedCapacity >= 0) {
+      // The app is in use again after trimming its memory.
+      trimmedCapacity = -1;
+      schedulePrewarm();
+    }
+    Entry entry = entries.get(options);
+    if (entry == null) {
+      entry = open(options);
+    }
+    entry.refCount++;
+    entry.useCount++;
+    entry.lastUseTime = System.currentTimeMillis();
+    trimToCapacity();
+    return new Handle(entry);
+  }
+
+  @MainThread
+  Metrics getMetrics() {
+    return metrics;
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Closes all the translators, the ones in use once released. The pool must not be used
+   * afterwards.
+   */
+  @MainThread
+  void close() {
+    closed = true;
+    context.unregisterComponentCallbacks(this);
+    handler.removeCallbacksAndMessages(null);
+    for (Entry entry : entries.values()) {
+      if (entry.refCount == 0) {
+        entry.translator.close();
+        metrics.closed++;
+      }
+    }
+    entries.clear();
+    Log.d(TAG, "Translator pool: " + metrics);
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    int newCapacity;
+    if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+      newCapacity = 0;
+    } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+      newCapacity = 1;
+    } else {
+      // UI_HIDDEN only means the app went to the background, not that memory is low, and switching
+      // back to it should stay instant.
+      return;
+    }
+    trimmedCapacity = trimmedCapacity < 0 ? newCapacity : Math.min(trimmedCapacity, newCapacity);
+    List<TranslatorOptions> before = new ArrayList<>(entries.keySet());
+    trimToCapacity();
+    for (TranslatorOptions options : before) {
+      if (!entries.containsKey(options) && !trimmedPairs.contains(options)) {
+        trimmedPairs.add(options);
+      }
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    onTrimMemory(TRIM_MEMORY_COMPLETE);
+  }
+
+  @Override
+  public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+
+  private Entry open(TranslatorOptions options) {
+    Entry entry = new Entry(Translation.getClient(options));
+    Integer previousUseCount = evictedPairs.remove(options);
+    if (previousUseCount != null) {
+      metrics.reloaded++;
+      // Keeps part of its past popularity, so that it isn't the first one evicted again.
+      entry.useCount = previousUseCount;
+    }
+    entries.put(options, entry);
+    metrics.opened++;
+    return entry;
+  }
+
+  private void trimToCapacity() {
+    int currentCapacity = trimmedCapacity >= 0 ? trimmedCapacity : capacity;
+    while (entries.size() > currentCapacity) {
+      TranslatorOptions victim = findEvictionVictim();
+      if (victim == null) {
+        // All the translators are in use, they are closed once released.
+        return;
+      }
+      evict(victim);
+    }
+  }
+
+  /** Returns the idle pair used the least, the least recently used one among ties. */
+  @Nullable
+  private TranslatorOptions findEvictionVictim() {
+    TranslatorOptions victim = null;
+    Entry victimEntry = null;
+    for (Map.Entry<TranslatorOptions, Entry> candidate : entries.entrySet()) {
+      Entry entry = candidate.getValue();
+      if (entry.refCount > 0) {
+        continue;
+      }
+      if (victimEntry == null
+          || entry.useCount < victimEntry.useCount
+          || (entry.useCount == victimEntry.useCount
+              && entry.lastUseTime < victimEntry.lastUseTime)) {
+        victim = candidate.getKey();
+        victimEntry = entry;
+      }
+    }
+    return victim;
+  }
+
+  private void evict(TranslatorOptions options) {
+    Entry entry = entries.remove(options);
+    entry.translator.close();
+    metrics.closed++;
+    for (Entry remaining : entries.values()) {
+      remaining.useCount /= 2;
+    }
+    evictedPairs.remove(options);
+    evictedPairs.put(options, entry.useCount / 2);
+    if (evictedPairs.size() > MAX_EVICTED_PAIRS) {
+      Iterator<TranslatorOptions> iterator = evictedPairs.keySet().iterator();
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  private void schedulePrewarm() {
+    if (trimmedPairs.isEmpty() && evictedPairs.isEmpty()) {
+      return;
+    }
+    handler.postDelayed(
+        new Runnable() {
+          @Override
+          public void run() {
+            prewarmClosedPairs();
+          }
+        },
+        PREWARM_DELAY_MS);
+  }
+
+  private void prewarmClosedPairs() {
+    if (closed) {
+      return;
+    }
+    // The pairs open before the memory pressure first, then the evicted pairs used the most.
+    List<TranslatorOptions> candidates = new ArrayList<>(trimmedPairs);
+    trimmedPairs.clear();
+    List<TranslatorOptions> evicted = new ArrayList<>(evictedPairs.keySet());
+    // Most recently evicted first among ties.
+    Collections.reverse(evicted);
+    Collections.sort(
+        evicted,
+        new Comparator<TranslatorOptions>() {
+          @Override
+          public int compare(TranslatorOptions a, TranslatorOptions b) {
+            return evictedPairs.get(b) - evictedPairs.get(a);
+          }
+        });
+    candidates.addAll(evicted);
+    for (TranslatorOptions options : candidates) {
+      // Never evicts a translator for a prewarmed one.
+      if (entries.size() >= capacity) {
+        break;
+      }
+      if (!entries.containsKey(options)) {
+        prewarm(options);
+      }
+    }
+  }
+
+  private void prewarm(TranslatorOptions options) {
+    // Translating a word loads the models, which were downloaded when the pair was used.
+    final Handle handle = acquire(options);
+    metrics.prewarmed++;
+    handle
+        .getTranslator()
+        .translate(PREWARM_TEXT)
+        .addOnCompleteListener(
+            new OnCompleteListener<String>() {
+              @Override
+              public void onComplete(@NonNull Task<String> task) {
+                handle.release();
+              }
+            });
+  }
+}
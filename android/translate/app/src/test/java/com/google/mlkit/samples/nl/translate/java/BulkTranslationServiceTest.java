@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.mlkit.samples.nl.translate.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class BulkTranslationServiceTest {
+
+  private static final long TIMEOUT_MS = 5000;
+
+  private final ExecutorService runExecutor = Executors.newSingleThreadExecutor();
+  private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    runExecutor.shutdownNow();
+    callbackExecutor.shutdownNow();
+  }
+
+  /**
+   * Translates by upper casing, on a background thread. Texts starting with "fail" fail, and the
+   * held texts are only translated once {@link #complete} is called.
+   */
+  private class FakeTranslator implements BulkTranslationService.Translator {
+    private final Set<String> heldTexts = new HashSet<>();
+    private final Map<String, Callback> heldCallbacks = new HashMap<>();
+    private final Map<String, Integer> calls = new HashMap<>();
+
+    FakeTranslator hold(String... texts) {
+      heldTexts.addAll(Arrays.asList(texts));
+      return this;
+    }
+
+    @Override
+    public synchronized void translate(final String text, final Callback callback) {
+      Integer count = calls.get(text);
+      calls.put(text, count == null ? 1 : count + 1);
+      if (heldTexts.contains(text)) {
+        heldCallbacks.put(text, callback);
+        notifyAll();
+        return;
+      }
+      callbackExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              FakeTranslator.this.complete(text, callback);
+            }
+          });
+    }
+
+    synchronized int getCalls(String text) {
+      Integer count = calls.get(text);
+      return count == null ? 0 : count;
+    }
+
+    synchronized void awaitHeld(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+      while (heldCallbacks.size() < count) {
+        long remainingMs = deadline - System.currentTimeMillis();
+        assertTrue("Timed out waiting for the held texts", remainingMs > 0);
+        wait(remainingMs);
+      }
+    }
+
+    void complete(String text) {
+      Callback callback;
+      synchronized (this) {
+        callback = heldCallbacks.remove(text);
+      }
+      complete(text, callback);
+    }
+
+    private void complete(String text, Callback callback) {
+      if (text.startsWith("fail")) {
+        callback.onFailure(new IllegalStateException(text));
+      } else {
+        callback.onSuccess(text.toUpperCase(Locale.US));
+      }
+    }
+  }
+
+  /** Records the results, checking that they are emitted in input order. */
+  private static class RecordingListener implements BulkTranslationService.ResultListener {
+    final List<BulkTranslationService.Result> results =
+        Collections.synchronizedList(new ArrayList<BulkTranslationService.Result>());
+
+    @Override
+    public void onResult(BulkTranslationService.Result result, long numCompleted) {
+      assertEquals(results.size(), result.index);
+      assertEquals(result.index + 1, numCompleted);
+      results.add(result);
+    }
+  }
+
+  /** Counts the texts pulled from the input. */
+  private static class CountingIterator implements Iterator<String> {
+    final AtomicInteger pulled = new AtomicInteger();
+    private final Iterator<String> texts;
+
+    CountingIterator(List<String> texts) {
+      this.texts = texts.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return texts.hasNext();
+    }
+
+    @Override
+    public String next() {
+      pulled.incrementAndGet();
+      return texts.next();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private Future<BulkTranslationService.Report> start(
+      final BulkTranslationService service,
+      final Iterator<String> texts,
+      final BulkTranslationService.ResultListener listener) {
+    return runExecutor.submit(
+        new Callable<BulkTranslationService.Report>() {
+          @Override
+          public BulkTranslationService.Report call() throws Exception {
+            return service.run(texts, listener);
+          }
+        });
+  }
+
+  @Test
+  public void run_emitsResultsInInputOrder() throws Exception {
+    FakeTranslator translator = new FakeTranslator().hold("a", "b", "c");
+    RecordingListener listener = new RecordingListener();
+    Future<BulkTranslationService.Report> report =
+        start(
+            new BulkTranslationService(translator, 3),
+            Arrays.asList("a", "b", "c", "d").iterator(),
+            listener);
+
+    translator.awaitHeld(3);
+    // Nothing is emitted before the first text is translated.
+    translator.complete("c");
+    translator.complete("b");
+    assertTrue(listener.results.isEmpty());
+    translator.complete("a");
+
+    assertEquals(4, report.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).numItems);
+    assertEquals(4, listener.results.size());
+    String[] expected = {"A", "B", "C", "D"};
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], listener.results.get(i).translation);
+    }
+  }
+
+  @Test
+  public void run_translatesDuplicatesOnce() throws Exception {
+    FakeTranslator translator = new FakeTranslator().hold("a");
+    RecordingListener listener = new RecordingListener();
+    Future<BulkTranslationService.Report> report =
+        start(
+            new BulkTranslationService(translator, 2),
+            Arrays.asList("a", "b", "a", "b", "a").iterator(),
+            listener);
+
+    // Duplicates are emitted whether they arrive while their text is in flight or after.
+    translator.awaitHeld(1);
+    translator.complete("a");
+
+    BulkTranslationService.Report result = report.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertEquals(1, translator.getCalls("a"));
+    assertEquals(1, translator.getCalls("b"));
+    assertEquals(5, result.numItems);
+    assertEquals(2, result.numTranslated);
+    boolean[] expectedDuplicates = {false, false, true, true, true};
+    for (int i = 0; i < expectedDuplicates.length; i++) {
+      BulkTranslationService.Result itemResult = listener.results.get(i);
+      assertEquals(expectedDuplicates[i], itemResult.duplicate);
+      assertEquals(itemResult.text.toUpperCase(Locale.US), itemResult.translation);
+    }
+  }
+
+  @Test
+  public void run_stopsPullingTextsWhileTheFirstIsInFlight() throws Exception {
+    int maxConcurrency = 2;
+    int windowSize = maxConcurrency * BulkTranslationService.WINDOW_PER_TRANSLATION;
+    List<String> texts = new ArrayList<>();
+    for (int i = 0; i < windowSize * 4; i++) {
+      texts.add("text" + i);
+    }
+    FakeTranslator translator = new FakeTranslator().hold("text0");
+    CountingIterator iterator = new CountingIterator(texts);
+    RecordingListener listener = new RecordingListener();
+    Future<BulkTranslationService.Report> report =
+        start(new BulkTranslationService(translator, maxConcurrency), iterator, listener);
+
+    translator.awaitHeld(1);
+    // Gives the run time to pull more texts than it should.
+    Thread.sleep(200);
+    assertEquals(windowSize, iterator.pulled.get());
+    assertTrue(listener.results.isEmpty());
+
+    translator.complete("text0");
+    assertEquals(texts.size(), report.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).numItems);
+    assertEquals(texts.size(), iterator.pulled.get());
+    assertEquals(texts.size(), listener.results.size());
+  }
+
+  @Test
+  public void run_reportsFailuresOnEachOccurrence() throws Exception {
+    FakeTranslator translator = new FakeTranslator();
+    RecordingListener listener = new RecordingListener();
+    Future<BulkTranslationService.Report> report =
+        start(
+            new BulkTranslationService(translator, 2),
+            Arrays.asList("a", "fail", "b", "fail").iterator(),
+            listener);
+
+    BulkTranslationService.Report result = report.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertEquals(4, result.numItems);
+    assertEquals(3, result.numTranslated);
+    assertEquals(2, result.numFailed);
+    assertEquals(1, translator.getCalls("fail"));
+    BulkTranslationService.Result failure = listener.results.get(1);
+    assertNull(failure.translation);
+    assertTrue(failure.error instanceof IllegalStateException);
+    assertSame(failure.error, listener.results.get(3).error);
+    assertNull(listener.results.get(2).error);
+    assertEquals("B", listener.results.get(2).translation);
+  }
+}
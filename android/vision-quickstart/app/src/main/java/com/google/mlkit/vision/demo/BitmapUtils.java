@@ -84,6 +84,15 @@ public class BitmapUtils {
     return getBitmap(nv21Buffer, frameMetadata);
   }
 
+  /** Converts a YUV_420_888 image from Camera2 API to a bitmap. */
+  @RequiresApi(VERSION_CODES.KITKAT)
+  @Nullable
+  public static Bitmap getBitmap(Image image, FrameMetadata frameMetadata) {
+    ByteBuffer nv21Buffer =
+        yuv420ThreePlanesToNV21(image.getPlanes(), image.getWidth(), image.getHeight());
+    return getBitmap(nv21Buffer, frameMetadata);
+  }
+
   /** Rotates a bitmap if it is converted from a bytebuffer. */
   private static Bitmap rotateBitmap(
       Bitmap bitmap, int rotationDegrees, boolean flipX, boolean flipY) {
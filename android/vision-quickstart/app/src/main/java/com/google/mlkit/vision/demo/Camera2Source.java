@@ -0,0 +1,637 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+import com.google.android.gms.common.images.Size;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Camera2 counterpart of {@link CameraSource}. Frames are delivered by an {@link ImageReader} in
+ * the YUV_420_888 format and handed to the {@link VisionImageProcessor} as is, without being copied
+ * to an NV21 buffer first.
+ *
+ * <p>The processor keeps at most two images (see {@link VisionImageProcessor#processMediaImage}),
+ * the one being processed and the latest pending one, so the reader needs at least one more buffer
+ * for the camera to keep producing frames. The images are closed when the processor releases them,
+ * and the reader only once all of them are, so that the detector never reads a freed buffer.
+ *
+ * <p>Each frame carries its sensor timestamp in {@link FrameMetadata#getTimestampNanos()} when the
+ * camera reports timestamps in the {@link android.os.SystemClock#elapsedRealtimeNanos()} time base,
+ * which allows measuring the capture-to-result latency.
+ */
+public class Camera2Source {
+  public static final int CAMERA_FACING_BACK = CameraCharacteristics.LENS_FACING_BACK;
+  public static final int CAMERA_FACING_FRONT = CameraCharacteristics.LENS_FACING_FRONT;
+
+  public static final int IMAGE_FORMAT = ImageFormat.YUV_420_888;
+  public static final int DEFAULT_MAX_IMAGES = 4;
+  // One image being processed, one pending in the processor and one for acquireLatestImage().
+  public static final int MIN_MAX_IMAGES = 3;
+
+  private static final String TAG = "MIDemoApp:Camera2Source";
+
+  private static final int REQUESTED_FPS = 30;
+
+  private final Activity activity;
+  private final GraphicOverlay graphicOverlay;
+  private final CameraManager cameraManager;
+  private final Object processorLock = new Object();
+
+  private int facing = CAMERA_FACING_BACK;
+  private int maxImages = DEFAULT_MAX_IMAGES;
+  private int requestedPreviewWidth = CameraSource.DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH;
+  private int requestedPreviewHeight = CameraSource.DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT;
+
+  /** Rotation of the device, and thus the associated preview images captured from the device. */
+  private int rotationDegrees;
+
+  private Size previewSize;
+  @Nullable private Range<Integer> fpsRange;
+  private boolean isTimestampRealtime;
+
+  // Dedicated thread for the camera callbacks and the image reader.
+  private HandlerThread cameraThread;
+  private Handler cameraHandler;
+
+  private CameraDevice cameraDevice;
+  private CameraCaptureSession captureSession;
+  private FrameReader frameReader;
+  @Nullable private SurfaceHolder previewSurfaceHolder;
+
+  @GuardedBy("processorLock")
+  private VisionImageProcessor frameProcessor;
+
+  public Camera2Source(Activity activity, GraphicOverlay overlay) {
+    this.activity = activity;
+    graphicOverlay = overlay;
+    graphicOverlay.clear();
+    cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+  }
+
+  // ==============================================================================================
+  // Public
+  // ==============================================================================================
+
+  /**
+   * Stops the camera and releases the resources of the camera and underlying detector. The image
+   * reader is closed once the detector has released the frames it is still processing.
+   */
+  public void release() {
+    // Stops the camera outside of the processor lock, since the camera thread may be waiting on it.
+    // No frame is delivered to the processor once this returns.
+    stop();
+    synchronized (processorLock) {
+      cleanScreen();
+
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+        frameProcessor = null;
+      }
+    }
+  }
+
+  /**
+   * Opens the camera and starts sending frames to the underlying detector. The frames are not
+   * displayed.
+   *
+   * @throws IOException if the camera could not be found or opened
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  public synchronized Camera2Source start() throws IOException {
+    return start(/* surfaceHolder= */ null);
+  }
+
+  /**
+   * Opens the camera and starts sending frames to the underlying detector. The supplied surface
+   * holder, if not null, is used for the preview so frames can be displayed to the user.
+   *
+   * <p>The camera is opened asynchronously, so frames start arriving some time after this returns.
+   *
+   * @param surfaceHolder the surface holder to use for the preview frames
+   * @throws IOException if the camera could not be found or opened
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  public synchronized Camera2Source start(@Nullable SurfaceHolder surfaceHolder)
+      throws IOException {
+    if (cameraDevice != null || cameraThread != null) {
+      return this;
+    }
+
+    String cameraId = getIdForRequestedCamera(facing);
+    if (cameraId == null) {
+      throw new IOException("Could not find requested camera.");
+    }
+
+    CameraCharacteristics characteristics;
+    try {
+      characteristics = cameraManager.getCameraCharacteristics(cameraId);
+    } catch (CameraAccessException e) {
+      throw new IOException("Could not access camera characteristics.", e);
+    }
+
+    previewSize = selectPreviewSize(characteristics, requestedPreviewWidth, requestedPreviewHeight);
+    if (previewSize == null) {
+      throw new IOException("Could not find suitable preview size.");
+    }
+    Log.v(TAG, "Camera preview size: " + previewSize);
+
+    fpsRange = selectFpsRange(characteristics, REQUESTED_FPS);
+    Log.v(TAG, "Camera AE target FPS range: " + fpsRange);
+
+    Integer timestampSource =
+        characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+    isTimestampRealtime =
+        timestampSource != null
+            && timestampSource == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+
+    rotationDegrees = computeRotationDegrees(characteristics);
+
+    cameraThread = new HandlerThread(TAG);
+    cameraThread.start();
+    cameraHandler = new Handler(cameraThread.getLooper());
+
+    if (surfaceHolder != null) {
+      surfaceHolder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+    }
+    previewSurfaceHolder = surfaceHolder;
+    frameReader =
+        new FrameReader(
+            ImageReader.newInstance(
+                previewSize.getWidth(), previewSize.getHeight(), IMAGE_FORMAT, maxImages));
+    frameReader.reader.setOnImageAvailableListener(
+        new ImageAvailableListener(frameReader), cameraHandler);
+
+    try {
+      cameraManager.openCamera(cameraId, new CameraStateCallback(), cameraHandler);
+    } catch (CameraAccessException e) {
+      stop();
+      throw new IOException("Could not open camera.", e);
+    }
+    return this;
+  }
+
+  /**
+   * Closes the camera and stops sending frames to the underlying frame detector.
+   *
+   * <p>This camera source may be restarted again by calling {@link #start()} or {@link
+   * #start(SurfaceHolder)}.
+   *
+   * <p>Call {@link #release()} instead to completely shut down this camera source and release the
+   * resources of the underlying detector.
+   */
+  public void stop() {
+    HandlerThread thread;
+    synchronized (this) {
+      if (captureSession != null) {
+        captureSession.close();
+        captureSession = null;
+      }
+      if (cameraDevice != null) {
+        cameraDevice.close();
+        cameraDevice = null;
+      }
+      thread = cameraThread;
+      cameraThread = null;
+      cameraHandler = null;
+      previewSurfaceHolder = null;
+    }
+
+    if (thread != null) {
+      thread.quitSafely();
+      try {
+        // Wait for the thread to complete to ensure that no frame is delivered after stop. This
+        // needs to run outside of synchronization, since the camera callbacks acquire this lock.
+        thread.join();
+      } catch (InterruptedException e) {
+        Log.d(TAG, "Camera thread interrupted on release.");
+      }
+    }
+
+    synchronized (this) {
+      if (frameReader != null && cameraThread == null) {
+        // The frames still held by the processor are read until released.
+        frameReader.closeWhenIdle();
+        frameReader = null;
+      }
+    }
+  }
+
+  /** Changes the facing of the camera. */
+  public synchronized void setFacing(int facing) {
+    if ((facing != CAMERA_FACING_BACK) && (facing != CAMERA_FACING_FRONT)) {
+      throw new IllegalArgumentException("Invalid camera: " + facing);
+    }
+    this.facing = facing;
+  }
+
+  /**
+   * Sets the number of images the {@link ImageReader} can hold at once. Takes effect the next time
+   * the camera is started.
+   */
+  public synchronized void setMaxImages(int maxImages) {
+    Preconditions.checkArgument(
+        maxImages >= MIN_MAX_IMAGES, "maxImages must be at least " + MIN_MAX_IMAGES);
+    this.maxImages = maxImages;
+  }
+
+  /**
+   * Sets the desired size of the frames. The closest supported size is used. Takes effect the next
+   * time the camera is started.
+   */
+  public synchronized void setRequestedPreviewSize(int width, int height) {
+    Preconditions.checkArgument(width > 0 && height > 0, "preview size must be positive");
+    requestedPreviewWidth = width;
+    requestedPreviewHeight = height;
+  }
+
+  /** Returns the preview size that is currently in use by the underlying camera. */
+  public Size getPreviewSize() {
+    return previewSize;
+  }
+
+  /**
+   * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or {@link
+   * #CAMERA_FACING_FRONT}.
+   */
+  public int getCameraFacing() {
+    return facing;
+  }
+
+  public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
+    synchronized (processorLock) {
+      cleanScreen();
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+      frameProcessor = processor;
+    }
+  }
+
+  // ==============================================================================================
+  // Camera setup
+  // ==============================================================================================
+
+  /**
+   * Gets the id for the camera specified by the direction it is facing. Returns null if no such
+   * camera was found.
+   *
+   * @param facing the desired camera (front-facing or rear-facing)
+   */
+  @Nullable
+  private String getIdForRequestedCamera(int facing) throws IOException {
+    try {
+      for (String cameraId : cameraManager.getCameraIdList()) {
+        Integer lensFacing =
+            cameraManager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+        if (lensFacing != null && lensFacing == facing) {
+          return cameraId;
+        }
+      }
+    } catch (CameraAccessException e) {
+      throw new IOException("Could not list cameras.", e);
+    }
+    return null;
+  }
+
+  /** Returns the YUV_420_888 output sizes supported by the camera. */
+  public static List<Size> getSupportedPreviewSizes(CameraCharacteristics characteristics) {
+    List<Size> sizes = new ArrayList<>();
+    StreamConfigurationMap map =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    if (map == null) {
+      return sizes;
+    }
+    android.util.Size[] outputSizes = map.getOutputSizes(IMAGE_FORMAT);
+    if (outputSizes == null) {
+      return sizes;
+    }
+    for (android.util.Size size : outputSizes) {
+      sizes.add(new Size(size.getWidth(), size.getHeight()));
+    }
+    return sizes;
+  }
+
+  /**
+   * Selects the most suitable preview size, given the desired width and height, the same way as
+   * {@link CameraSource#selectSizePair}.
+   */
+  @Nullable
+  private static Size selectPreviewSize(
+      CameraCharacteristics characteristics, int desiredWidth, int desiredHeight) {
+    Size selectedSize = null;
+    int minDiff = Integer.MAX_VALUE;
+    for (Size size : getSupportedPreviewSizes(characteristics)) {
+      int diff =
+          Math.abs(size.getWidth() - desiredWidth) + Math.abs(size.getHeight() - desiredHeight);
+      if (diff < minDiff) {
+        selectedSize = size;
+        minDiff = diff;
+      }
+    }
+    return selectedSize;
+  }
+
+  /**
+   * Selects the most suitable AE target FPS range, given the desired frames per second. Same
+   * heuristic as in {@link CameraSource}: the upper bound is as close as possible to the desired
+   * fps while the lower bound is as small as possible to properly expose frames in low light.
+   */
+  @Nullable
+  private static Range<Integer> selectFpsRange(
+      CameraCharacteristics characteristics, int desiredFps) {
+    Range<Integer>[] ranges =
+        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+    if (ranges == null) {
+      return null;
+    }
+    Range<Integer> selectedFpsRange = null;
+    int minUpperBoundDiff = Integer.MAX_VALUE;
+    int minLowerBound = Integer.MAX_VALUE;
+    for (Range<Integer> range : ranges) {
+      int upperBoundDiff = Math.abs(desiredFps - range.getUpper());
+      int lowerBound = range.getLower();
+      if (upperBoundDiff <= minUpperBoundDiff && lowerBound <= minLowerBound) {
+        selectedFpsRange = range;
+        minUpperBoundDiff = upperBoundDiff;
+        minLowerBound = lowerBound;
+      }
+    }
+    return selectedFpsRange;
+  }
+
+  /** Calculates the rotation of the camera frames relative to the current display orientation. */
+  private int computeRotationDegrees(CameraCharacteristics characteristics) {
+    WindowManager windowManager = (WindowManager) activity.getSystemService(Context.WINDOW_SERVICE);
+    int degrees = 0;
+    int rotation = windowManager.getDefaultDisplay().getRotation();
+    switch (rotation) {
+      case Surface.ROTATION_0:
+        degrees = 0;
+        break;
+      case Surface.ROTATION_90:
+        degrees = 90;
+        break;
+      case Surface.ROTATION_180:
+        degrees = 180;
+        break;
+      case Surface.ROTATION_270:
+        degrees = 270;
+        break;
+      default:
+        Log.e(TAG, "Bad rotation value: " + rotation);
+    }
+
+    Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    int orientation = sensorOrientation != null ? sensorOrientation : 0;
+    if (facing == CAMERA_FACING_FRONT) {
+      return (orientation + degrees) % 360;
+    } else {
+      return (orientation - degrees + 360) % 360;
+    }
+  }
+
+  private synchronized void createCaptureSession(CameraDevice camera) {
+    if (cameraDevice != camera || frameReader == null) {
+      // Stopped while the camera was being opened.
+      return;
+    }
+    List<Surface> targets = new ArrayList<>();
+    targets.add(frameReader.reader.getSurface());
+    if (previewSurfaceHolder != null) {
+      targets.add(previewSurfaceHolder.getSurface());
+    }
+    try {
+      CaptureRequest.Builder requestBuilder =
+          camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+      for (Surface target : targets) {
+        requestBuilder.addTarget(target);
+      }
+      if (fpsRange != null) {
+        requestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+      }
+      requestBuilder.set(
+          CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+      final CaptureRequest request = requestBuilder.build();
+
+      camera.createCaptureSession(
+          targets,
+          new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(@NonNull CameraCaptureSession session) {
+              synchronized (Camera2Source.this) {
+                if (cameraDevice != camera) {
+                  session.close();
+                  return;
+                }
+                captureSession = session;
+                try {
+                  session.setRepeatingRequest(request, /* listener= */ null, cameraHandler);
+                } catch (CameraAccessException | IllegalStateException e) {
+                  Log.e(TAG, "Failed to start repeating request.", e);
+                }
+              }
+            }
+
+            @Override
+            public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+              Log.e(TAG, "Failed to configure capture session with targets: " + targets);
+            }
+          },
+          cameraHandler);
+    } catch (CameraAccessException e) {
+      Log.e(TAG, "Failed to create capture session.", e);
+    }
+  }
+
+  // ==============================================================================================
+  // Frame processing
+  // ==============================================================================================
+
+  private class CameraStateCallback extends CameraDevice.StateCallback {
+    @Override
+    public void onOpened(@NonNull CameraDevice camera) {
+      synchronized (Camera2Source.this) {
+        if (cameraThread == null) {
+          // Stopped while the camera was being opened.
+          camera.close();
+          return;
+        }
+        cameraDevice = camera;
+      }
+      createCaptureSession(camera);
+    }
+
+    @Override
+    public void onDisconnected(@NonNull CameraDevice camera) {
+      Log.w(TAG, "Camera disconnected.");
+      closeCamera(camera);
+    }
+
+    @Override
+    public void onError(@NonNull CameraDevice camera, int error) {
+      Log.e(TAG, "Camera error: " + error);
+      closeCamera(camera);
+    }
+
+    private void closeCamera(CameraDevice camera) {
+      synchronized (Camera2Source.this) {
+        if (cameraDevice == camera) {
+          cameraDevice = null;
+          captureSession = null;
+        }
+      }
+      camera.close();
+    }
+  }
+
+  /**
+   * An image reader with the number of its images not released yet, closed once all of them are,
+   * since closing the reader frees the buffers of its images.
+   */
+  private static class FrameReader {
+    final ImageReader reader;
+
+    @GuardedBy("this")
+    private int openImages;
+
+    @GuardedBy("this")
+    private boolean closeRequested;
+
+    FrameReader(ImageReader reader) {
+      this.reader = reader;
+    }
+
+    /** Acquires the latest image, to give back with {@link #release(Image)}, or null if none. */
+    @Nullable
+    synchronized Image acquireLatestImage() {
+      if (closeRequested) {
+        return null;
+      }
+      // Skips the frames that arrived while the previous one was being handed over.
+      Image image = reader.acquireLatestImage();
+      if (image != null) {
+        openImages++;
+      }
+      return image;
+    }
+
+    synchronized void release(Image image) {
+      image.close();
+      openImages--;
+      if (closeRequested && openImages == 0) {
+        reader.close();
+      }
+    }
+
+    synchronized void closeWhenIdle() {
+      closeRequested = true;
+      if (openImages == 0) {
+        reader.close();
+      }
+    }
+  }
+
+  /** Called on the camera thread when the image reader has a new frame. */
+  private class ImageAvailableListener implements ImageReader.OnImageAvailableListener {
+    private final FrameReader frameReader;
+
+    ImageAvailableListener(FrameReader frameReader) {
+      this.frameReader = frameReader;
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+      final Image image;
+      try {
+        image = frameReader.acquireLatestImage();
+      } catch (IllegalStateException e) {
+        Log.w(TAG, "Skipping frame. All images of the reader are in use.", e);
+        return;
+      }
+      if (image == null) {
+        return;
+      }
+      // Releases the image once, whether the processor is done with it or never took it.
+      Runnable releaseImage =
+          new Runnable() {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            @Override
+            public void run() {
+              if (!released.getAndSet(true)) {
+                frameReader.release(image);
+              }
+            }
+          };
+
+      FrameMetadata frameMetadata =
+          new FrameMetadata.Builder()
+              .setWidth(image.getWidth())
+              .setHeight(image.getHeight())
+              .setRotation(rotationDegrees)
+              .setTimestampNanos(
+                  isTimestampRealtime ? image.getTimestamp() : FrameMetadata.UNKNOWN_TIMESTAMP)
+              .build();
+      try {
+        synchronized (processorLock) {
+          if (frameProcessor == null) {
+            releaseImage.run();
+            return;
+          }
+          frameProcessor.processMediaImage(image, frameMetadata, graphicOverlay, releaseImage);
+        }
+      } catch (Exception t) {
+        Log.e(TAG, "Exception thrown from receiver.", t);
+        releaseImage.run();
+      }
+    }
+  }
+
+  /** Cleans up graphicOverlay and child classes can do their cleanups as well . */
+  private void cleanScreen() {
+    graphicOverlay.clear();
+  }
+}
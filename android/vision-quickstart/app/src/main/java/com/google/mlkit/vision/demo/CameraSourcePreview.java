@@ -23,11 +23,12 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.ViewGroup;
+import androidx.annotation.Nullable;
 import com.google.android.gms.common.images.Size;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import java.io.IOException;
 
-/** Preview the camera image in the screen. */
+/** Preview the camera image in the screen, from a Camera1 or a Camera2 source. */
 public class CameraSourcePreview extends ViewGroup {
   private static final String TAG = "MIDemoApp:Preview";
 
@@ -36,6 +37,7 @@ public class CameraSourcePreview extends ViewGroup {
   private boolean startRequested;
   private boolean surfaceAvailable;
   private CameraSource cameraSource;
+  private Camera2Source camera2Source;
 
   private GraphicOverlay overlay;
 
@@ -52,6 +54,7 @@ public class CameraSourcePreview extends ViewGroup {
 
   private void start(CameraSource cameraSource) throws IOException {
     this.cameraSource = cameraSource;
+    this.camera2Source = null;
 
     if (this.cameraSource != null) {
       startRequested = true;
@@ -64,10 +67,24 @@ public class CameraSourcePreview extends ViewGroup {
     start(cameraSource);
   }
 
+  public void start(Camera2Source camera2Source, GraphicOverlay overlay) throws IOException {
+    this.overlay = overlay;
+    this.camera2Source = camera2Source;
+    this.cameraSource = null;
+
+    if (this.camera2Source != null) {
+      startRequested = true;
+      startIfReady();
+    }
+  }
+
   public void stop() {
     if (cameraSource != null) {
       cameraSource.stop();
     }
+    if (camera2Source != null) {
+      camera2Source.stop();
+    }
   }
 
   public void release() {
@@ -75,12 +92,19 @@ public class CameraSourcePreview extends ViewGroup {
       cameraSource.release();
       cameraSource = null;
     }
+    if (camera2Source != null) {
+      camera2Source.release();
+      camera2Source = null;
+    }
     surfaceView.getHolder().getSurface().release();
   }
 
   private void startIfReady() throws IOException, SecurityException {
     if (startRequested && surfaceAvailable) {
-      if (PreferenceUtils.isCameraLiveViewportEnabled(context)) {
+      boolean isLiveViewportEnabled = PreferenceUtils.isCameraLiveViewportEnabled(context);
+      if (camera2Source != null) {
+        camera2Source.start(isLiveViewportEnabled ? surfaceView.getHolder() : null);
+      } else if (isLiveViewportEnabled) {
         cameraSource.start(surfaceView.getHolder());
       } else {
         cameraSource.start();
@@ -88,10 +112,13 @@ public class CameraSourcePreview extends ViewGroup {
       requestLayout();
 
       if (overlay != null) {
-        Size size = cameraSource.getPreviewSize();
+        Size size = getPreviewSize();
         int min = Math.min(size.getWidth(), size.getHeight());
         int max = Math.max(size.getWidth(), size.getHeight());
-        boolean isImageFlipped = cameraSource.getCameraFacing() == CameraSource.CAMERA_FACING_FRONT;
+        boolean isImageFlipped =
+            camera2Source != null
+                ? camera2Source.getCameraFacing() == Camera2Source.CAMERA_FACING_FRONT
+                : cameraSource.getCameraFacing() == CameraSource.CAMERA_FACING_FRONT;
         if (isPortraitMode()) {
           // Swap width and height sizes when in portrait, since it will be rotated by 90 degrees.
           // The camera preview and the image being processed have the same size.
@@ -129,12 +156,10 @@ public class CameraSourcePreview extends ViewGroup {
   protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
     int width = 320;
     int height = 240;
-    if (cameraSource != null) {
-      Size size = cameraSource.getPreviewSize();
-      if (size != null) {
-        width = size.getWidth();
-        height = size.getHeight();
-      }
+    Size size = getPreviewSize();
+    if (size != null) {
+      width = size.getWidth();
+      height = size.getHeight();
     }
 
     // Swap width and height sizes when in portrait, since it will be rotated 90 degrees
@@ -161,6 +186,14 @@ public class CameraSourcePreview extends ViewGroup {
     }
   }
 
+  @Nullable
+  private Size getPreviewSize() {
+    if (camera2Source != null) {
+      return camera2Source.getPreviewSize();
+    }
+    return cameraSource != null ? cameraSource.getPreviewSize() : null;
+  }
+
   private boolean isPortraitMode() {
     int orientation = context.getResources().getConfiguration().orientation;
     if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
@@ -19,9 +19,12 @@ package com.google.mlkit.vision.demo;
 /** Describing a frame info. */
 public class FrameMetadata {
 
+  public static final long UNKNOWN_TIMESTAMP = -1;
+
   private final int width;
   private final int height;
   private final int rotation;
+  private final long timestampNanos;
 
   public int getWidth() {
     return width;
@@ -35,10 +38,20 @@ public class FrameMetadata {
     return rotation;
   }
 
-  private FrameMetadata(int width, int height, int rotation) {
+  /**
+   * Returns the time the frame was captured by the sensor, in the {@link
+   * android.os.SystemClock#elapsedRealtimeNanos()} time base, or {@link #UNKNOWN_TIMESTAMP} if the
+   * camera doesn't report comparable timestamps.
+   */
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  private FrameMetadata(int width, int height, int rotation, long timestampNanos) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
+    this.timestampNanos = timestampNanos;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -47,6 +60,7 @@ public class FrameMetadata {
     private int width;
     private int height;
     private int rotation;
+    private long timestampNanos = UNKNOWN_TIMESTAMP;
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -63,8 +77,13 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setTimestampNanos(long timestampNanos) {
+      this.timestampNanos = timestampNanos;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation);
+      return new FrameMetadata(width, height, rotation, timestampNanos);
     }
   }
 }
@@ -20,6 +20,8 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import androidx.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
 
 /** Graphic instance for rendering inference info (latency, FPS, resolution) in an overlay view. */
 public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
@@ -34,17 +36,29 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
 
   // Only valid when a stream of input images is being processed. Null for single image mode.
   @Nullable private final Integer framesPerSecond;
+  // Drawn under the latencies, e.g. the state of the resolution auto tuner.
+  private final List<String> extraInfo;
 
   public InferenceInfoGraphic(
       GraphicOverlay overlay,
       long frameLatency,
       long detectorLatency,
       @Nullable Integer framesPerSecond) {
+    this(overlay, frameLatency, detectorLatency, framesPerSecond, Collections.emptyList());
+  }
+
+  public InferenceInfoGraphic(
+      GraphicOverlay overlay,
+      long frameLatency,
+      long detectorLatency,
+      @Nullable Integer framesPerSecond,
+      List<String> extraInfo) {
     super(overlay);
     this.overlay = overlay;
     this.frameLatency = frameLatency;
     this.detectorLatency = detectorLatency;
     this.framesPerSecond = framesPerSecond;
+    this.extraInfo = extraInfo;
     textPaint = new Paint();
     textPaint.setColor(TEXT_COLOR);
     textPaint.setTextSize(TEXT_SIZE);
@@ -77,5 +91,9 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
       canvas.drawText(
           "Detector latency: " + detectorLatency + " ms", x, y + TEXT_SIZE * 2, textPaint);
     }
+
+    for (int i = 0; i < extraInfo.size(); i++) {
+      canvas.drawText(extraInfo.get(i), x, y + TEXT_SIZE * (3 + i), textPaint);
+    }
   }
 }
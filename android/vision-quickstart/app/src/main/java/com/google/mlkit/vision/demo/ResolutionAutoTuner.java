@@ -0,0 +1,315 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.Build.VERSION_CODES;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.demo.java.VisionProcessorBase;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks the largest analysis resolution for which the detector meets a latency target.
+ *
+ * <p>Starting from the smallest supported size, the tuner skips a few warm-up frames after every
+ * resolution change, then measures the detector latency over a window of frames. As long as the
+ * 90th percentile latency meets the target, it steps up to the next larger size. Once a size misses
+ * the target, it settles on the previous one.
+ *
+ * <p>While settled, it keeps watching the latency and steps down again if it drifts above the
+ * target, or if the device reports a severe thermal status. When the thermal status goes back to
+ * normal, tuning restarts from the current size. When the latency stays well under the target for
+ * a while, e.g. once the scene gets simpler, it probes the next larger size again. Each failed
+ * probe doubles the wait before the next one, so that it doesn't keep bouncing off a size.
+ *
+ * <p>Every change of resolution is recorded as a {@link Decision}, see {@link #getDecisions()}.
+ * This class is not thread safe and is expected to be used on the main thread, where {@link
+ * VisionProcessorBase} reports the latencies.
+ */
+@RequiresApi(VERSION_CODES.LOLLIPOP)
+public class ResolutionAutoTuner
+    implements VisionProcessorBase.LatencyListener, VisionProcessorBase.InferenceInfoSource {
+
+  /** Notified when the tuner wants the analysis resolution to change. */
+  public interface Listener {
+    void onResolutionChanged(Size resolution);
+  }
+
+  /** A resolution change made by the tuner, along with the latencies that triggered it. */
+  public static class Decision {
+    public final long timestampMs;
+    public final Size from;
+    public final Size to;
+    public final String reason;
+    // Detector latency percentiles measured at the previous resolution, -1 for thermal decisions.
+    public final long p50LatencyMs;
+    public final long p90LatencyMs;
+
+    Decision(Size from, Size to, String reason, long p50LatencyMs, long p90LatencyMs) {
+      this.timestampMs = SystemClock.elapsedRealtime();
+      this.from = from;
+      this.to = to;
+      this.reason = reason;
+      this.p50LatencyMs = p50LatencyMs;
+      this.p90LatencyMs = p90LatencyMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s -> %s (%s, p50=%dms, p90=%dms)",
+          from,
+          to,
+          reason,
+          p50LatencyMs,
+          p90LatencyMs);
+    }
+  }
+
+  private static final String TAG = "ResolutionAutoTuner";
+
+  // Frames ignored after each resolution change, while the camera and detector settle.
+  private static final int WARM_UP_FRAMES = 10;
+  // Frames measured to decide whether a resolution meets the target.
+  private static final int MEASURED_FRAMES = 30;
+  // How much the latency may exceed the target once settled before stepping down.
+  private static final float DRIFT_TOLERANCE = 0.2f;
+  // Share of the target the latency must stay under, once settled, to probe a larger size again.
+  private static final float PROBE_UP_HEADROOM = 0.6f;
+  // Measurement windows under the headroom before probing up, doubled after each failed probe.
+  private static final int MIN_WINDOWS_BEFORE_PROBING_UP = 2;
+  private static final int MAX_WINDOWS_BEFORE_PROBING_UP = 64;
+  private static final int MAX_DECISIONS = 20;
+  // Decisions shown in the inference info.
+  private static final int SHOWN_DECISIONS = 3;
+
+  private enum State {
+    // Measuring the current size, stepping up while the target is met.
+    PROBING,
+    // Settled on the current size, watching for latency drift.
+    SETTLED,
+  }
+
+  private final List<Size> sizes;
+  private final long targetLatencyMs;
+  private final Listener listener;
+  private final long[] latencies = new long[MEASURED_FRAMES];
+  private final List<Decision> decisions = new ArrayList<>();
+
+  private State state = State.PROBING;
+  private int sizeIndex;
+  private int framesToSkip = WARM_UP_FRAMES;
+  private int numLatencies;
+  private boolean isThrottled;
+  // Whether the current probe stepped up from a size that was settled.
+  private boolean isProbingUpFromSettled;
+  private int windowsUnderHeadroom;
+  private int windowsBeforeProbingUp = MIN_WINDOWS_BEFORE_PROBING_UP;
+
+  /**
+   * Creates a tuner that targets the given detector latency.
+   *
+   * @param supportedSizes the sizes the camera supports for analysis, in any order
+   * @param targetLatencyMs the 90th percentile detector latency to stay under
+   * @param listener notified when the analysis resolution should change
+   */
+  public ResolutionAutoTuner(List<Size> supportedSizes, long targetLatencyMs, Listener listener) {
+    Preconditions.checkArgument(!supportedSizes.isEmpty(), "no supported sizes");
+    Preconditions.checkArgument(targetLatencyMs > 0, "target latency must be positive");
+    sizes = new ArrayList<>(supportedSizes);
+    Collections.sort(sizes, (a, b) -> Long.compare(getArea(a), getArea(b)));
+    this.targetLatencyMs = targetLatencyMs;
+    this.listener = listener;
+  }
+
+  /** Creates a tuner whose detector latency target allows processing the given frame rate. */
+  public static ResolutionAutoTuner forTargetFps(
+      List<Size> supportedSizes, int targetFps, Listener listener) {
+    Preconditions.checkArgument(targetFps > 0, "target FPS must be positive");
+    return new ResolutionAutoTuner(supportedSizes, 1000 / targetFps, listener);
+  }
+
+  /** Returns the resolution the analysis should currently use. */
+  public Size getCurrentResolution() {
+    return sizes.get(sizeIndex);
+  }
+
+  /** Returns whether the tuner has settled on a resolution. */
+  public boolean isSettled() {
+    return state == State.SETTLED;
+  }
+
+  /** Returns the most recent resolution changes, oldest first. */
+  public List<Decision> getDecisions() {
+    return Collections.unmodifiableList(decisions);
+  }
+
+  /**
+   * Discards the latencies measured so far, e.g. after the analysis restarted, so that the next
+   * frames are treated as warm-up.
+   */
+  public void restartMeasurements() {
+    resetMeasurements();
+  }
+
+  /** Returns the current resolution and state, followed by the most recent decisions. */
+  @Override
+  public List<String> getInferenceInfo() {
+    List<String> info = new ArrayList<>();
+    info.add(
+        "Auto resolution: "
+            + getCurrentResolution()
+            + (isThrottled ? " (throttled)" : isSettled() ? " (settled)" : " (probing)"));
+    for (int i = Math.max(0, decisions.size() - SHOWN_DECISIONS); i < decisions.size(); i++) {
+      Decision decision = decisions.get(i);
+      info.add(
+          String.format(
+              Locale.US,
+              "%s -> %s: %s, p90=%dms",
+              decision.from,
+              decision.to,
+              decision.reason,
+              decision.p90LatencyMs));
+    }
+    return info;
+  }
+
+  @Override
+  public void onFrameProcessed(long frameLatencyMs, long detectorLatencyMs) {
+    if (framesToSkip > 0) {
+      framesToSkip--;
+      return;
+    }
+    latencies[numLatencies++] = detectorLatencyMs;
+    if (numLatencies < MEASURED_FRAMES) {
+      return;
+    }
+
+    long[] sorted = Arrays.copyOf(latencies, numLatencies);
+    Arrays.sort(sorted);
+    long p50 = percentile(sorted, 50);
+    long p90 = percentile(sorted, 90);
+    numLatencies = 0;
+
+    if (state == State.PROBING) {
+      if (p90 > targetLatencyMs) {
+        if (isProbingUpFromSettled) {
+          // Waits longer before trying this size again.
+          windowsBeforeProbingUp =
+              Math.min(MAX_WINDOWS_BEFORE_PROBING_UP, windowsBeforeProbingUp * 2);
+        }
+        settle();
+        if (sizeIndex > 0) {
+          changeResolution(sizeIndex - 1, "missed target", p50, p90);
+        } else {
+          Log.d(TAG, "Smallest resolution misses target, p90=" + p90 + "ms");
+        }
+      } else if (sizeIndex < sizes.size() - 1 && !isThrottled) {
+        if (isProbingUpFromSettled) {
+          isProbingUpFromSettled = false;
+          windowsBeforeProbingUp = MIN_WINDOWS_BEFORE_PROBING_UP;
+        }
+        changeResolution(sizeIndex + 1, "met target", p50, p90);
+      } else {
+        settle();
+        Log.d(TAG, "Settled on " + getCurrentResolution() + ", p90=" + p90 + "ms");
+      }
+    } else if (p90 > targetLatencyMs * (1 + DRIFT_TOLERANCE) && sizeIndex > 0) {
+      windowsUnderHeadroom = 0;
+      changeResolution(sizeIndex - 1, "latency drift", p50, p90);
+    } else if (p90 <= targetLatencyMs * PROBE_UP_HEADROOM
+        && sizeIndex < sizes.size() - 1
+        && !isThrottled) {
+      if (++windowsUnderHeadroom >= windowsBeforeProbingUp) {
+        state = State.PROBING;
+        isProbingUpFromSettled = true;
+        windowsUnderHeadroom = 0;
+        changeResolution(sizeIndex + 1, "latency dropped", p50, p90);
+      }
+    } else {
+      windowsUnderHeadroom = 0;
+    }
+  }
+
+  /**
+   * Updates the thermal status of the device, one of the {@code PowerManager.THERMAL_STATUS_*}
+   * values. Steps down one size when the status becomes severe, and resumes probing larger sizes
+   * once it is back to normal.
+   */
+  @RequiresApi(VERSION_CODES.Q)
+  public void onThermalStatusChanged(int status) {
+    if (!isThrottled && status >= PowerManager.THERMAL_STATUS_SEVERE) {
+      isThrottled = true;
+      settle();
+      if (sizeIndex > 0) {
+        changeResolution(sizeIndex - 1, "thermal status " + status, -1, -1);
+      }
+    } else if (isThrottled && status <= PowerManager.THERMAL_STATUS_LIGHT) {
+      // Only resumes probing once the device has cooled down, to avoid oscillating around the
+      // severe threshold.
+      isThrottled = false;
+      state = State.PROBING;
+      isProbingUpFromSettled = false;
+      resetMeasurements();
+    }
+  }
+
+  private void settle() {
+    state = State.SETTLED;
+    isProbingUpFromSettled = false;
+    windowsUnderHeadroom = 0;
+  }
+
+  private void changeResolution(int newSizeIndex, String reason, long p50, long p90) {
+    Decision decision =
+        new Decision(sizes.get(sizeIndex), sizes.get(newSizeIndex), reason, p50, p90);
+    Log.d(TAG, "Resolution change: " + decision);
+    if (decisions.size() >= MAX_DECISIONS) {
+      decisions.remove(0);
+    }
+    decisions.add(decision);
+
+    sizeIndex = newSizeIndex;
+    resetMeasurements();
+    listener.onResolutionChanged(getCurrentResolution());
+  }
+
+  private void resetMeasurements() {
+    numLatencies = 0;
+    framesToSkip = WARM_UP_FRAMES;
+  }
+
+  private static long percentile(long[] sorted, int percentile) {
+    int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  private static long getArea(Size size) {
+    return (long) size.getWidth() * size.getHeight();
+  }
+}
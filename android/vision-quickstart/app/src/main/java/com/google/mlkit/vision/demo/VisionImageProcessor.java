@@ -17,6 +17,7 @@
 package com.google.mlkit.vision.demo;
 
 import android.graphics.Bitmap;
+import android.media.Image;
 import android.os.Build.VERSION_CODES;
 import androidx.annotation.RequiresApi;
 import androidx.camera.core.ImageProxy;
@@ -34,6 +35,19 @@ public interface VisionImageProcessor {
       ByteBuffer data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay)
       throws MlKitException;
 
+  /**
+   * Processes a YUV_420_888 image, e.g. used for Camera2 live preview case. The processor runs
+   * {@code releaseImage} once it no longer reads the image, even if stopped in the meantime, and
+   * the caller closes the image then.
+   */
+  @RequiresApi(VERSION_CODES.KITKAT)
+  void processMediaImage(
+      Image image,
+      FrameMetadata frameMetadata,
+      GraphicOverlay graphicOverlay,
+      Runnable releaseImage)
+      throws MlKitException;
+
   /** Processes ImageProxy image data, e.g. used for CameraX live preview case. */
   @RequiresApi(VERSION_CODES.KITKAT)
   void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) throws MlKitException;
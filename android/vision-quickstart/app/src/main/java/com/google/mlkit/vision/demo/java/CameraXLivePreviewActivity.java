@@ -22,15 +22,23 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
+import android.os.PowerManager;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 import android.util.Log;
 import android.util.Size;
+import android.util.SparseArray;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemSelectedListener;
@@ -55,6 +63,7 @@ import com.google.mlkit.common.model.LocalModel;
 import com.google.mlkit.vision.demo.CameraXViewModel;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.ResolutionAutoTuner;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
@@ -99,6 +108,11 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
 
   private static final String STATE_SELECTED_MODEL = "selected_model";
 
+  // Frame rate the resolution auto tuner aims for when no target resolution is set in settings.
+  private static final int AUTO_TUNE_TARGET_FPS = 15;
+  // Largest analysis resolution considered by the auto tuner.
+  private static final int AUTO_TUNE_MAX_PIXELS = 1920 * 1080;
+
   private PreviewView previewView;
   private GraphicOverlay graphicOverlay;
 
@@ -107,6 +121,10 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   @Nullable private ImageAnalysis analysisUseCase;
   @Nullable private VisionImageProcessor imageProcessor;
   private boolean needUpdateGraphicOverlayImageSourceInfo;
+  // Resolution auto tuners by lens facing, kept while the activity lives so that switching lens or
+  // coming back to the activity doesn't restart tuning from the smallest size.
+  private final SparseArray<ResolutionAutoTuner> resolutionAutoTuners = new SparseArray<>();
+  @Nullable private PowerManager.OnThermalStatusChangedListener thermalStatusListener;
 
   //private String selectedModel = OBJECT_DETECTION;
   private String selectedModel = POSE_DETECTION;
@@ -265,6 +283,15 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   public void onResume() {
     super.onResume();
     bindAllCameraUseCases();
+    if (VERSION.SDK_INT >= VERSION_CODES.Q) {
+      thermalStatusListener =
+          status -> {
+            for (int i = 0; i < resolutionAutoTuners.size(); i++) {
+              resolutionAutoTuners.valueAt(i).onThermalStatusChanged(status);
+            }
+          };
+      getSystemService(PowerManager.class).addThermalStatusListener(thermalStatusListener);
+    }
   }
 
   @Override
@@ -273,6 +300,10 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     if (imageProcessor != null) {
       imageProcessor.stop();
     }
+    if (VERSION.SDK_INT >= VERSION_CODES.Q && thermalStatusListener != null) {
+      getSystemService(PowerManager.class).removeThermalStatusListener(thermalStatusListener);
+      thermalStatusListener = null;
+    }
   }
 
   @Override
@@ -419,8 +450,35 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
       return;
     }
 
+    ResolutionAutoTuner resolutionAutoTuner = getResolutionAutoTuner();
+    if (resolutionAutoTuner != null && imageProcessor instanceof VisionProcessorBase) {
+      VisionProcessorBase<?> visionProcessor = (VisionProcessorBase<?>) imageProcessor;
+      visionProcessor.setLatencyListener(resolutionAutoTuner);
+      visionProcessor.setInferenceInfoSource(resolutionAutoTuner);
+      resolutionAutoTuner.restartMeasurements();
+    }
+
+    bindImageAnalysisUseCase();
+  }
+
+  /**
+   * Binds a new image analysis use case feeding the current image processor, at the resolution set
+   * in settings or picked by the auto tuner. The processor and its detector are kept as is.
+   */
+  private void bindImageAnalysisUseCase() {
+    if (cameraProvider == null || imageProcessor == null) {
+      return;
+    }
+    if (analysisUseCase != null) {
+      cameraProvider.unbind(analysisUseCase);
+    }
+
+    ResolutionAutoTuner resolutionAutoTuner = getResolutionAutoTuner();
     ImageAnalysis.Builder builder = new ImageAnalysis.Builder();
     Size targetResolution = PreferenceUtils.getCameraXTargetResolution(this, lensFacing);
+    if (targetResolution == null && resolutionAutoTuner != null) {
+      targetResolution = toTargetRotation(resolutionAutoTuner.getCurrentResolution());
+    }
     if (targetResolution != null) {
       builder.setTargetResolution(targetResolution);
     }
@@ -456,6 +514,81 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     cameraProvider.bindToLifecycle(/* lifecycleOwner= */ this, cameraSelector, analysisUseCase);
   }
 
+  /**
+   * Returns the tuner that adjusts the analysis resolution of the selected lens to the detector
+   * latency, creating it if needed, or null if a target resolution is set in settings.
+   */
+  @Nullable
+  private ResolutionAutoTuner getResolutionAutoTuner() {
+    if (PreferenceUtils.getCameraXTargetResolution(this, lensFacing) != null) {
+      return null;
+    }
+    ResolutionAutoTuner resolutionAutoTuner = resolutionAutoTuners.get(lensFacing);
+    if (resolutionAutoTuner != null) {
+      return resolutionAutoTuner;
+    }
+    List<Size> sizes = getSupportedAnalysisSizes();
+    if (sizes.isEmpty()) {
+      return null;
+    }
+    int tunedLensFacing = lensFacing;
+    resolutionAutoTuner =
+        ResolutionAutoTuner.forTargetFps(
+            sizes,
+            AUTO_TUNE_TARGET_FPS,
+            resolution -> {
+              Log.d(TAG, "Auto tuned analysis resolution: " + resolution);
+              // The tuner is called from the detection success callback, so the analysis is only
+              // rebound once the callback returned.
+              previewView.post(
+                  () -> {
+                    if (lensFacing == tunedLensFacing) {
+                      bindImageAnalysisUseCase();
+                    }
+                  });
+            });
+    resolutionAutoTuners.put(lensFacing, resolutionAutoTuner);
+    return resolutionAutoTuner;
+  }
+
+  /** Returns the YUV_420_888 output sizes of the selected camera, up to 1080p. */
+  private List<Size> getSupportedAnalysisSizes() {
+    List<Size> sizes = new ArrayList<>();
+    CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+    int characteristicsLensFacing =
+        lensFacing == CameraSelector.LENS_FACING_FRONT
+            ? CameraCharacteristics.LENS_FACING_FRONT
+            : CameraCharacteristics.LENS_FACING_BACK;
+    try {
+      for (String cameraId : cameraManager.getCameraIdList()) {
+        CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        StreamConfigurationMap map =
+            characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (facing == null || facing != characteristicsLensFacing || map == null) {
+          continue;
+        }
+        for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+          if (size.getWidth() * size.getHeight() <= AUTO_TUNE_MAX_PIXELS) {
+            sizes.add(size);
+          }
+        }
+        break;
+      }
+    } catch (CameraAccessException e) {
+      Log.e(TAG, "Failed to get supported analysis sizes.", e);
+    }
+    return sizes;
+  }
+
+  /** Camera sizes are in landscape, while CameraX expects sizes in the target rotation. */
+  private Size toTargetRotation(Size size) {
+    if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
+      return new Size(size.getHeight(), size.getWidth());
+    }
+    return size;
+  }
+
   private String[] getRequiredPermissions() {
     try {
       PackageInfo info =
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.Locale;
+
+/**
+ * Decides which camera frames an always-on detector should process, based on whether somebody is
+ * in front of the camera.
+ *
+ * <ul>
+ *   <li>{@link State#ACTIVE}: a person is making a gesture, every frame is processed.
+ *   <li>{@link State#PRESENCE}: a person is visible, frames are sampled at {@link #PRESENCE_FPS}.
+ *   <li>{@link State#IDLE}: nobody was seen for {@link #IDLE_TIMEOUT_MS}, frames are sampled at
+ *       {@link #IDLE_FPS}.
+ * </ul>
+ *
+ * <p>The sampling rate is further capped when the device reports a moderate or worse thermal
+ * status. Skipped frames should be closed right away by the analyzer, without running detection.
+ * The detection results are fed through {@link #onDetectionResult} from the {@link
+ * VisionProcessorBase.ResultListener} of a processor in headless mode, e.g. in {@link
+ * MyCameraService}.
+ *
+ * <p>The governor tracks the time spent in each state and estimates the CPU time saved by skipping
+ * frames, from the average detector latency reported through {@link
+ * VisionProcessorBase.LatencyListener}. This class is not thread safe and is expected to be used on
+ * a single thread, e.g. the one delivering the detection results.
+ */
+public class FrameRateGovernor implements VisionProcessorBase.LatencyListener {
+
+  /** The activity level of the scene in front of the camera. */
+  public enum State {
+    IDLE,
+    PRESENCE,
+    ACTIVE,
+  }
+
+  private static final String TAG = "FrameRateGovernor";
+
+  public static final int IDLE_FPS = 2;
+  public static final int PRESENCE_FPS = 10;
+  public static final long IDLE_TIMEOUT_MS = 5000;
+  // Frame rate caps applied on thermal status changes.
+  private static final int THERMAL_MODERATE_MAX_FPS = 15;
+  private static final int THERMAL_SEVERE_MAX_FPS = 5;
+  private static final int UNLIMITED_FPS = Integer.MAX_VALUE;
+
+  private final long[] timeInStateMs = new long[State.values().length];
+
+  private State state = State.PRESENCE;
+  private long stateStartMs;
+  private long lastPersonSeenMs;
+  private long lastProcessedFrameMs;
+  private int thermalMaxFps = UNLIMITED_FPS;
+
+  private long numProcessedFrames;
+  private long numSkippedFrames;
+  private long numMeasuredFrames;
+  private long totalDetectorMs;
+
+  public FrameRateGovernor() {
+    long nowMs = SystemClock.elapsedRealtime();
+    stateStartMs = nowMs;
+    lastPersonSeenMs = nowMs;
+  }
+
+  /**
+   * Returns whether the frame arriving now should be processed. When it returns true, the frame is
+   * counted as processed and the next one is only accepted after the sampling interval.
+   */
+  public boolean shouldProcessFrame() {
+    long nowMs = SystemClock.elapsedRealtime();
+    updateIdleState(nowMs);
+    int fps = getTargetFps();
+    if (fps != UNLIMITED_FPS && nowMs - lastProcessedFrameMs < 1000 / fps) {
+      numSkippedFrames++;
+      return false;
+    }
+    lastProcessedFrameMs = nowMs;
+    numProcessedFrames++;
+    return true;
+  }
+
+  /**
+   * Updates the state from a detection result.
+   *
+   * @param isPersonPresent whether a person was detected in the frame
+   * @param isGestureActive whether the detected person is making a gesture
+   */
+  public void onDetectionResult(boolean isPersonPresent, boolean isGestureActive) {
+    long nowMs = SystemClock.elapsedRealtime();
+    if (isPersonPresent) {
+      lastPersonSeenMs = nowMs;
+      setState(isGestureActive ? State.ACTIVE : State.PRESENCE, nowMs);
+    } else {
+      updateIdleState(nowMs);
+    }
+  }
+
+  /**
+   * Updates the thermal status of the device, one of the {@code PowerManager.THERMAL_STATUS_*}
+   * values.
+   */
+  public void onThermalStatusChanged(int status) {
+    if (status >= PowerManager.THERMAL_STATUS_SEVERE) {
+      thermalMaxFps = THERMAL_SEVERE_MAX_FPS;
+    } else if (status >= PowerManager.THERMAL_STATUS_MODERATE) {
+      thermalMaxFps = THERMAL_MODERATE_MAX_FPS;
+    } else {
+      thermalMaxFps = UNLIMITED_FPS;
+    }
+    Log.d(TAG, "Thermal status " + status + ", max FPS: " + thermalMaxFps);
+  }
+
+  @Override
+  public void onFrameProcessed(long frameLatencyMs, long detectorLatencyMs) {
+    numMeasuredFrames++;
+    totalDetectorMs += detectorLatencyMs;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /** Returns the time spent in the given state so far, including the current one. */
+  public long getTimeInStateMs(State state) {
+    long timeMs = timeInStateMs[state.ordinal()];
+    if (state == this.state) {
+      timeMs += SystemClock.elapsedRealtime() - stateStartMs;
+    }
+    return timeMs;
+  }
+
+  public long getNumProcessedFrames() {
+    return numProcessedFrames;
+  }
+
+  public long getNumSkippedFrames() {
+    return numSkippedFrames;
+  }
+
+  /** Estimates the detector CPU time saved by skipped frames, from the average detector latency. */
+  public long getEstimatedSavedCpuMs() {
+    if (numMeasuredFrames == 0) {
+      return 0;
+    }
+    return numSkippedFrames * totalDetectorMs / numMeasuredFrames;
+  }
+
+  /** Logs the time spent in each state, the processed and skipped frames and the CPU saved. */
+  public void logStats() {
+    Log.d(
+        TAG,
+        String.format(
+            Locale.US,
+            "State %s. Time in idle=%ds, presence=%ds, active=%ds. Frames processed=%d,"
+                + " skipped=%d. Estimated CPU saved=%dms",
+            state,
+            getTimeInStateMs(State.IDLE) / 1000,
+            getTimeInStateMs(State.PRESENCE) / 1000,
+            getTimeInStateMs(State.ACTIVE) / 1000,
+            numProcessedFrames,
+            numSkippedFrames,
+            getEstimatedSavedCpuMs()));
+  }
+
+  private int getTargetFps() {
+    int fps;
+    switch (state) {
+      case IDLE:
+        fps = IDLE_FPS;
+        break;
+      case PRESENCE:
+        fps = PRESENCE_FPS;
+        break;
+      default:
+        fps = UNLIMITED_FPS;
+    }
+    return Math.min(fps, thermalMaxFps);
+  }
+
+  private void updateIdleState(long nowMs) {
+    if (state != State.IDLE && nowMs - lastPersonSeenMs >= IDLE_TIMEOUT_MS) {
+      setState(State.IDLE, nowMs);
+    }
+  }
+
+  private void setState(State newState, long nowMs) {
+    if (newState == state) {
+      return;
+    }
+    timeInStateMs[state.ordinal()] += nowMs - stateStartMs;
+    stateStartMs = nowMs;
+    state = newState;
+    logStats();
+  }
+}
@@ -37,10 +37,12 @@ import androidx.core.app.ActivityCompat.OnRequestPermissionsResultCallback;
 import androidx.core.content.ContextCompat;
 import com.google.android.gms.common.annotation.KeepName;
 import com.google.mlkit.common.model.LocalModel;
+import com.google.mlkit.vision.demo.Camera2Source;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSourcePreview;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
 import com.google.mlkit.vision.demo.java.labeldetector.LabelDetectorProcessor;
@@ -83,6 +85,8 @@ public final class LivePreviewActivity extends AppCompatActivity
   private static final int PERMISSION_REQUESTS = 1;
 
   private CameraSource cameraSource = null;
+  // Used instead of cameraSource when the Camera2 API is enabled in the settings.
+  private Camera2Source camera2Source = null;
   private CameraSourcePreview preview;
   private GraphicOverlay graphicOverlay;
   private String selectedModel = OBJECT_DETECTION;
@@ -174,14 +178,40 @@ public final class LivePreviewActivity extends AppCompatActivity
         cameraSource.setFacing(CameraSource.CAMERA_FACING_BACK);
       }
     }
+    if (camera2Source != null) {
+      if (isChecked) {
+        camera2Source.setFacing(Camera2Source.CAMERA_FACING_FRONT);
+      } else {
+        camera2Source.setFacing(Camera2Source.CAMERA_FACING_BACK);
+      }
+    }
     preview.stop();
     startCameraSource();
   }
 
   private void createCameraSource(String model) {
-    // If there's no existing cameraSource, create one.
-    if (cameraSource == null) {
-      cameraSource = new CameraSource(this, graphicOverlay);
+    // If there's no existing camera source of the API set in the settings, create one.
+    if (PreferenceUtils.isCamera2SourceEnabled(this)) {
+      if (cameraSource != null) {
+        cameraSource.release();
+        cameraSource = null;
+      }
+      if (camera2Source == null) {
+        camera2Source = new Camera2Source(this, graphicOverlay);
+        ToggleButton facingSwitch = findViewById(R.id.facing_switch);
+        camera2Source.setFacing(
+            facingSwitch.isChecked()
+                ? Camera2Source.CAMERA_FACING_FRONT
+                : Camera2Source.CAMERA_FACING_BACK);
+      }
+    } else {
+      if (camera2Source != null) {
+        camera2Source.release();
+        camera2Source = null;
+      }
+      if (cameraSource == null) {
+        cameraSource = new CameraSource(this, graphicOverlay);
+      }
     }
 
     try {
@@ -190,7 +220,7 @@ public final class LivePreviewActivity extends AppCompatActivity
           Log.i(TAG, "Using Object Detector Processor");
           ObjectDetectorOptions objectDetectorOptions =
               PreferenceUtils.getObjectDetectorOptionsForLivePreview(this);
-          cameraSource.setMachineLearningFrameProcessor(
+          setMachineLearningFrameProcessor(
               new ObjectDetectorProcessor(this, objectDetectorOptions));
           break;
         case OBJECT_DETECTION_CUSTOM:
@@ -201,7 +231,7 @@ public final class LivePreviewActivity extends AppCompatActivity
                   .build();
           CustomObjectDetectorOptions customObjectDetectorOptions =
               PreferenceUtils.getCustomObjectDetectorOptionsForLivePreview(this, localModel);
-          cameraSource.setMachineLearningFrameProcessor(
+          setMachineLearningFrameProcessor(
               new ObjectDetectorProcessor(this, customObjectDetectorOptions));
           break;
         case CUSTOM_AUTOML_OBJECT_DETECTION:
@@ -211,27 +241,27 @@ public final class LivePreviewActivity extends AppCompatActivity
           CustomObjectDetectorOptions customAutoMLODTOptions =
               PreferenceUtils.getCustomObjectDetectorOptionsForLivePreview(
                   this, customAutoMLODTLocalModel);
-          cameraSource.setMachineLearningFrameProcessor(
+          setMachineLearningFrameProcessor(
               new ObjectDetectorProcessor(this, customAutoMLODTOptions));
           break;
         case TEXT_RECOGNITION:
           Log.i(TAG, "Using on-device Text recognition Processor");
-          cameraSource.setMachineLearningFrameProcessor(new TextRecognitionProcessor(this));
+          setMachineLearningFrameProcessor(new TextRecognitionProcessor(this));
           break;
         case FACE_DETECTION:
           Log.i(TAG, "Using Face Detector Processor");
           FaceDetectorOptions faceDetectorOptions =
               PreferenceUtils.getFaceDetectorOptionsForLivePreview(this);
-          cameraSource.setMachineLearningFrameProcessor(
+          setMachineLearningFrameProcessor(
               new FaceDetectorProcessor(this, faceDetectorOptions));
           break;
         case BARCODE_SCANNING:
           Log.i(TAG, "Using Barcode Detector Processor");
-          cameraSource.setMachineLearningFrameProcessor(new BarcodeScannerProcessor(this));
+          setMachineLearningFrameProcessor(new BarcodeScannerProcessor(this));
           break;
         case IMAGE_LABELING:
           Log.i(TAG, "Using Image Label Detector Processor");
-          cameraSource.setMachineLearningFrameProcessor(
+          setMachineLearningFrameProcessor(
               new LabelDetectorProcessor(this, ImageLabelerOptions.DEFAULT_OPTIONS));
           break;
         case IMAGE_LABELING_CUSTOM:
@@ -242,7 +272,7 @@ public final class LivePreviewActivity extends AppCompatActivity
                   .build();
           CustomImageLabelerOptions customImageLabelerOptions =
               new CustomImageLabelerOptions.Builder(localClassifier).build();
-          cameraSource.setMachineLearningFrameProcessor(
+          setMachineLearningFrameProcessor(
               new LabelDetectorProcessor(this, customImageLabelerOptions));
           break;
         case CUSTOM_AUTOML_LABELING:
@@ -253,7 +283,7 @@ public final class LivePreviewActivity extends AppCompatActivity
               new CustomImageLabelerOptions.Builder(customAutoMLLabelLocalModel)
                   .setConfidenceThreshold(0)
                   .build();
-          cameraSource.setMachineLearningFrameProcessor(
+          setMachineLearningFrameProcessor(
               new LabelDetectorProcessor(this, customAutoMLLabelOptions));
           break;
         case POSE_DETECTION:
@@ -265,12 +295,12 @@ public final class LivePreviewActivity extends AppCompatActivity
           boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
           boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
           boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
-          cameraSource.setMachineLearningFrameProcessor(new PoseDetectorProcessor(
+          setMachineLearningFrameProcessor(new PoseDetectorProcessor(
               this, poseDetectorOptions, shouldShowInFrameLikelihood, visualizeZ, rescaleZ,
               runClassification, /* isStreamMode = */true));
           break;
         case SELFIE_SEGMENTATION:
-          cameraSource.setMachineLearningFrameProcessor(new SegmenterProcessor(this));
+          setMachineLearningFrameProcessor(new SegmenterProcessor(this));
           break;
         default:
           Log.e(TAG, "Unknown model: " + model);
@@ -285,13 +315,29 @@ public final class LivePreviewActivity extends AppCompatActivity
     }
   }
 
+  private void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
+    if (camera2Source != null) {
+      camera2Source.setMachineLearningFrameProcessor(processor);
+    } else {
+      cameraSource.setMachineLearningFrameProcessor(processor);
+    }
+  }
+
   /**
    * Starts or restarts the camera source, if it exists. If the camera source doesn't exist yet
    * (e.g., because onResume was called before the camera source was created), this will be called
    * again when the camera source is created.
    */
   private void startCameraSource() {
-    if (cameraSource != null) {
+    if (camera2Source != null) {
+      try {
+        preview.start(camera2Source, graphicOverlay);
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to start camera source.", e);
+        camera2Source.release();
+        camera2Source = null;
+      }
+    } else if (cameraSource != null) {
       try {
         if (preview == null) {
           Log.d(TAG, "resume: Preview is null");
@@ -329,6 +375,9 @@ public final class LivePreviewActivity extends AppCompatActivity
     if (cameraSource != null) {
       cameraSource.release();
     }
+    if (camera2Source != null) {
+      camera2Source.release();
+    }
   }
 
   private String[] getRequiredPermissions() {
@@ -15,12 +15,9 @@ import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.PowerManager;
 import android.util.Log;
 import android.util.Size;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.view.WindowManager;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -33,10 +30,8 @@ import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
-import androidx.camera.view.PreviewView;
 
 import androidx.core.app.NotificationCompat;
-import androidx.core.content.ContextCompat;
 import androidx.lifecycle.HasDefaultViewModelProviderFactory;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleEventObserver;
@@ -48,15 +43,17 @@ import androidx.lifecycle.ViewModelStoreOwner;
 
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.vision.demo.CameraXViewModel;
-import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.java.posedetector.PoseDetectorProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.PoseDetectorProcessor.PoseWithClassification;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
 
 
 import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.google.mlkit.vision.demo.preference.PreferenceUtils.getCameraXTargetResolution;
 //import android.support.annotation.Nullable;
@@ -66,18 +63,19 @@ public class MyCameraService extends LifecycleService implements ViewModelStoreO
     public static final String CHANNEL_ID = "ForegroundServiceChannel";
     private static final String TAG = "MyCameraService";
 
-    private View mView;
-    private PreviewView previewView;
-    private GraphicOverlay graphicOverlay;
+    // Runs the analyzer, the detection result handling and the frame rate governor.
+    private ExecutorService analysisExecutor;
     @Nullable private ProcessCameraProvider cameraProvider;
     @Nullable private Preview previewUseCase;
     @Nullable private ImageAnalysis analysisUseCase;
     @Nullable private VisionImageProcessor imageProcessor;
-    private boolean needUpdateGraphicOverlayImageSourceInfo;
     private static final String POSE_DETECTION = "Pose Detection";
     private String selectedModel = POSE_DETECTION;
     private int lensFacing = CameraSelector.LENS_FACING_FRONT;
     private CameraSelector cameraSelector;
+    // Lowers the analysis frame rate when nobody is in front of the camera.
+    private final FrameRateGovernor frameRateGovernor = new FrameRateGovernor();
+    @Nullable private PowerManager.OnThermalStatusChangedListener thermalStatusListener;
 
     final ViewModelStore mViewModelStore = new ViewModelStore();
     ViewModelProvider.Factory mFactory;
@@ -88,25 +86,9 @@ public class MyCameraService extends LifecycleService implements ViewModelStoreO
         //Toast.makeText(this, "Service was Created", Toast.LENGTH_LONG).show();
         Log.e("MyCameraService","VIJESH: onCreate()");
 
-        LayoutInflater inflater = (LayoutInflater) getSystemService(LAYOUT_INFLATER_SERVICE);
-        WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
-        View mView = inflater.inflate(R.layout.activity_vision_camerax_live_preview, null);
-//        ViewGroup.LayoutParams params = new WindowManager.LayoutParams(
-//                WindowManager.LayoutParams.MATCH_PARENT,
-//                WindowManager.LayoutParams.WRAP_CONTENT,
-//                WindowManager.LayoutParams.TYPE_APPLICATION_PANEL,
-//                0,
-//                PixelFormat.TRANSLUCENT);
-//        wm.addView(mView, params);
-
-        previewView = mView.findViewById(R.id.preview_view);
-        if (previewView == null) {
-            Log.i("MyCameraService", "VIJESH previewView is null");
-        }
-        graphicOverlay = mView.findViewById(R.id.graphic_overlay);
-        if (graphicOverlay == null) {
-            Log.i("MyCameraService", "VIJESH graphicOverlay is null");
-        }
+        // Nothing is displayed by the service, so frames are analyzed in headless mode on a
+        // background thread, without inflating any view.
+        analysisExecutor = Executors.newSingleThreadExecutor();
 
         cameraSelector = getCameraSelector();
 
@@ -139,6 +121,12 @@ public class MyCameraService extends LifecycleService implements ViewModelStoreO
             }
         });
 
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            thermalStatusListener = frameRateGovernor::onThermalStatusChanged;
+            getSystemService(PowerManager.class)
+                    .addThermalStatusListener(analysisExecutor, thermalStatusListener);
+        }
+
         new ViewModelProvider(this, ViewModelProvider.AndroidViewModelFactory.getInstance(getApplication()))
                 .get(CameraXViewModel.class)
                 .getProcessCameraProvider()
@@ -210,6 +198,23 @@ public class MyCameraService extends LifecycleService implements ViewModelStoreO
     public void onDestroy() {
         super.onDestroy();
         Log.i("MyCameraService","VIJESH: onDestroy()");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && thermalStatusListener != null) {
+            getSystemService(PowerManager.class).removeThermalStatusListener(thermalStatusListener);
+            thermalStatusListener = null;
+        }
+        // Stops the frames first, so that the analyzer never runs on a stopped processor or a shut
+        // down executor, which would leave its image unclosed.
+        if (analysisUseCase != null) {
+            analysisUseCase.clearAnalyzer();
+        }
+        if (cameraProvider != null) {
+            cameraProvider.unbindAll();
+        }
+        if (imageProcessor != null) {
+            imageProcessor.stop();
+        }
+        analysisExecutor.execute(frameRateGovernor::logStats);
+        analysisExecutor.shutdown();
     }
     @Nullable
     @Override
@@ -250,10 +255,29 @@ public class MyCameraService extends LifecycleService implements ViewModelStoreO
                     boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
                     boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
                     boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
-                    imageProcessor =
+                    PoseDetectorProcessor poseDetectorProcessor =
                             new PoseDetectorProcessor(
                                     this, poseDetectorOptions, shouldShowInFrameLikelihood, visualizeZ, rescaleZ,
                                     runClassification, /* isStreamMode = */true);
+                    poseDetectorProcessor.setLatencyListener(frameRateGovernor);
+                    poseDetectorProcessor.setHeadlessMode(
+                            analysisExecutor,
+                            new VisionProcessorBase.ResultListener<PoseWithClassification>() {
+                                @Override
+                                public void onResult(@NonNull PoseWithClassification results) {
+                                    boolean isPersonPresent =
+                                            !results.getPose().getAllPoseLandmarks().isEmpty();
+                                    frameRateGovernor.onDetectionResult(
+                                            isPersonPresent,
+                                            isPersonPresent && poseDetectorProcessor.isGestureActive());
+                                }
+
+                                @Override
+                                public void onError(@NonNull Exception e) {
+                                    Log.e(TAG, "Pose detection failed.", e);
+                                }
+                            });
+                    imageProcessor = poseDetectorProcessor;
                     break;
                 default:
                     throw new IllegalStateException("Invalid model name");
@@ -275,30 +299,20 @@ public class MyCameraService extends LifecycleService implements ViewModelStoreO
         }
         analysisUseCase = builder.build();
 
-        needUpdateGraphicOverlayImageSourceInfo = true;
         analysisUseCase.setAnalyzer(
                 // imageProcessor.processImageProxy will use another thread to run the detection underneath,
-                // thus we can just runs the analyzer itself on main thread.
-                ContextCompat.getMainExecutor(this),
+                // the analyzer itself and the results are handled on the analysis thread.
+                analysisExecutor,
                 imageProxy -> {
-                    if (needUpdateGraphicOverlayImageSourceInfo) {
-                        boolean isImageFlipped = lensFacing == CameraSelector.LENS_FACING_FRONT;
-                        int rotationDegrees = imageProxy.getImageInfo().getRotationDegrees();
-                        if (rotationDegrees == 0 || rotationDegrees == 180) {
-                            graphicOverlay.setImageSourceInfo(
-                                    imageProxy.getWidth(), imageProxy.getHeight(), isImageFlipped);
-                        } else {
-                            graphicOverlay.setImageSourceInfo(
-                                    imageProxy.getHeight(), imageProxy.getWidth(), isImageFlipped);
-                        }
-                        needUpdateGraphicOverlayImageSourceInfo = false;
+                    if (!frameRateGovernor.shouldProcessFrame()) {
+                        // Skipped frames must be closed right away so the camera keeps producing.
+                        imageProxy.close();
+                        return;
                     }
                     try {
-                        imageProcessor.processImageProxy(imageProxy, graphicOverlay);
+                        imageProcessor.processImageProxy(imageProxy, /* graphicOverlay= */ null);
                     } catch (MlKitException e) {
                         Log.e(TAG, "Failed to process image. Error: " + e.getLocalizedMessage());
-                        Toast.makeText(getApplicationContext(), e.getLocalizedMessage(), Toast.LENGTH_SHORT)
-                                .show();
                     }
                 });
 
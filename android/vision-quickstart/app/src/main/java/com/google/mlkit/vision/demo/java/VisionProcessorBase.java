@@ -23,6 +23,7 @@ import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.media.Image;
 import android.os.Build.VERSION_CODES;
 import android.os.SystemClock;
 import androidx.annotation.GuardedBy;
@@ -45,27 +46,61 @@ import com.google.mlkit.vision.demo.ScopedExecutor;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Executor;
 
 /**
  * Abstract base class for vision frame processors. Subclasses need to implement {@link
  * #onSuccess(Object, GraphicOverlay)} to define what they want to with the detection results and
  * {@link #detectInImage(InputImage)} to specify the detector object.
  *
+ * <p>In headless mode (see {@link #setHeadlessMode(Executor, ResultListener)}), results are
+ * delivered to a {@link ResultListener} on the given executor instead of being drawn: no graphic
+ * overlay is needed, no preview bitmap is created and no toast is shown on failure.
+ *
  * @param <T> The type of the detected feature.
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
+  /**
+   * Receives the latencies of every successfully processed frame, on the main thread or on the
+   * headless mode executor.
+   */
+  public interface LatencyListener {
+    void onFrameProcessed(long frameLatencyMs, long detectorLatencyMs);
+  }
+
+  /** Provides extra lines shown under the latencies in the inference info, on the main thread. */
+  public interface InferenceInfoSource {
+    List<String> getInferenceInfo();
+  }
+
+  /** Receives the detection results in headless mode, on the headless mode executor. */
+  public interface ResultListener<T> {
+    void onResult(@NonNull T results);
+
+    void onError(@NonNull Exception e);
+  }
+
   protected static final String MANUAL_TESTING_LOG = "LogTagForTest";
   private static final String TAG = "VisionProcessorBase";
 
   private final ActivityManager activityManager;
   private final Timer fpsTimer = new Timer();
-  private final ScopedExecutor executor;
+  // Executor the detection results are handled on, the main thread unless in headless mode.
+  private Executor resultExecutor = TaskExecutors.MAIN_THREAD;
+  private ScopedExecutor executor;
 
   // Whether this processor is already shut down
-  private boolean isShutdown;
+  private volatile boolean isShutdown;
+
+  @Nullable private LatencyListener latencyListener;
+  @Nullable private InferenceInfoSource inferenceInfoSource;
+  // Only set in headless mode.
+  @Nullable private ResultListener<T> resultListener;
 
   // Used to calculate latency, running in the same thread, no sync needed.
   private int numRuns = 0;
@@ -75,6 +110,11 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   private long totalDetectorMs = 0;
   private long maxDetectorMs = 0;
   private long minDetectorMs = Long.MAX_VALUE;
+  // Only counts frames with a known sensor timestamp, e.g. from the Camera2 API.
+  private int numCaptureRuns = 0;
+  private long totalCaptureToResultMs = 0;
+  private long maxCaptureToResultMs = 0;
+  private long minCaptureToResultMs = Long.MAX_VALUE;
 
   // Frame count that have been processed so far in an one second interval to calculate FPS.
   private int frameProcessedInOneSecondInterval = 0;
@@ -93,9 +133,26 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   @GuardedBy("this")
   private FrameMetadata processingMetaData;
 
+  // To keep the latest and in process images from the Camera2 API, with the callbacks giving them
+  // back to the camera. Each of them holds one of the camera's ImageReader buffers until released.
+  @GuardedBy("this")
+  private Image latestMediaImage;
+
+  @GuardedBy("this")
+  private FrameMetadata latestMediaImageMetaData;
+
+  @GuardedBy("this")
+  private Runnable latestMediaImageRelease;
+
+  @GuardedBy("this")
+  private Image processingMediaImage;
+
+  @GuardedBy("this")
+  private Runnable processingMediaImageRelease;
+
   protected VisionProcessorBase(Context context) {
     activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-    executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
+    executor = new ScopedExecutor(resultExecutor);
     fpsTimer.scheduleAtFixedRate(
         new TimerTask() {
           @Override
@@ -108,6 +165,36 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
         /* period= */ 1000);
   }
 
+  /** Sets a listener notified with the latencies of every processed frame, or null to clear it. */
+  public void setLatencyListener(@Nullable LatencyListener latencyListener) {
+    this.latencyListener = latencyListener;
+  }
+
+  /** Sets a source of extra lines for the inference info, or null to clear it. */
+  public void setInferenceInfoSource(@Nullable InferenceInfoSource inferenceInfoSource) {
+    this.inferenceInfoSource = inferenceInfoSource;
+  }
+
+  /**
+   * Switches this processor to headless mode. Results are delivered to the listener on the given
+   * executor, which must run tasks one at a time (e.g. a single thread executor) since the latency
+   * stats are not synchronized. The graphic overlay passed to the process methods is ignored and
+   * may be null.
+   *
+   * <p>Must be called before processing any image.
+   */
+  public void setHeadlessMode(Executor resultExecutor, ResultListener<T> resultListener) {
+    executor.shutdown();
+    this.resultExecutor = resultExecutor;
+    this.resultListener = resultListener;
+    executor = new ScopedExecutor(resultExecutor);
+  }
+
+  /** Returns whether results are delivered to a {@link ResultListener} instead of drawn. */
+  public boolean isHeadless() {
+    return resultListener != null;
+  }
+
   // -----------------Code for processing single still image----------------------------------------
   @Override
   public void processBitmap(Bitmap bitmap, final GraphicOverlay graphicOverlay) {
@@ -117,7 +204,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
         graphicOverlay,
         /* originalCameraImage= */ null,
         /* shouldShowFps= */ false,
-        frameStartMs);
+        frameStartMs,
+        FrameMetadata.UNKNOWN_TIMESTAMP);
   }
 
   // -----------------Code for processing live preview frame from Camera1 API-----------------------
@@ -145,12 +233,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
     long frameStartMs = SystemClock.elapsedRealtime();
 
-    // If live viewport is on (that is the underneath surface view takes care of the camera preview
-    // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
     Bitmap bitmap =
-        PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
-            ? null
-            : BitmapUtils.getBitmap(data, frameMetadata);
+        shouldSkipPreviewBitmap(graphicOverlay) ? null : BitmapUtils.getBitmap(data, frameMetadata);
 
     requestDetectInImage(
             InputImage.fromByteBuffer(
@@ -162,10 +246,78 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             graphicOverlay,
             bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
+            frameStartMs,
+            frameMetadata.getTimestampNanos())
         .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
   }
 
+  // -----------------Code for processing live preview frame from Camera2 API-----------------------
+  @Override
+  @RequiresApi(VERSION_CODES.KITKAT)
+  public synchronized void processMediaImage(
+      Image image,
+      final FrameMetadata frameMetadata,
+      final GraphicOverlay graphicOverlay,
+      Runnable releaseImage) {
+    if (latestMediaImageRelease != null) {
+      // The pending image has been superseded before being processed, so give its buffer back to
+      // the camera right away.
+      latestMediaImageRelease.run();
+    }
+    latestMediaImage = image;
+    latestMediaImageMetaData = frameMetadata;
+    latestMediaImageRelease = releaseImage;
+    if (processingMediaImage == null) {
+      processLatestMediaImage(graphicOverlay);
+    }
+  }
+
+  @RequiresApi(VERSION_CODES.KITKAT)
+  private synchronized void processLatestMediaImage(final GraphicOverlay graphicOverlay) {
+    if (processingMediaImageRelease != null) {
+      processingMediaImageRelease.run();
+    }
+    processingMediaImage = latestMediaImage;
+    processingMediaImageRelease = latestMediaImageRelease;
+    FrameMetadata frameMetadata = latestMediaImageMetaData;
+    latestMediaImage = null;
+    latestMediaImageMetaData = null;
+    latestMediaImageRelease = null;
+    if (processingMediaImage == null) {
+      return;
+    }
+    if (isShutdown) {
+      processingMediaImageRelease.run();
+      processingMediaImage = null;
+      processingMediaImageRelease = null;
+      return;
+    }
+    processMediaImageInternal(processingMediaImage, frameMetadata, graphicOverlay);
+  }
+
+  @RequiresApi(VERSION_CODES.KITKAT)
+  private void processMediaImageInternal(
+      Image image, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
+    long frameStartMs = SystemClock.elapsedRealtime();
+
+    Bitmap bitmap = null;
+    if (!shouldSkipPreviewBitmap(graphicOverlay)) {
+      bitmap = BitmapUtils.getBitmap(image, frameMetadata);
+    }
+
+    // The YUV_420_888 planes are passed to the detector as is, without converting them to NV21.
+    requestDetectInImage(
+            InputImage.fromMediaImage(image, frameMetadata.getRotation()),
+            graphicOverlay,
+            bitmap,
+            /* shouldShowFps= */ true,
+            frameStartMs,
+            frameMetadata.getTimestampNanos())
+        // Releases the processed image and moves on to the latest one, even if detection failed.
+        // Not using the scoped executor, so that the image is also released after stop.
+        .addOnCompleteListener(resultExecutor, results -> processLatestMediaImage(graphicOverlay));
+  }
+
   // -----------------Code for processing live preview frame from CameraX API-----------------------
   @Override
   @RequiresApi(VERSION_CODES.KITKAT)
@@ -178,7 +330,7 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     }
 
     Bitmap bitmap = null;
-    if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
+    if (!shouldSkipPreviewBitmap(graphicOverlay)) {
       bitmap = BitmapUtils.getBitmap(image);
     }
 
@@ -187,11 +339,23 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             graphicOverlay,
             /* originalCameraImage= */ bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
+            frameStartMs,
+            FrameMetadata.UNKNOWN_TIMESTAMP)
         // When the image is from CameraX analysis use case, must call image.close() on received
         // images when finished using them. Otherwise, new images may not be received or the camera
-        // may stall.
-        .addOnCompleteListener(results -> image.close());
+        // may stall. Not using the scoped executor, so that images are closed even after stop.
+        .addOnCompleteListener(resultExecutor, results -> image.close());
+  }
+
+  /**
+   * If live viewport is on (that is the underneath surface view takes care of the camera preview
+   * drawing), or nothing is drawn at all in headless mode or without an overlay, skips the
+   * unnecessary bitmap creation that used for the manual preview drawing.
+   */
+  private boolean shouldSkipPreviewBitmap(@Nullable GraphicOverlay graphicOverlay) {
+    return isHeadless()
+        || graphicOverlay == null
+        || PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext());
   }
 
   // -----------------Common processing logic-------------------------------------------------------
@@ -200,7 +364,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long frameStartMs,
+      long captureTimestampNanos) {
     final long detectorStartMs = SystemClock.elapsedRealtime();
     return detectInImage(image)
         .addOnSuccessListener(
@@ -220,6 +385,17 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               totalDetectorMs += currentDetectorLatencyMs;
               maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs);
               minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs);
+              if (captureTimestampNanos != FrameMetadata.UNKNOWN_TIMESTAMP) {
+                long currentCaptureToResultMs =
+                    (SystemClock.elapsedRealtimeNanos() - captureTimestampNanos) / 1_000_000;
+                numCaptureRuns++;
+                totalCaptureToResultMs += currentCaptureToResultMs;
+                maxCaptureToResultMs = max(currentCaptureToResultMs, maxCaptureToResultMs);
+                minCaptureToResultMs = min(currentCaptureToResultMs, minCaptureToResultMs);
+              }
+              if (latencyListener != null) {
+                latencyListener.onFrameProcessed(currentFrameLatencyMs, currentDetectorLatencyMs);
+              }
 
               // Only log inference info once per second. When frameProcessedInOneSecondInterval is
               // equal to 1, it means this is the first frame processed during the current second.
@@ -241,12 +417,28 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                         + minDetectorMs
                         + ", avg="
                         + totalDetectorMs / numRuns);
+                if (numCaptureRuns > 0) {
+                  Log.d(
+                      TAG,
+                      "Capture-to-result latency: max="
+                          + maxCaptureToResultMs
+                          + ", min="
+                          + minCaptureToResultMs
+                          + ", avg="
+                          + totalCaptureToResultMs / numCaptureRuns);
+                }
                 MemoryInfo mi = new MemoryInfo();
                 activityManager.getMemoryInfo(mi);
                 long availableMegs = mi.availMem / 0x100000L;
                 Log.d(TAG, "Memory available in system: " + availableMegs + " MB");
               }
 
+              if (resultListener != null) {
+                VisionProcessorBase.this.onHeadlessSuccess(results);
+                resultListener.onResult(results);
+                return;
+              }
+
               graphicOverlay.clear();
               if (originalCameraImage != null) {
                 graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
@@ -256,15 +448,24 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                       graphicOverlay,
                       currentFrameLatencyMs,
                       currentDetectorLatencyMs,
-                      shouldShowFps ? framesPerSecond : null));
+                      shouldShowFps ? framesPerSecond : null,
+                      inferenceInfoSource != null
+                          ? inferenceInfoSource.getInferenceInfo()
+                          : Collections.emptyList()));
               VisionProcessorBase.this.onSuccess(results, graphicOverlay);
               graphicOverlay.postInvalidate();
             })
         .addOnFailureListener(
             executor,
             e -> {
+              if (resultListener != null) {
+                Log.d(TAG, "Failed to process. Error: " + e.getLocalizedMessage());
+                VisionProcessorBase.this.onFailure(e);
+                resultListener.onError(e);
+                return;
+              }
+
               graphicOverlay.clear();
-              graphicOverlay.postInvalidate();
               String error = "Failed to process. Error: " + e.getLocalizedMessage();
               Toast.makeText(
                       graphicOverlay.getContext(),
@@ -280,7 +481,16 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   @Override
   public void stop() {
     executor.shutdown();
-    isShutdown = true;
+    synchronized (this) {
+      isShutdown = true;
+      // The image being processed, if any, is released once its detection completes.
+      if (latestMediaImageRelease != null) {
+        latestMediaImageRelease.run();
+        latestMediaImage = null;
+        latestMediaImageMetaData = null;
+        latestMediaImageRelease = null;
+      }
+    }
     resetLatencyStats();
     fpsTimer.cancel();
   }
@@ -293,11 +503,22 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     totalDetectorMs = 0;
     maxDetectorMs = 0;
     minDetectorMs = Long.MAX_VALUE;
+    numCaptureRuns = 0;
+    totalCaptureToResultMs = 0;
+    maxCaptureToResultMs = 0;
+    minCaptureToResultMs = Long.MAX_VALUE;
   }
 
   protected abstract Task<T> detectInImage(InputImage image);
 
   protected abstract void onSuccess(@NonNull T results, @NonNull GraphicOverlay graphicOverlay);
 
+  /**
+   * Called instead of {@link #onSuccess(Object, GraphicOverlay)} in headless mode, before the
+   * results are delivered to the {@link ResultListener}. Subclasses can override it to run their
+   * non-drawing logic.
+   */
+  protected void onHeadlessSuccess(@NonNull T results) {}
+
   protected abstract void onFailure(@NonNull Exception e);
 }
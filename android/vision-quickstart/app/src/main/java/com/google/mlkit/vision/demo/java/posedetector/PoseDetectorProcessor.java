@@ -78,11 +78,12 @@ public class PoseDetectorProcessor
 
   AudioManager audioManager;
   private Thread mVolumeThread = null;
-  Integer mVolStatus = VOLUME_NOCHANGE;
+  // Written with each result, read by the volume and channel threads and by isGestureActive.
+  volatile Integer mVolStatus = VOLUME_NOCHANGE;
   boolean mVolThreadRunning = true;
 
   private Thread mChannelThread = null;
-  Integer mChannelStatus = CHANNEL_NOCHANGE;
+  volatile Integer mChannelStatus = CHANNEL_NOCHANGE;
   boolean mChannelThreadRunning = true;
 
   private PoseClassifierProcessor poseClassifierProcessor;
@@ -90,7 +91,7 @@ public class PoseDetectorProcessor
   /**
    * Internal class to hold Pose and classification results.
    */
-  protected static class PoseWithClassification {
+  public static class PoseWithClassification {
     private final Pose pose;
     private final List<String> classificationResult;
 
@@ -131,6 +132,11 @@ public class PoseDetectorProcessor
     startChannelThread();
   }
 
+  /** Returns whether the last detected pose is a volume or channel gesture. */
+  public boolean isGestureActive() {
+    return mVolStatus != VOLUME_NOCHANGE || mChannelStatus != CHANNEL_NOCHANGE;
+  }
+
   private void startVolThread() {
     mVolumeThread = new Thread(new Runnable() {
       public void run() {
@@ -232,6 +238,11 @@ public class PoseDetectorProcessor
     processResult(poseWithClassification.pose);
   }
 
+  @Override
+  protected void onHeadlessSuccess(@NonNull PoseWithClassification poseWithClassification) {
+    processResult(poseWithClassification.pose);
+  }
+
   //TODO VIJESH: this funciton should be mofied to add more features.
   private void processResult(Pose pose) {
     Log.i(TAG, "VIJESH processResult");
@@ -314,5 +314,11 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  public static boolean isCamera2SourceEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_camera2_source);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
   private PreferenceUtils() {}
 }